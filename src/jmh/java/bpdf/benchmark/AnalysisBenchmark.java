@@ -0,0 +1,56 @@
+// AnalysisBenchmark.java
+package bpdf.benchmark;
+
+import bpdf.graph.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of the static analyses on the bundled graphs. Consistency
+ * runs the SystemSolver on the balance equations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AnalysisBenchmark
+{
+    @Param({"src/ex1.bpdf", "src/ex2.bpdf", "src/ex3.bpdf",
+        "src/vc1coarse.bpdf"})
+    public String path;
+
+    private BPDFGraph graph;
+
+    @Setup
+    public void setup()
+    {
+        graph = new BPDFGraph(path);
+        graph.isConsistent();
+    }
+
+    @Benchmark
+    public boolean isConsistent()
+    {
+        return graph.isConsistent();
+    }
+
+    @Benchmark
+    public boolean isLive()
+    {
+        return graph.isLive();
+    }
+
+    @Benchmark
+    public boolean isSafe()
+    {
+        return graph.isSafe();
+    }
+}
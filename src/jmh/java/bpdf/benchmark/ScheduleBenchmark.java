@@ -0,0 +1,79 @@
+// ScheduleBenchmark.java
+package bpdf.benchmark;
+
+import bpdf.graph.*;
+import bpdf.scheduling.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of a single scheduled iteration. The graph is loaded, analysed
+ * and frozen once per trial; a scheduler keeps its run in its own
+ * ExecutionState, so a new one is built before every invocation and only
+ * getSchedule is measured, with the printing of the slots turned off.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScheduleBenchmark
+{
+    @Param({"src/vc1coarse.bpdf"})
+    public String path;
+
+    /** Values of p and q. */
+    @Param({"2,8", "3,4", "5,2", "16,32"})
+    public String pq;
+
+    @Param({"slotted", "nonslotted"})
+    public String scheduler;
+
+    private BPDFGraph graph;
+    private Map<String, Integer> intMap = new HashMap<String, Integer>();
+    private Map<String, String> boolMap = new HashMap<String, String>();
+    private Scheduler sched;
+
+    @Setup(Level.Trial)
+    public void setupTrial()
+    {
+        String[] values = pq.split(",");
+        intMap.put("p", Integer.parseInt(values[0]));
+        intMap.put("q", Integer.parseInt(values[1]));
+        boolMap.put("a", "1101");
+        boolMap.put("b", "011");
+        boolMap.put("c", "10");
+
+        graph = new BPDFGraph(path);
+        graph.isConsistent();
+        graph.isLive();
+        graph.isSafe();
+        graph.freeze();
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation()
+    {
+        if (scheduler.equals("slotted"))
+            sched = new SlottedScheduler(graph, intMap, boolMap);
+        else
+            sched = new NonSlottedScheduler(graph, intMap, boolMap);
+        sched._verbose = false;
+    }
+
+    @Benchmark
+    public int getSchedule()
+    {
+        return sched.getSchedule();
+    }
+}
@@ -0,0 +1,92 @@
+// SymbolBenchmark.java
+package bpdf.benchmark;
+
+import bpdf.symbol.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of the symbolic arithmetic: the Product, Fraction and
+ * Polynomial operations used by the balance equations and the constraints.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SymbolBenchmark
+{
+    private Product pq;
+    private Product q2;
+    private Product p;
+    private Fraction frac;
+    private Expression poly;
+    private Expression ceil;
+
+    @Setup
+    public void setup()
+    {
+        pq = new Product("2*p*q");
+        q2 = new Product("3*q^2");
+        p = new Product("p");
+        frac = new Fraction(new Product("4*p*q^2"), new Product("6*q"));
+        poly = pq.add(q2).add(new Product(5));
+        ceil = new Product("q").multiply(new Product("i"))
+            .add(new Product("-3")).divide(new Product("p")).ceiling();
+    }
+
+    @Benchmark
+    public Expression productMultiply()
+    {
+        return pq.multiply(q2);
+    }
+
+    @Benchmark
+    public Expression productDivide()
+    {
+        return q2.divide(pq);
+    }
+
+    @Benchmark
+    public Expression productParse()
+    {
+        return new Product("2*p*q^2");
+    }
+
+    @Benchmark
+    public Expression fractionNormalize()
+    {
+        return new Fraction(new Product("4*p*q^2"), new Product("6*q"));
+    }
+
+    @Benchmark
+    public Expression fractionMultiply()
+    {
+        return frac.multiply(p);
+    }
+
+    @Benchmark
+    public Expression polynomialAdd()
+    {
+        return poly.add(pq);
+    }
+
+    @Benchmark
+    public Expression polynomialMultiply()
+    {
+        return poly.multiply(p);
+    }
+
+    @Benchmark
+    public int evaluateCeiling()
+    {
+        return ceil.evaluate("p",3).evaluate("q",4).evaluate("i",7)
+            .getNumber();
+    }
+}
@@ -30,12 +30,12 @@ class DslParser
         edgeList.addAll(binding.eList);
     }
 
-    public List getActors()
+    public List<BPDFActor> getActors()
     {
         return actorList;
     }
 
-    public List getEdges()
+    public List<BPDFEdge> getEdges()
     {
         return edgeList;
     }
@@ -39,10 +39,16 @@ public class BpdfLauncher {
                                               .longOpt("load")
                                               .desc("load graph from file")
                                               .build();
+        Option convert = Option.builder("c").hasArg()
+                                            .argName("filename")
+                                            .longOpt("convert")
+                                            .desc("write the loaded graph in binary format")
+                                            .build();
         // Add options
         options.addOption(help);
         options.addOption(gui);
         options.addOption(loadgraph);
+        options.addOption(convert);
 
         // Parse options
         CommandLineParser parser = new DefaultParser();
@@ -61,6 +67,10 @@ public class BpdfLauncher {
             if(cmd.hasOption("l")) {
                 status.path = cmd.getOptionValue("l");
             }
+
+            if(cmd.hasOption("c")) {
+                status.convert = cmd.getOptionValue("c");
+            }
         } catch (ParseException exc) {
             LOG.warning("Invalid arguments: " + exc);
             HelpFormatter formatter = new HelpFormatter();
@@ -6,7 +6,9 @@ import java.io.FileNotFoundException;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
+import bpdf.graph.AnalysisPipeline;
 import bpdf.graph.BPDFGraph;
+import bpdf.graph.BinaryWriter;
 import bpdf.graph.BPDFGui;
 
 public class BpdfManager {
@@ -27,9 +29,15 @@ public class BpdfManager {
             if (_file.isFile()) {
                 _status.isSet = true;
                 _graph = new BPDFGraph(_file);
-                _status.isConsistent = _graph.isConsistent();
-                _status.isLive = _graph.isLive();
-                _status.isSafe = _graph.isSafe();
+                if (_status.convert != null) {
+                    BinaryWriter.write(_graph, new File(_status.convert));
+                    LOG.info("Graph written to " + _status.convert);
+                }
+                AnalysisPipeline.Report report = new AnalysisPipeline(_graph).run();
+                _status.isConsistent = report.isConsistent();
+                _status.isLive = report.isLive();
+                _status.isSafe = report.isSafe();
+                LOG.info("Analyses of " + _status.path + "\n" + report.getString());
             } else {
                 LOG.warning("File " + _status.path + " not found");
             }
@@ -3,6 +3,7 @@ package bpdf;
 public class BpdfStatus {
     public BpdfStatus() {}
     public String path;
+    public String convert;
     public boolean gui = false;
     public boolean isSet = false;
     public boolean isConsistent = false;
@@ -11,6 +12,7 @@ public class BpdfStatus {
 
     void assign(BpdfStatus status) {
         path = status.path;
+        convert = status.convert;
         gui = status.gui;
         isSet = status.isSet;
         isConsistent = status.isConsistent;
@@ -0,0 +1,317 @@
+// AnalysisPipeline.java
+
+package bpdf.graph;
+
+import bpdf.symbol.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the static analyses of a graph. The balance equations are solved
+ * once, then the liveness analysis (cycles, saturation and PSLC) and the
+ * period safety check of each boolean parameter run in parallel on the
+ * same repetition vector, which none of them changes. The outcome of every
+ * analysis and the time it took are gathered in a Report. The reading
+ * periods of a safe graph are kept by the graph for its runs, as
+ * BPDFGraph.isSafe() does, and the results are remembered by the graph
+ * until it changes. The graph must not be changed while the pipeline
+ * runs.
+ */
+public class AnalysisPipeline
+{
+/******************************************************************************
+ ** PRIVATE PARAMETERS
+ ******************************************************************************/
+
+    /**
+     * The analysed graph
+     */
+    private BPDFGraph _graph;
+
+    /**
+     * Number of analyses executed in parallel
+     */
+    private int _parallelism = Runtime.getRuntime().availableProcessors();
+
+/******************************************************************************
+ ** CONSTRUCTORS
+ ******************************************************************************/
+
+    /**
+     * Constructor with the graph to analyse
+     * @param graph The graph
+     */
+    public AnalysisPipeline(BPDFGraph graph)
+    {
+        _graph = graph;
+    }
+
+/******************************************************************************
+ ** SETUP
+ ******************************************************************************/
+
+    /**
+     * Sets the number of analyses executed in parallel
+     * @param parallelism The number of analyses (defaults to the cores)
+     */
+    public void setParallelism(int parallelism)
+    {
+        _parallelism = parallelism;
+    }
+
+/******************************************************************************
+ ** EXECUTION
+ ******************************************************************************/
+
+    /**
+     * Runs all the analyses on the graph
+     * @return The report of the analyses
+     */
+    public Report run()
+    {
+        Report report = new Report();
+        long start = System.nanoTime();
+        int version = _graph.getVersion();
+
+        // Consistency, once for all the other analyses
+        report._consistent = _graph.isConsistent();
+        Map<String, Expression> vector = _graph.getVector();
+        if (vector != null)
+            report._vector = Collections.unmodifiableMap(
+                new HashMap<String, Expression>(vector));
+        report._consistencyTime = System.nanoTime() - start;
+
+        final Map<String, Expression> repVector = report._vector;
+        List<String> params = new ArrayList<String>();
+        if (repVector != null)
+            params.addAll(_graph.getModifiers().keySet());
+
+        // Liveness, unless known for this version of the graph
+        final Boolean known = _graph.getLiveness(version);
+        Task<Boolean> liveness = new Task<Boolean>()
+        {
+            Boolean compute()
+            {
+                if (known != null)
+                    return known;
+                return _graph.isLive(repVector);
+            }
+        };
+        List<Task<Map<BPDFActor, Product>>> safeties
+            = new ArrayList<Task<Map<BPDFActor, Product>>>();
+        for (final String param : params)
+        {
+            safeties.add(new Task<Map<BPDFActor, Product>>()
+            {
+                Map<BPDFActor, Product> compute()
+                {
+                    return _graph.getReadingPeriods(param, repVector);
+                }
+            });
+        }
+        List<Task<?>> tasks = new ArrayList<Task<?>>();
+        tasks.add(liveness);
+        tasks.addAll(safeties);
+
+        ForkJoinPool pool = new ForkJoinPool(
+            Math.max(1, Math.min(_parallelism, tasks.size())));
+        try
+        {
+            for (Future<Void> future : pool.invokeAll(tasks))
+                future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Analysis interrupted", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException("Analysis failed: " + e.getCause(),
+                e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        report._live = liveness._result;
+        report._livenessTime = liveness._time;
+
+        Map<BPDFActor, Map<String, Product>> readingPeriods
+            = new IdentityHashMap<BPDFActor, Map<String, Product>>();
+        for (int p = 0; p < params.size(); p++)
+        {
+            Task<Map<BPDFActor, Product>> safety = safeties.get(p);
+            Map<BPDFActor, Product> periods = safety._result;
+            report._safetyTime += safety._time;
+            if (periods == null)
+                report._unsafe.add(params.get(p));
+            else
+                BPDFGraph.addReadingPeriods(readingPeriods, params.get(p),
+                    periods);
+        }
+        report._safe = report._consistent && report._unsafe.isEmpty();
+        _graph.setAnalyses(version, report._live,
+            report._safe ? readingPeriods : null);
+
+        report._totalTime = System.nanoTime() - start;
+        return report;
+    }
+
+    /**
+     * An analysis along with its result and the time it took
+     */
+    private abstract static class Task<T> implements Callable<Void>
+    {
+        T _result;
+        long _time;
+
+        abstract T compute();
+
+        public Void call()
+        {
+            long start = System.nanoTime();
+            _result = compute();
+            _time = System.nanoTime() - start;
+            return null;
+        }
+    }
+
+/******************************************************************************
+ ** RESULTS
+ ******************************************************************************/
+
+    /**
+     * The outcome of the analyses of a graph
+     */
+    public static class Report
+    {
+        private boolean _consistent;
+        private boolean _live;
+        private boolean _safe;
+        private Map<String, Expression> _vector;
+        private List<String> _unsafe = new ArrayList<String>();
+        private long _consistencyTime;
+        private long _livenessTime;
+        private long _safetyTime;
+        private long _totalTime;
+
+        private Report(){}
+
+        /**
+         * Returns whether the graph is consistent
+         * @return True if consistent
+         */
+        public boolean isConsistent()
+        {
+            return _consistent;
+        }
+
+        /**
+         * Returns whether the graph is live
+         * @return True if live
+         */
+        public boolean isLive()
+        {
+            return _live;
+        }
+
+        /**
+         * Returns whether the change periods of all the boolean parameters
+         * are safe
+         * @return True if safe
+         */
+        public boolean isSafe()
+        {
+            return _safe;
+        }
+
+        /**
+         * Returns the repetition vector
+         * @return The (unmodifiable) repetition vector, null if the graph is
+         * not consistent
+         */
+        public Map<String, Expression> getVector()
+        {
+            return _vector;
+        }
+
+        /**
+         * Returns the boolean parameters whose change period is not safe
+         * @return The (unmodifiable) list of unsafe parameters
+         */
+        public List<String> getUnsafeParams()
+        {
+            return Collections.unmodifiableList(_unsafe);
+        }
+
+        /**
+         * Returns the time spent solving the balance equations
+         * @return The time in nanoseconds
+         */
+        public long getConsistencyTime()
+        {
+            return _consistencyTime;
+        }
+
+        /**
+         * Returns the time spent in the liveness analysis
+         * @return The time in nanoseconds
+         */
+        public long getLivenessTime()
+        {
+            return _livenessTime;
+        }
+
+        /**
+         * Returns the time spent checking the periods, summed over the
+         * boolean parameters
+         * @return The time in nanoseconds
+         */
+        public long getSafetyTime()
+        {
+            return _safetyTime;
+        }
+
+        /**
+         * Returns the wall-clock time of the whole pipeline
+         * @return The time in nanoseconds
+         */
+        public long getTotalTime()
+        {
+            return _totalTime;
+        }
+
+        /**
+         * Returns the report as text, one analysis per line
+         * @return The report as a string
+         */
+        public String getString()
+        {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Consistent: ").append(_consistent)
+                .append(" (").append(_consistencyTime / 1000000)
+                .append(" ms)\n");
+            sb.append("Live: ").append(_live)
+                .append(" (").append(_livenessTime / 1000000)
+                .append(" ms)\n");
+            sb.append("Safe: ").append(_safe)
+                .append(" (").append(_safetyTime / 1000000).append(" ms)");
+            if (!_unsafe.isEmpty())
+                sb.append(" unsafe ").append(_unsafe);
+            sb.append("\nTotal: ").append(_totalTime / 1000000)
+                .append(" ms");
+            return sb.toString();
+        }
+    }
+}
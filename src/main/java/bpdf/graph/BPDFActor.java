@@ -7,7 +7,6 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Set;
 import java.util.HashSet;
 
@@ -43,27 +42,26 @@ public class BPDFActor
      */
     private Map<String,Product> _modify = new HashMap<String, Product>();
 
-    /**
-     * Map keeping the reading periods of each boolean parameter this actor
-     * uses.
-     */
-    private Map<String,Product> _readingPeriod = new HashMap<String,Product>();
-
     /**
      * Timing information.
      */
     private int _timing = 0;
 
-    private int _remainTime = 0;
+    /**
+     * Dense id of the actor in the graph that loaded it, -1 if not set.
+     */
+    private int _id = -1;
 
-/******************************************************************************
- ** PUBLIC PARAMETERS
- ******************************************************************************/
+    /**
+     * Whether the actor belongs to a frozen graph and can no longer change
+     */
+    private volatile boolean _frozen = false;
 
     /**
-     * Used in cycle(SCC) detection algorithm
+     * Number of changes of the actor (edges, modifiers, timing), added up
+     * by the graphs the actor belongs to
      */
-    public int index = 0;
+    private volatile int _changes = 0;
 
 
 /******************************************************************************
@@ -84,6 +82,19 @@ public class BPDFActor
         _name = name;
     }
 
+    /**
+     * Returns a new actor with the name, timing and modifiers of this one.
+     * Edges and id are not copied.
+     * @return The copy of the actor
+     */
+    BPDFActor copy()
+    {
+        BPDFActor actor = new BPDFActor(_name);
+        actor.setTime(_timing);
+        actor._modify.putAll(_modify);
+        return actor;
+    }
+
 /******************************************************************************
  ** ADD EDGE METHODS
  ******************************************************************************/
@@ -94,12 +105,14 @@ public class BPDFActor
      */
     public void addEdge(BPDFEdge edge)
     {
+        checkNotFrozen();
         if (_name.equals(edge.getConsumer().getName()))
             _inEdges.add(edge);
         else if (_name.equals(edge.getProducer().getName()))
             _outEdges.add(edge);
         else
             throw new RuntimeException("Invalid edge for this actor");
+        _changes++;
     }
 
     /**
@@ -114,100 +127,73 @@ public class BPDFActor
         }
     }
 
+    /**
+     * Removes an edge from the incoming and outgoing edge lists. Used by
+     * BPDFGraph.removeEdge.
+     * @param edge The edge to be removed
+     */
+    void removeEdge(BPDFEdge edge)
+    {
+        checkNotFrozen();
+        _inEdges.remove(edge);
+        _outEdges.remove(edge);
+        _changes++;
+    }
+
 /******************************************************************************
- ** FIRING METHODS
+ ** GETTERS
  ******************************************************************************/
 
     /**
-     * Returns true if the actor can fire (enough tokens in its input ports).
-     * @return True if the actor can fire once
+     * Returns the actor's name
+     * @return The actor's name
      */
-    public boolean prefire()
+    public String getName()
     {
-        for (BPDFEdge edge : _inEdges)
-        {
-            Product needed = edge.getRateOut();
-            Product stored = edge.getTokens();
-            if (needed.isGreaterThan(stored))
-                return false;
-        }
-        return true;
+        return _name;
     }
 
     /**
-     * Fires the actor one time.
+     * Returns the actor's id (its position in the graph that loaded it)
+     * @return The actor's id, -1 if not set
      */
-    public void fire()
+    public int getId()
     {
-        for(BPDFEdge edge : _inEdges)
-            edge.removeTokens(edge.getRateOut());
-
-        for (BPDFEdge edge : _outEdges)
-            edge.addTokens(edge.getRateIn());
+        return _id;
     }
 
     /**
-     * Returns true if the actor can fire a given number of times.
-     * @param times The number of times the actor should fire.
-     * @return True if the actor can fire that many times.
+     * Sets the actor's id. Done once by the graph that loads the actor.
+     * @param id The actor's id
      */
-    public boolean prefire(Product times)
+    public void setId(int id)
     {
-        for (BPDFEdge edge : _inEdges)
-        {
-            Product needed = edge.getRateOut().multiply(times).getProduct();
-            Product stored = edge.getTokens();
-            if (needed.isGreaterThan(stored))
-                return false;
-        }
-        return true;
+        _id = id;
     }
 
-
     /**
-     * Fires the actors a given number of times.
-     * @param times The number of times the actor should fire.
+     * Forbids any further change of the actor. Done by BPDFGraph.freeze().
      */
-    public void fire (Product times)
+    void freeze()
     {
-        for(BPDFEdge edge : _inEdges)
-            edge.removeTokens(edge.getRateOut().multiply(times).getProduct());
-
-        for (BPDFEdge edge : _outEdges)
-            edge.addTokens(edge.getRateIn().multiply(times).getProduct());
+        _frozen = true;
     }
 
     /**
-     * Set specific values to the Integer parameters used by the actor.
-     * @param map A map holding the pairs of integer parameters and values.
+     * Returns the number of changes of the actor. Used by
+     * BPDFGraph.getVersion().
+     * @return The number of changes
      */
-    public void setParamValues(Map<String, Integer> map)
+    int getChanges()
     {
-        Iterator<Map.Entry<String,Integer>> iMap = map.entrySet().iterator();
-
-        while (iMap.hasNext())
-        {
-            Map.Entry<String,Integer> tempEntry = iMap.next();
-            String param = tempEntry.getKey();
-            int value = tempEntry.getValue();
-            
-            Set<String> params = _modify.keySet();
-            for (String p : params)
-            {   
-                Product period = _modify.get(p);
-                Product evalPeriod = period.evaluate(param,value);
-                _modify.put(p,evalPeriod);
-            }   
-        }
+        return _changes;
     }
 
-    /**
-     * Returns the actor's name
-     * @return The actor's name
-     */
-    public String getName()
+    private void checkNotFrozen()
     {
-        return _name;
+        if (_frozen)
+            throw new RuntimeException("Actor " + _name
+                + " belongs to a frozen graph");
     }
 
 /******************************************************************************
@@ -225,7 +211,9 @@ public class BPDFActor
      */
     public void setModifier(String param, Product period)
     {
+        checkNotFrozen();
         _modify.put(param,period);
+        _changes++;
     }
 
     /**
@@ -258,25 +246,6 @@ public class BPDFActor
         return paramList;
     }
 
-    /**
-     * Returns the list of the boolean parameters it can modify in the
-     * current firing of the actor slot.
-     * @param i The current firing of the actor
-     * @return The list of the parameters that can be modified in the
-     * current firing.
-     */
-    public List<String> canModify(int i)
-    {
-        Set<String> params = _modify.keySet();
-        List<String> change = new ArrayList<String>();
-        for (String param : params)
-        {   
-            int period = _modify.get(param).getNumber();
-            if (i % period == 0) change.add(param);
-        }
-        return change;
-    }
-
     /** 
      *  Returns true if the actor modifies the given boolean parameter
      * @param param The name of the parameter
@@ -291,30 +260,6 @@ public class BPDFActor
  ** USER METHODS
  ******************************************************************************/
 
-    /**
-     * Sets the reading period for the given boolean parameter.
-     * @param name The name of the boolean parameter.
-     * @param solution The value of the reading period.
-     */
-    public void setReadingPeriod(String name, Product solution)
-    {
-        _readingPeriod.put(name,solution);
-    }
-
-    /**
-     * Returns the reading period of the given boolean parameter. 
-     * Returns null if not set.
-     * @param name The name of the boolean parameter.
-     * @return The reading period.
-     */
-    public Product getReadingPeriod(String name)
-    {
-        if (_readingPeriod.containsKey(name))
-            return (Product) _readingPeriod.get(name);
-        else
-            return null;
-    }
-
     /**
      * Returns true if the actor uses the parameter 
      * (i.e. any of its adjacent edges have the parameter as a guard)
@@ -328,26 +273,12 @@ public class BPDFActor
 
         for (BPDFEdge edge : _inEdges)
         {
-            String guard = edge.getGuard();
-            if (guard.equals("")) continue;
-            BooleanComposite boolGuard = new BooleanComposite(guard);
-            Set<String> boolParams = boolGuard.getParam();
-            for(String s : boolParams)
-            {
-                if (s.equals(name)) return true;
-            }
+            if (edge.getGuardParams().contains(name)) return true;
         }
 
         for (BPDFEdge edge : _outEdges)
         {
-            String guard = edge.getGuard();
-            if (guard.equals("")) continue;
-            BooleanComposite boolGuard = new BooleanComposite(guard);
-            Set<String> boolParams = boolGuard.getParam();
-            for(String s : boolParams)
-            {
-                if (s.equals(name)) return true;
-            }
+            if (edge.getGuardParams().contains(name)) return true;
         }
         return false;
     }
@@ -361,20 +292,10 @@ public class BPDFActor
         Set<String> params = new HashSet();
 
         for (BPDFEdge edge : _inEdges)
-        {
-            String guard = edge.getGuard();
-            if (guard.equals("")) continue;
-            BooleanComposite boolGuard = new BooleanComposite(guard);
-            params.addAll(boolGuard.getParam());
-        }
+            params.addAll(edge.getGuardParams());
 
         for (BPDFEdge edge : _outEdges)
-        {
-            String guard = edge.getGuard();
-            if (guard.equals("")) continue;
-            BooleanComposite boolGuard = new BooleanComposite(guard);
-            params.addAll(boolGuard.getParam());
-        }
+            params.addAll(edge.getGuardParams());
 
         return params;
     }
@@ -409,28 +330,18 @@ public class BPDFActor
      */
     public void setTime(int time)
     {
+        checkNotFrozen();
         _timing = time;
-        _remainTime = time;
+        _changes++;
     }
 
     /**
      * Returns the average execution time of the actor.
+     * The remaining time of a run is kept in its ExecutionState.
      * @return The execution time
      */
     public int getTime()
     {
-        return _remainTime;
-    }
-
-    public int advanceTime(int advance)
-    {
-        _remainTime = _remainTime - advance;
-        if (_remainTime == 0)
-        {
-            _remainTime = _timing;
-            return 0;
-        }
-        else
-            return _remainTime;
+        return _timing;
     }
 }
\ No newline at end of file
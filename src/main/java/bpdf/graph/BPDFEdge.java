@@ -4,6 +4,9 @@ package bpdf.graph;
 
 import bpdf.symbol.*;
 
+import java.util.Collections;
+import java.util.Set;
+
 /**
  * The basic BPDF edge. It holds its input / output actors along with their
  * rates. The guard enabling / disabling the edge is also captured along with 
@@ -42,7 +45,8 @@ public class BPDFEdge
     private Product rateOut;
 
     /**
-     * Number of stored tokens on edge
+     * Number of initial tokens on edge. The tokens stored during a run are
+     * kept in its ExecutionState.
      */
     private Product tokens = new Product(0);
 
@@ -50,6 +54,27 @@ public class BPDFEdge
      * Boolean guard
      */
     private String guard = "";
+
+    /**
+     * The boolean parameters of the guard, parsed on first use
+     */
+    private volatile Set<String> guardParams;
+
+    /**
+     * The guard compiled to a truth table, compiled on first use
+     */
+    private volatile CompiledGuard compiledGuard;
+
+    /**
+     * Whether the edge belongs to a frozen graph and can no longer change
+     */
+    private volatile boolean frozen = false;
+
+    /**
+     * Number of changes of the edge (tokens, guard), added up by the
+     * graphs the edge belongs to
+     */
+    private volatile int changes = 0;
     
 /******************************************************************************
  ** CONSTRUCTORS
@@ -93,59 +118,41 @@ public class BPDFEdge
             + cons.getName();   
     }
 
-/******************************************************************************
- ** ADD / REMOVE TOKENS
- ******************************************************************************/
-
-    /**
-     * Adds t tokens to the ones stored in the edge
-     * @param t The amount of tokens to be added
-     */
-    public void addTokens(String t)
-    {
-        addTokens(new Product(t));
-    }
-
-    /**
-     * Adds t tokens to the ones stored in the edge
-     * @param t The amount of tokens to be added
-     */
-    public void addTokens(Product t)
-    {
-        Expression res = tokens.add(t);
-        if (res.isProduct())
-            tokens = res.getProduct();
-        else
-            System.out.println ("Polynomial not a product!!");
-    }
-
     /**
-     * Subtracts t tokens to the ones stored in the edge
-     * @param t The amount of tokens to be removed
+     * Constructor keeping a given edge name, used when loading or copying
+     * an edge whose rates were given as strings
+     * @param n The edge name
+     * @param prod The producing actor
+     * @param rateProd The rate of the producing port
+     * @param cons The consuming actor
+     * @param rateCons The rate of the consuming port
      */
-    public void removeTokens(String t)
+    BPDFEdge(String n, BPDFActor prod, Product rateProd,
+        BPDFActor cons, Product rateCons)
     {
-        removeTokens(new Product(t));
+        name = n;
+        producer = prod;
+        consumer = cons;
+        rateIn = rateProd;
+        rateOut = rateCons;
     }
 
     /**
-     * Subtracts t tokens to the ones stored in the edge
-     * @param t The amount of tokens to be removed
+     * Returns a new edge with the rates, tokens and guard of this one,
+     * sharing its parsed and compiled guard, connecting the given actors.
+     * The edge is not added to the actors.
+     * @param prod The producing actor
+     * @param cons The consuming actor
+     * @return The copy of the edge
      */
-    public void removeTokens(Product t)
+    BPDFEdge copy(BPDFActor prod, BPDFActor cons)
     {
-        Product tNeg = new Product("-" + t.getString());
-        Product zero = new Product(0);
-        Expression res = tokens.add(tNeg);
-        if (res.isProduct())
-        {
-            if (zero.isGreaterThan(res.getProduct()))
-                System.out.println("Not enough tokens");
-            else
-                tokens = res.getProduct();
-        }
-        else
-            System.out.println ("Polynomial not a product!!");
+        BPDFEdge edge = new BPDFEdge(name, prod, rateIn, cons, rateOut);
+        edge.tokens = tokens;
+        edge.guard = guard;
+        edge.guardParams = guardParams;
+        edge.compiledGuard = compiledGuard;
+        return edge;
     }
 
 /******************************************************************************
@@ -153,7 +160,7 @@ public class BPDFEdge
  ******************************************************************************/
 
     /**
-     * Sets the tokens stored in the edge
+     * Sets the initial tokens stored in the edge
      * @param t The amount of tokens to be stored
      */
     public void setTokens(String t)
@@ -162,12 +169,14 @@ public class BPDFEdge
     }
 
     /**
-     * Sets the tokens stored in the edge
+     * Sets the initial tokens stored in the edge
      * @param t The amount of tokens to be stored
      */
     public void setTokens(Product t)
     {
+        checkNotFrozen();
         tokens = t;
+        changes++;
     }
 
     public void setTokens(int i)
@@ -181,7 +190,36 @@ public class BPDFEdge
      */
     public void setGuard(String g)
     {
+        checkNotFrozen();
         guard = g;
+        guardParams = null;
+        compiledGuard = null;
+        changes++;
+    }
+
+    /**
+     * Forbids any further change of the edge. Done by BPDFGraph.freeze().
+     */
+    void freeze()
+    {
+        frozen = true;
+    }
+
+    /**
+     * Returns the number of changes of the edge. Used by
+     * BPDFGraph.getVersion().
+     * @return The number of changes
+     */
+    int getChanges()
+    {
+        return changes;
+    }
+
+    private void checkNotFrozen()
+    {
+        if (frozen)
+            throw new RuntimeException("Edge " + name
+                + " belongs to a frozen graph");
     }
 
 /******************************************************************************
@@ -234,8 +272,8 @@ public class BPDFEdge
     }
 
     /**
-     * Returns the amount of stored tokens
-     * @return The amount of stored tokens
+     * Returns the amount of initial tokens
+     * @return The amount of initial tokens
      */
     public Product getTokens()
     {
@@ -250,4 +288,39 @@ public class BPDFEdge
     {
         return guard;
     }
+
+    /**
+     * Returns the boolean parameters of the edge's guard
+     * @return The (unmodifiable) set of boolean parameters, empty if the
+     * edge has no guard
+     */
+    public Set<String> getGuardParams()
+    {
+        if (guardParams == null)
+        {
+            if (guard.isEmpty())
+                guardParams = Collections.emptySet();
+            else
+                guardParams = Collections.unmodifiableSet(
+                    new BooleanComposite(guard).getParam());
+        }
+        return guardParams;
+    }
+
+    /**
+     * Returns the edge's guard compiled to a truth table
+     * @return The compiled guard, always true if the edge has no guard
+     */
+    public CompiledGuard getCompiledGuard()
+    {
+        if (compiledGuard == null)
+        {
+            if (guard.isEmpty())
+                compiledGuard = CompiledGuard.compile(new BooleanValue(true));
+            else
+                compiledGuard = CompiledGuard.compile(
+                    new BooleanComposite(guard));
+        }
+        return compiledGuard;
+    }
 }
\ No newline at end of file
@@ -12,18 +12,28 @@ import java.io.File;
 // util
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
+import java.util.ArrayDeque;
 
 /**
  * The main BPDGgraph class. Captures the actors and edges of the graph 
  * and provides analyses for liveness, boundedness and consistency. It 
- * finds and holds the graph cycles (minor bug in that). Finally, 
+ * finds the graph cycles (see CycleDetector). Finally, 
  * produces the scheduling constraints and sets up the slotted schedule 
- * dynamic scheduler.
+ * dynamic scheduler. The analyses keep their results (repetition vector,
+ * reading periods) but do not change the actors and edges; the state of a
+ * run is kept in an ExecutionState, so one graph serves many runs.
+ * The actors and edges are only added or removed through the methods of
+ * the graph, which are synchronized, and the lists of the getters cannot
+ * be changed. A graph that is shared by runs in several threads should be
+ * frozen once loaded (see freeze()), after which neither the graph nor its
+ * actors and edges (tokens, guards, modifiers, timing) can change.
  * @author Vagelis Bebelis
  */
 public class BPDFGraph
@@ -35,15 +45,81 @@ public class BPDFGraph
     /** List of actors */
     private List<BPDFActor> _actorList = new ArrayList<BPDFActor>();
 
+    /** Position of each actor in _actorList */
+    private Map<BPDFActor, Integer> _actorIndex 
+        = new IdentityHashMap<BPDFActor, Integer>();
+
+    /** Position of the first actor with each name */
+    private Map<String, Integer> _nameIndex = new HashMap<String, Integer>();
+
     /** List of edges */
     private List<BPDFEdge> _edgeList = new ArrayList<BPDFEdge>();
 
+    /** Unmodifiable views of the lists, returned by the getters */
+    private final List<BPDFActor> _actorView
+        = Collections.unmodifiableList(_actorList);
+    private final List<BPDFEdge> _edgeView
+        = Collections.unmodifiableList(_edgeList);
+
+    /** Whether the graph can no longer change */
+    private volatile boolean _frozen = false;
+
+    /** Position of each edge in _edgeList */
+    private Map<BPDFEdge, Integer> _edgeIndex
+        = new IdentityHashMap<BPDFEdge, Integer>();
+
+    /** Adjacency of the actors, built on first query after a change */
+    private volatile Adjacency _adjacency;
+
     /** List of modifiers */
     private Map<String, BPDFActor> _modifiers 
         = new HashMap<String, BPDFActor>();
 
     /** Repetition Vector */
-    private Map _repVector;
+    private volatile Map<String, Expression> _repVector;
+
+    /** Reading periods of the users of each boolean parameter */
+    private volatile Map<BPDFActor, Map<String, Product>> _readingPeriods
+        = Collections.emptyMap();
+
+    /** Solver of the balance equations, kept up to date once created */
+    private SystemSolver _solver;
+
+    /** Balance equation of each edge known to the solver */
+    private Map<BPDFEdge, Equation> _balance
+        = new IdentityHashMap<BPDFEdge, Equation>();
+
+    /** Version of the graph, increased by every change of the topology */
+    private volatile int _version = 0;
+
+    /**
+     * Changes of the actors and edges of the graph (tokens, guards,
+     * modifiers, timing) added up at its last version. Adding or removing
+     * an actor or edge keeps it in step, as the version then increases
+     * anyway.
+     */
+    private int _changesSeen = 0;
+
+    /** Version the repetition vector was found for */
+    private int _solvedAt = -1;
+
+    /** Cycle detector of the graph and the version it was built for */
+    private CycleDetector _cycles;
+    private int _cyclesAt = -1;
+
+    /** Result of the liveness analysis and the version it holds for */
+    private boolean _live;
+    private int _liveAt = -1;
+
+    /** Result of the period safety check and the version it holds for */
+    private boolean _safe;
+    private int _safeAt = -1;
+
+    /** Evaluations of the rates and periods, shared by the runs */
+    private final EvaluationCache _evaluations = new EvaluationCache();
+
+    /** Maximum number of cycles checked for saturation by isLive() */
+    private static final int MAX_CYCLES = 10000;
 
 
 /***********************************************************************
@@ -63,14 +139,25 @@ public class BPDFGraph
     }
 
     /**
-     * Constructor using parser with file.
+     * Constructor using parser with file. Binary graphs (see BinaryWriter)
+     * are loaded directly, Groovy is only used for files outside the plain
+     * subset of the DSL (see SimpleDslParser).
      * * @param file The graph file.
      */
     public BPDFGraph(File file)
     {
-        DslParser p = new DslParser(file);
-        addActors(p.getActors());
-        addEdges(p.getEdges());
+        if (BinaryParser.isBinary(file))
+        {
+            BinaryParser p = new BinaryParser(file);
+            addActors(p.getActors());
+            addEdges(p.getEdges());
+        }
+        else
+        {
+            SimpleDslParser p = new SimpleDslParser(file);
+            addActors(p.getActors());
+            addEdges(p.getEdges());
+        }
     }
 
     /**
@@ -79,7 +166,8 @@ public class BPDFGraph
      */
     public BPDFGraph(List<BPDFActor> actors)
     {
-        _actorList.addAll(actors);
+        for (BPDFActor actor : actors)
+            indexActor(actor);
     }
 
     /**
@@ -102,16 +190,56 @@ public class BPDFGraph
      * actors do not exist in the graph
      * @param edge The edge to be added
      */
-    public void addEdge(BPDFEdge edge)
+    public synchronized void addEdge(BPDFEdge edge)
     {
-        if (!_actorList.contains(edge.getProducer()))
+        checkNotFrozen();
+        if (indexOf(edge.getProducer()) < 0)
            throw new RuntimeException ("Actor (producer)"  
                 + edge.getProducer().getName() + " is missing");
-        else if (!_actorList.contains(edge.getConsumer()))
+        else if (indexOf(edge.getConsumer()) < 0)
            throw new RuntimeException ("Actor (consumer)" 
                 + edge.getConsumer().getName()  + " is missing");
         else
+        {
+            _edgeIndex.put(edge, _edgeList.size());
             _edgeList.add(edge);
+            _adjacency = null;
+            _version++;
+            _changesSeen += edge.getChanges();
+            if (_solver != null)
+                _solver.addEquation(balanceEquation(edge));
+        }
+    }
+
+    /**
+     * Removes an edge from the graph and from the edge lists of its
+     * producer and consumer
+     * @param edge The edge to be removed
+     * @return False if the edge was not in the graph
+     */
+    public synchronized boolean removeEdge(BPDFEdge edge)
+    {
+        checkNotFrozen();
+        for (int e = 0; e < _edgeList.size(); e++)
+        {
+            if (_edgeList.get(e) == edge)
+            {
+                _edgeList.remove(e);
+                _edgeIndex.remove(edge);
+                for (int i = e; i < _edgeList.size(); i++)
+                    _edgeIndex.put(_edgeList.get(i), i);
+                edge.getProducer().removeEdge(edge);
+                edge.getConsumer().removeEdge(edge);
+                _adjacency = null;
+                _version++;
+                _changesSeen -= edge.getChanges();
+                Equation eq = _balance.remove(edge);
+                if ((_solver != null) && (eq != null))
+                    _solver.removeEquation(eq);
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -120,20 +248,60 @@ public class BPDFGraph
      * actors do not exist in the graph
      * @param edges The list of edges to be added
      */
-    public void addEdges(List<BPDFEdge> edges)
+    public synchronized void addEdges(List<BPDFEdge> edges)
     {
         for (BPDFEdge edge : edges)
             addEdge(edge);
     }
 
+    /**
+     * Connects two actors of the graph with a new edge, as the connect
+     * command of the DSL
+     * @param prod The producer
+     * @param rateProd The production rate
+     * @param cons The consumer
+     * @param rateCons The consumption rate
+     * @return The new edge
+     */
+    public synchronized BPDFEdge connect(BPDFActor prod, String rateProd,
+        BPDFActor cons, String rateCons)
+    {
+        BPDFEdge edge = new BPDFEdge(prod, rateProd, cons, rateCons);
+        connect(edge);
+        return edge;
+    }
+
+    /**
+     * Adds an edge to the graph and to the edge lists of its producer and
+     * consumer. Throws exception if the connected actors do not exist in
+     * the graph.
+     * @param edge The edge to be added
+     */
+    public synchronized void connect(BPDFEdge edge)
+    {
+        addEdge(edge);
+        connectActors(edge);
+    }
+
+    /**
+     * Adds an edge to the edge lists of its producer and consumer. Used by
+     * the parsers, which build the edges before the graph.
+     * @param edge The edge
+     */
+    static void connectActors(BPDFEdge edge)
+    {
+        edge.getProducer().addEdge(edge);
+        edge.getConsumer().addEdge(edge);
+    }
+
     /**
      * Adds an actor to the graph. 
      * Updates the modifier map.
      * @param The actor to be added
      */
-    public void addActor(BPDFActor actor)
+    public synchronized void addActor(BPDFActor actor)
     {
-        _actorList.add(actor);
+        indexActor(actor);
         if (actor.isModifier())
         {
             List<String> tempParamList = actor.getBoolParam();
@@ -149,21 +317,65 @@ public class BPDFGraph
         }
     }
 
+    /**
+     * Appends an actor to the actor list and indexes it. The first graph
+     * an actor is added to assigns its id.
+     * @param actor The actor to be added
+     */
+    private synchronized void indexActor(BPDFActor actor)
+    {
+        checkNotFrozen();
+        if (actor.getId() < 0)
+            actor.setId(_actorList.size());
+        if (!_nameIndex.containsKey(actor.getName()))
+            _nameIndex.put(actor.getName(), _actorList.size());
+        _actorIndex.put(actor, _actorList.size());
+        _actorList.add(actor);
+        _adjacency = null;
+        _version++;
+        _changesSeen += actor.getChanges();
+        if (_solver != null)
+            _solver.addFactor(actor.getName());
+    }
+
     /**
      * Adds a list of actors to the graph
      * @param The list of actors to be added
      */
-    public void addActors(List<BPDFActor> actors)
+    public synchronized void addActors(List<BPDFActor> actors)
     {
         for (BPDFActor actor : actors)
             addActor(actor);
     }
 
-
-    public void setIntValues(Map<String, Integer> map)
+    /**
+     * Freezes the graph: from now on no actor or edge can be added to or
+     * removed from the graph, and its actors and edges cannot change. The
+     * graph can then be shared by any number of threads.
+     */
+    public synchronized void freeze()
     {
+        getVersion();
+        _frozen = true;
         for (BPDFActor actor : _actorList)
-            actor.setParamValues(map);
+            actor.freeze();
+        for (BPDFEdge edge : _edgeList)
+            edge.freeze();
+    }
+
+    /**
+     * Returns whether the graph is frozen
+     * @return True if the graph can no longer change
+     */
+    public boolean isFrozen()
+    {
+        return _frozen;
+    }
+
+    private void checkNotFrozen()
+    {
+        if (_frozen)
+            throw new RuntimeException("The graph is frozen");
     }
 
 /******************************************************************************
@@ -172,31 +384,124 @@ public class BPDFGraph
 
     /**
      * Returns the list of edges
-     * @return The list of edges
+     * @return The (unmodifiable) list of edges
      */
-    public List getEdges()
+    public List<BPDFEdge> getEdges()
     {
-        return _edgeList;
+        return _edgeView;
     }
 
     /**
      * Returns the list of actors
-     * @return The list of actors
+     * @return The (unmodifiable) list of actors
      */
-    public List getActors()
+    public List<BPDFActor> getActors()
     {
-        return _actorList;
+        return _actorView;
     }
 
     /**
-     * Returns the repetition vector
+     * Returns the position of the given actor in the actor list. Equal to
+     * the actor's id for the graph that loaded it.
+     * @param actor The given actor
+     * @return The actor's position, -1 if not in the graph
+     */
+    public int indexOf(BPDFActor actor)
+    {
+        int id = actor.getId();
+        if ((id >= 0) && (id < _actorList.size()) 
+            && (_actorList.get(id) == actor))
+            return id;
+        Integer indx = _actorIndex.get(actor);
+        if (indx == null)
+            return -1;
+        return indx;
+    }
+
+    /**
+     * Returns the position of the given edge in the edge list
+     * @param edge The given edge
+     * @return The edge's position, -1 if not in the graph
+     */
+    public int indexOf(BPDFEdge edge)
+    {
+        Integer indx = _edgeIndex.get(edge);
+        if ((indx != null) && (indx < _edgeList.size())
+            && (_edgeList.get(indx) == edge))
+            return indx;
+        for (int e = 0; e < _edgeList.size(); e++)
+        {
+            if (_edgeList.get(e) == edge)
+                return e;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the actor with the given name (the first one added if several
+     * actors have the same name)
+     * @param name The actor's name
+     * @return The actor, null if not in the graph
+     */
+    public BPDFActor getActor(String name)
+    {
+        Integer indx = _nameIndex.get(name);
+        if (indx == null)
+            return null;
+        return _actorList.get(indx);
+    }
+
+    /**
+     * Returns the repetition vector found by the last consistency analysis.
+     * Runs evaluate their own copy (see ExecutionState).
      * @return The repetition vector 
      */
-    public Map getVector()
+    public Map<String, Expression> getVector()
     {
         return _repVector;
     }
 
+    /**
+     * Returns the version of the graph. It increases whenever actors or
+     * edges are added to or removed from the graph, or one of its actors
+     * or edges changes, and the results of the analyses are kept until it
+     * does.
+     * The actors and edges of a frozen graph cannot change.
+     * @return The version
+     */
+    public synchronized int getVersion()
+    {
+        if (!_frozen)
+        {
+            int changes = 0;
+            for (BPDFActor actor : _actorList)
+                changes += actor.getChanges();
+            for (BPDFEdge edge : _edgeList)
+                changes += edge.getChanges();
+            if (changes != _changesSeen)
+            {
+                _changesSeen = changes;
+                _version++;
+            }
+        }
+        return _version;
+    }
+
+    /**
+     * Returns the reading period of a boolean parameter for a user, as found
+     * by the last period safety analysis
+     * @param actor The user
+     * @param param The name of the boolean parameter
+     * @return The reading period, null if not set
+     */
+    public Product getReadingPeriod(BPDFActor actor, String param)
+    {
+        Map<String, Product> periods = _readingPeriods.get(actor);
+        if (periods == null)
+            return null;
+        return periods.get(param);
+    }
+
     /**
      * Returns the list of modifiers
      * @return The list of modifiers
@@ -209,33 +514,29 @@ public class BPDFGraph
     /**
      * Returns all the outgoing edges of a given actor
      * @param The given actor
-     * @return The list of the outgoing edges
+     * @return The (unmodifiable) list of the outgoing edges
      */
-    public List getOutEdges(BPDFActor a)
+    public List<BPDFEdge> getOutEdges(BPDFActor a)
     {
-        List<BPDFEdge> outEdges = new ArrayList<BPDFEdge>();
-        for (BPDFEdge edge : _edgeList)
-        {
-            if (edge.getProducer() == a) 
-                outEdges.add(edge);
-        }
-        return outEdges;
+        Adjacency adj = getAdjacency();
+        int indx = indexOf(a);
+        if (indx < 0)
+            return Collections.emptyList();
+        return adj.view(adj._outEdges, adj._outStart, indx);
     }
 
     /**
      * Returns all the incoming edges of a given actor
      * @param The given actor
-     * @return The list of the incoming edges
+     * @return The (unmodifiable) list of the incoming edges
      */
-    public List getInEdges(BPDFActor a)
+    public List<BPDFEdge> getInEdges(BPDFActor a)
     {
-        List<BPDFEdge> inEdges = new ArrayList<BPDFEdge>();
-        for (BPDFEdge edge : _edgeList)
-        {
-            if (edge.getConsumer() == a)
-                inEdges.add(edge);
-        }
-        return inEdges;
+        Adjacency adj = getAdjacency();
+        int indx = indexOf(a);
+        if (indx < 0)
+            return Collections.emptyList();
+        return adj.view(adj._inEdges, adj._inStart, indx);
     }
 
     /**
@@ -284,18 +585,94 @@ public class BPDFGraph
 
     /**
      * Returns all the actors that a given actor is giving data to
-     * @param The given actor
-     * @return A list of all the actors getting data from the given actor
+     * @param The given actor (or an actor with the same name)
+     * @return An (unmodifiable) list of all the actors getting data from 
+     * the given actor
      */
-    public List getSuccessors(BPDFActor a)
+    public List<BPDFActor> getSuccessors(BPDFActor a)
     {
-        List<BPDFActor> successors = new ArrayList<BPDFActor>();
-        for (BPDFEdge edge : _edgeList)
+        Adjacency adj = getAdjacency();
+        int indx = indexOf(a);
+        if (indx < 0)
+        {
+            Integer byName = _nameIndex.get(a.getName());
+            if (byName == null)
+                return Collections.emptyList();
+            indx = byName;
+        }
+        return adj.view(adj._successors, adj._outStart, indx);
+    }
+
+    /**
+     * Returns the adjacency of the actors, building it on the first query
+     * after actors or edges were added or removed
+     */
+    private Adjacency getAdjacency()
+    {
+        Adjacency adj = _adjacency;
+        if (adj == null)
+        {
+            adj = new Adjacency();
+            _adjacency = adj;
+        }
+        return adj;
+    }
+
+    /**
+     * The incoming and outgoing edges of all the actors in compressed
+     * sparse row form: the edges of the actor at position i are at
+     * positions start[i] to start[i+1] of the edge array, in the order they
+     * were added to the graph.
+     */
+    private final class Adjacency
+    {
+        private final int _edges = _edgeList.size();
+        private final int[] _outStart = new int[_actorList.size() + 1];
+        private final int[] _inStart = new int[_actorList.size() + 1];
+        private final BPDFEdge[] _outEdges = new BPDFEdge[_edges];
+        private final BPDFEdge[] _inEdges = new BPDFEdge[_edges];
+        private final BPDFActor[] _successors = new BPDFActor[_edges];
+
+        Adjacency()
         {
-            if (edge.getProducer().getName().equals(a.getName()))
-                successors.add(edge.getConsumer());
+            int[] prod = new int[_edges];
+            int[] cons = new int[_edges];
+            for (int e = 0; e < _edges; e++)
+            {
+                BPDFEdge edge = _edgeList.get(e);
+                prod[e] = indexOf(edge.getProducer());
+                cons[e] = indexOf(edge.getConsumer());
+                if (prod[e] >= 0) _outStart[prod[e] + 1]++;
+                if (cons[e] >= 0) _inStart[cons[e] + 1]++;
+            }
+            for (int i = 0; i < _actorList.size(); i++)
+            {
+                _outStart[i + 1] += _outStart[i];
+                _inStart[i + 1] += _inStart[i];
+            }
+            int[] outNext = Arrays.copyOf(_outStart, _actorList.size());
+            int[] inNext = Arrays.copyOf(_inStart, _actorList.size());
+            for (int e = 0; e < _edges; e++)
+            {
+                BPDFEdge edge = _edgeList.get(e);
+                if (prod[e] >= 0)
+                {
+                    _successors[outNext[prod[e]]] = edge.getConsumer();
+                    _outEdges[outNext[prod[e]]++] = edge;
+                }
+                if (cons[e] >= 0)
+                    _inEdges[inNext[cons[e]]++] = edge;
+            }
+        }
+
+        /**
+         * Returns the row of the given actor as an unmodifiable list
+         */
+        <T> List<T> view(T[] row, int[] start, int indx)
+        {
+            return Collections.unmodifiableList(
+                Arrays.asList(row).subList(start[indx], start[indx + 1]));
         }
-        return successors;
     }
 
 /***********************************************************************
@@ -306,54 +683,113 @@ public class BPDFGraph
      * Consistency Analysis.
      * Solves the graph balance equations.
      * Calculates the repetition vector.
+     * The solver is created on the first call and then follows the edges
+     * added to or removed from the graph, so later calls only read it.
      * @return True if the graph is consistent
      */
-    public boolean isConsistent()
+    public synchronized boolean isConsistent()
     {
-        ArrayList<Equation> balanceEquations = new ArrayList<Equation>();
-        for (BPDFEdge edge : _edgeList)
+        boolean print = (_solver != null)
+            && (_balance.size() == _edgeList.size());
+        Map<String, Expression> vector = solution();
+        if (print && (vector != null))
+            _solver.printSolution();
+        return (vector != null);
+    }
+
+    /**
+     * Returns the repetition vector of the current version of the graph,
+     * solving the balance equations if the graph changed since they were
+     * last solved.
+     * @return The repetition vector, null if the graph is not consistent
+     */
+    private synchronized Map<String, Expression> solution()
+    {
+        int version = getVersion();
+        if ((_solver == null) || (_balance.size() != _edgeList.size()))
         {
-            balanceEquations.add( new Equation (
-                edge.getRateIn() , edge.getProducer().getName(),
-                edge.getRateOut() , edge.getConsumer().getName()));
+            _balance.clear();
+            ArrayList<Equation> balanceEquations = new ArrayList<Equation>();
+            for (BPDFEdge edge : _edgeList)
+                balanceEquations.add(balanceEquation(edge));
+
+            ArrayList<String> actorNameList = new ArrayList<String>();
+            for (BPDFActor actor : _actorList)
+            {
+                actorNameList.add(actor.getName());
+            }
+
+            _solver = new SystemSolver(actorNameList,balanceEquations);
+            _solvedAt = -1;
         }
 
-        ArrayList<String> actorNameList = new ArrayList<String>();
-        for (BPDFActor actor : _actorList)
+        if (_solvedAt != version)
         {
-            actorNameList.add(actor.getName());
+            Map<String, Expression> vector = _solver.getSolution();
+            _repVector = (vector == null) 
+                ? null : Collections.unmodifiableMap(vector);
+            _solvedAt = version;
         }
+        return _repVector;
+    }
 
-        SystemSolver solver = new SystemSolver(actorNameList,balanceEquations);
-        _repVector = solver.getSolution();
-        if (_repVector != null)
-            return true;
-        else
-            return false;
+    /**
+     * Creates the balance equation of an edge
+     * @param edge The edge
+     * @return The balance equation
+     */
+    private Equation balanceEquation(BPDFEdge edge)
+    {
+        Equation eq = new Equation (
+            edge.getRateIn() , edge.getProducer().getName(),
+            edge.getRateOut() , edge.getConsumer().getName());
+        _balance.put(edge, eq);
+        return eq;
     }
 
     /**
      * Liveness analysis. 
      * Also finds a schedule for the graph.
-     * First finds all directed cycles of the graph.
+     * First checks the directed cycles of the graph's strongly
+     * connected components.
      * Clustering technique not supported yet.
+     * The result is kept until the graph changes.
      * @return True, if the graph is live.
      */
-    public boolean isLive()
+    public synchronized boolean isLive()
     {
-        CycleDetector cd = new CycleDetector(this);
-        List<BPDFGraph> cycles = new ArrayList<BPDFGraph>();
+        int version = getVersion();
+        if (_liveAt != version)
+        {
+            _live = isLive(solution());
+            _liveAt = version;
+        }
+        return _live;
+    }
 
-        cycles = cd.getCycles();
-        if (cycles.isEmpty())
+    /**
+     * Liveness analysis with the given repetition vector. Only reads the
+     * graph, so it can run alongside the other analyses (see
+     * AnalysisPipeline).
+     * @param repVector The repetition vector, null if not consistent
+     * @return True, if the graph is live.
+     */
+    boolean isLive(Map<String, Expression> repVector)
+    {
+        CycleDetector cd = getCycleDetector();
+        if (!cd.hasCycles())
         { // is acyclic
             return true;
         }
-        else if (hasSaturatedCycles(cycles))
+        else if (repVector == null)
+        { // cycles cannot be checked without a repetition vector
+            return false;
+        }
+        else if (hasSaturatedCycles(cd.cycles(MAX_CYCLES), repVector))
         { // has only saturated cycles
             return true;
         } 
-        else if (pslc())
+        else if (pslc(repVector) != null)
         { // PSLC found a schedule
             return true;
         }
@@ -364,47 +800,173 @@ public class BPDFGraph
             return false;
     }
 
+    /**
+     * Returns a sequential schedule of one iteration of the graph, as
+     * found by the liveness analysis (PSLC).
+     * @return The schedule, null if the graph is not consistent or no
+     * schedule was found
+     */
+    public synchronized BPDFSchedule getSequentialSchedule()
+    {
+        Map<String, Expression> repVector = solution();
+        if (repVector == null) return null;
+        return pslc(repVector);
+    }
+
     /**
      * Period Safety check.
      * Checks whether the change periods of 
      * all the boolean parameters are period safe.
+     * Keeps the reading periods of the users for the runs.
+     * The result is kept until the graph changes.
      * @return True, if all periods are safe
      */
-    public boolean isSafe()
+    public synchronized boolean isSafe()
     {
         if (!isConsistent()) return false;
 
+        int version = getVersion();
+        if (_safeAt == version) return _safe;
+        _safeAt = version;
+        _safe = false;
+
+        Map<BPDFActor, Map<String, Product>> readingPeriods
+            = new IdentityHashMap<BPDFActor, Map<String, Product>>();
+
         List<String> boolParams = new ArrayList<String>();
         boolParams.addAll(_modifiers.keySet());
 
         for (String param : boolParams)
         {   
-            List<BPDFActor> users = getUsers(param);
-            
-            BPDFActor modifier = _modifiers.get(param);
-            Product period = modifier.getPeriod(param);
-            Product modSol = (Product) _repVector.get(modifier.getName());
-            Expression freq = modSol.divide(period);
-
-            if (!freq.isProduct()) return false;
-
-            for (BPDFActor actor : users)
-            {   
-                Product solution = (Product) _repVector.get(actor.getName());
-                Expression res = solution.divide(freq);
-                if (!res.isProduct()) return false;
-                actor.setReadingPeriod(param,res.getProduct());
-            }
+            Map<BPDFActor, Product> periods
+                = getReadingPeriods(param, _repVector);
+            if (periods == null) return false;
+            addReadingPeriods(readingPeriods, param, periods);
         }
+        _readingPeriods = readingPeriods;
+        _safe = true;
         return true;
     }
 
+    /**
+     * Period Safety check of one boolean parameter with the given
+     * repetition vector. Only reads the graph, so the parameters can be
+     * checked alongside each other (see AnalysisPipeline).
+     * @param param The boolean parameter
+     * @param repVector The repetition vector
+     * @return The reading period of each user, null if the change period
+     * is not safe
+     */
+    Map<BPDFActor, Product> getReadingPeriods(String param,
+        Map<String, Expression> repVector)
+    {
+        Map<BPDFActor, Product> res 
+            = new IdentityHashMap<BPDFActor, Product>();
+        List<BPDFActor> users = getUsers(param);
+
+        BPDFActor modifier = _modifiers.get(param);
+        Product period = modifier.getPeriod(param);
+        Product modSol = (Product) repVector.get(modifier.getName());
+        Expression freq = modSol.divide(period);
+
+        if (!freq.isProduct()) return null;
+
+        for (BPDFActor actor : users)
+        {   
+            Product solution = (Product) repVector.get(actor.getName());
+            Expression rPeriod = solution.divide(freq);
+            if (!rPeriod.isProduct()) return null;
+            res.put(actor, rPeriod.getProduct());
+        }
+        return res;
+    }
+
+    /**
+     * Adds the reading periods of a boolean parameter to the reading
+     * periods of the users
+     * @param readingPeriods The reading periods by user
+     * @param param The boolean parameter
+     * @param users The reading period of each user of the parameter
+     */
+    static void addReadingPeriods(
+        Map<BPDFActor, Map<String, Product>> readingPeriods,
+        String param, Map<BPDFActor, Product> users)
+    {
+        for (Map.Entry<BPDFActor, Product> user : users.entrySet())
+        {
+            Map<String, Product> periods = readingPeriods.get(user.getKey());
+            if (periods == null)
+            {
+                periods = new HashMap<String, Product>();
+                readingPeriods.put(user.getKey(), periods);
+            }
+            periods.put(param, user.getValue());
+        }
+    }
+
+    /**
+     * Keeps the results of analyses run outside the graph (see
+     * AnalysisPipeline), unless the graph changed since they started
+     * @param version The version of the graph the analyses ran on
+     * @param live The result of the liveness analysis
+     * @param readingPeriods The reading periods by user, null if the
+     * periods are not safe
+     */
+    synchronized void setAnalyses(int version, boolean live,
+        Map<BPDFActor, Map<String, Product>> readingPeriods)
+    {
+        if (getVersion() != version) return;
+        _live = live;
+        _liveAt = version;
+        _safe = (readingPeriods != null);
+        _safeAt = version;
+        if (_safe)
+            _readingPeriods = readingPeriods;
+    }
+
+    /**
+     * Returns the result of the liveness analysis if it holds for the
+     * given version of the graph
+     * @param version The version of the graph
+     * @return The result, null if not known for that version
+     */
+    synchronized Boolean getLiveness(int version)
+    {
+        if ((getVersion() != version) || (_liveAt != version)) return null;
+        return _live;
+    }
+
+    /**
+     * Returns the cycle detector of the graph, kept until the graph changes
+     * @return The cycle detector
+     */
+    public synchronized CycleDetector getCycleDetector()
+    {
+        int version = getVersion();
+        if (_cyclesAt != version)
+        {
+            _cycles = new CycleDetector(this);
+            _cyclesAt = version;
+        }
+        return _cycles;
+    }
+
+    /**
+     * Returns the cache of the evaluations of the rates, periods and
+     * constraint functions, shared by the runs over the graph
+     * @return The evaluation cache
+     */
+    public EvaluationCache getEvaluationCache()
+    {
+        return _evaluations;
+    }
+
     /**
      * Runs all static analyses on the graph.
      * Checks for consistency, boundedness and liveness.
      * @return True, if all checks return true.
      */
-    public boolean verifyGraph()
+    public synchronized boolean verifyGraph()
     {
         if (!isConsistent()) 
             return false;
@@ -416,105 +978,108 @@ public class BPDFGraph
     }
 
     /**
-     * Returns true if the graph has all its cycles saturated
+     * Returns true if the graph has all its cycles saturated. A cycle is
+     * saturated when one of its edges stores the tokens its consumer needs
+     * for a whole iteration, for any values of the parameters (the rule
+     * PSLC fires by, see TokenCounter.covers). Returns false as soon as a
+     * cycle is not saturated, or if there are too many cycles to check
+     * them all.
      * @return True if all cycles are saturated
      */
-    private boolean hasSaturatedCycles(List<BPDFGraph> cycles)
+    private boolean hasSaturatedCycles(CycleDetector.Cycles cycles,
+        Map<String, Expression> repVector)
     {        
-        for (BPDFGraph cycle : cycles)
+        while (cycles.hasNext())
         {
+            BPDFGraph cycle = cycles.next();
             boolean hasSat = false;
             List<BPDFEdge> eList = cycle.getEdges();
             for(BPDFEdge edge : eList)
             {
                 BPDFActor cons = edge.getConsumer();
                 Product consRate = edge.getRateOut();
-                Product consSol = (Product) _repVector.get(cons.getName());
-                Product stored = edge.getTokens();
+                Product consSol = (Product) repVector.get(cons.getName());
+                TokenCounter stored = new TokenCounter(edge.getTokens());
                 Product needed = consSol.multiply(consRate).getProduct();
-                if ((stored.isGreaterThan(needed))
-                    || (stored.isEqualTo(needed))) 
+                if (stored.covers(needed))
                     hasSat = true;
             }
             if (!hasSat) return false;
         }
-        return true;
+        return !cycles.isTruncated();
     }
 
     /**
-     * Returns a schedule for the graph, null if not possible
-     * @return True if a schedule was found
+     * Looks for a sequential schedule of one iteration of the graph
+     * (PSLC). The actors wait in a worklist and one that cannot fire is
+     * only visited again once tokens are added to one of its input edges.
+     * An actor with a numeric amount of firings left fires as many times
+     * in a row as its tokens allow, any other fires for the parametric
+     * part of its firings.
+     * @param repVector The repetition vector
+     * @return The schedule, null if the graph deadlocks
      */
-    private boolean pslc() 
+    private BPDFSchedule pslc(Map<String, Expression> repVector) 
     {
-        Product zero = new Product(0);
-        boolean progress;
+        ExecutionState state = new ExecutionState(this);
         BPDFSchedule sched = new BPDFSchedule();
-        Map copyVector = new HashMap<String, Expression>();
-        copyVector.putAll(_repVector);
+        int size = _actorList.size();
+        TokenCounter[] firingsLeft = new TokenCounter[size];
+        boolean[] queued = new boolean[size];
+        ArrayDeque<Integer> work = new ArrayDeque<Integer>();
+        int pending = 0;
 
-        while (hasMoreFirings(copyVector))
+        for (int a = 0; a < size; a++)
         {
-            progress = false;
-            for (BPDFActor actor : _actorList)
+            String actorName = _actorList.get(a).getName();
+            firingsLeft[a] = new TokenCounter(
+                (Product) repVector.get(actorName));
+            if (firingsLeft[a].isZero()) continue;
+            pending++;
+            queued[a] = true;
+            work.add(a);
+        }
+
+        while (!work.isEmpty())
+        {
+            int a = work.poll();
+            queued[a] = false;
+            BPDFActor actor = _actorList.get(a);
+            Product times;
+            if (firingsLeft[a].isNumber())
             {
-                String actorName = actor.getName();
-                Product firingsLeft = (Product) copyVector.get(actorName);
-                if (firingsLeft.isZero()) continue;
-                else if (zero.isGreaterThan(firingsLeft))
-                    throw new RuntimeException("Actor fired more times "
-                            + "than in repetition vector");
-                else if (firingsLeft.isNumber())
-                {
-                    if (actor.prefire())
-                    {
-                        progress = true;
-                        Product one = new Product(1);
-                        Product minusOne = new Product("-1");
-
-                        sched.addFiring(actorName,new Product(one));
-                        firingsLeft = firingsLeft.add(minusOne).getProduct();
-                        copyVector.put(actorName,firingsLeft);
-                        actor.fire();
-                    }
-                }
-                else
+                long n = state.getMaxFirings(actor, 
+                    firingsLeft[a].getCount());
+                if (n == 0) continue;
+                times = new Product(ExactArithmetic.toInt(n));
+            }
+            else
+            {
+                times = firingsLeft[a].getProduct().getParam().getProduct();
+                if (!state.prefire(actor,times)) continue;
+            }
+
+            sched.addFiring(actor.getName(),times);
+            state.fire(actor,times);
+            firingsLeft[a].subtract(times);
+            if (firingsLeft[a].isZero())
+                pending--;
+            else
+            {
+                queued[a] = true;
+                work.add(a);
+            }
+
+            for (BPDFEdge edge : getOutEdges(actor))
+            {
+                int c = indexOf(edge.getConsumer());
+                if (!queued[c] && !firingsLeft[c].isZero())
                 {
-                    Product paramFirings = firingsLeft.getParam().getProduct();
-
-                    if (actor.prefire(paramFirings))
-                    {
-                        progress = true;
-                        sched.addFiring(actorName,paramFirings);
-                        Product nParam = new Product("-" + paramFirings.getString());
-                        firingsLeft = firingsLeft.add(nParam).getProduct();
-                        copyVector.put(actorName,firingsLeft);
-                        actor.fire(new Product(paramFirings));
-                        break;
-                    }
+                    queued[c] = true;
+                    work.add(c);
                 }
             }
-            if (!progress) return false;
         }
-        return true;
-    }
-
-    /**
-     * Returns true if the given firing vector has firings left
-     * @param map The firing vector
-     * @return True if the vector still has firings
-     */
-    private boolean hasMoreFirings(Map<String, Expression> map)
-    {
-        Iterator<Map.Entry<String, Expression>> iMap 
-            = map.entrySet().iterator();
-        while (iMap.hasNext())
-        {
-            Map.Entry<String, Expression> tempEntry = iMap.next();
-            Expression tmpExpr = tempEntry.getValue();
-            if (!tmpExpr.isZero())
-                return true;
-        }
-        return false;
+        return (pending == 0) ? sched : null;
     }
 }
\ No newline at end of file
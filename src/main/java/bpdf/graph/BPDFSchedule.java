@@ -69,9 +69,8 @@ public class BPDFSchedule
     public void printSchedule()
     {
         System.out.println("Schedule: ");
-        for (int i = 0; i < schedule.size(); i++)
+        for (BPDFFiring tempFiring : schedule)
         {
-            BPDFFiring tempFiring = schedule.get(i);
             System.out.println(tempFiring.getName() + "^(" 
                 + tempFiring.getTimes().getString() + ")");
         }
@@ -0,0 +1,338 @@
+// BinaryParser.java
+
+package bpdf.graph;
+
+import bpdf.symbol.*;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads graphs written by BinaryWriter. The file is memory mapped and read
+ * in place: strings and products are decoded the first time an actor or
+ * edge refers to them, so every distinct rate is built once. All integers
+ * are big endian. The format (version 1) is:
+ * <pre>
+ * header    magic "BPDF", version, #strings, #products, #actors,
+ *           #modifiers, #edges
+ * strings   offset of each string, length, UTF-8 data
+ * products  offset of each product, length, data:
+ *           numeric, sign (byte), #factors, (param string, power)*
+ * actors    (name string, timing)*
+ * modifiers (actor, param string, period product)*
+ * edges     (producer, consumer, rate in, rate out, tokens products,
+ *            guard string, name string)*
+ * </pre>
+ */
+public class BinaryParser implements Parser
+{
+/******************************************************************************
+ ** FORMAT
+ ******************************************************************************/
+
+    /**
+     * First bytes of every binary graph ("BPDF")
+     */
+    static final int MAGIC = 0x42504446;
+
+    /**
+     * Version of the format written by BinaryWriter
+     */
+    static final int VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+/******************************************************************************
+ ** PRIVATE PARAMETERS
+ ******************************************************************************/
+
+    /**
+     * The parsed actors by name
+     */
+    private Map<String, BPDFActor> _actorMap
+        = new LinkedHashMap<String, BPDFActor>();
+
+    /**
+     * The parsed actors and edges, in order
+     */
+    private List<BPDFActor> _actorList = new ArrayList<BPDFActor>();
+    private List<BPDFEdge> _edgeList = new ArrayList<BPDFEdge>();
+
+    /**
+     * The mapped file and the position of its sections
+     */
+    private ByteBuffer _buf;
+    private int _strPos;
+    private int _prodPos;
+
+    /**
+     * The strings and products decoded so far
+     */
+    private String[] _strings;
+    private Product[] _products;
+
+/******************************************************************************
+ ** CONSTRUCTORS
+ ******************************************************************************/
+
+    /**
+     * Empty constructor
+     */
+    public BinaryParser(){}
+
+    /**
+     * Constructor loading the given file
+     * @param file The binary graph file
+     */
+    public BinaryParser(File file)
+    {
+        parse(file);
+    }
+
+/******************************************************************************
+ ** PARSING
+ ******************************************************************************/
+
+    /**
+     * Returns true if the given file starts as a binary graph
+     * @param file The file
+     * @return True if the file is a binary graph
+     */
+    public static boolean isBinary(File file)
+    {
+        if (!file.isFile() || (file.length() < 4))
+            return false;
+        try
+        {
+            DataInputStream in = new DataInputStream(
+                new FileInputStream(file));
+            try
+            {
+                return in.readInt() == MAGIC;
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Loads the given file
+     * @param file The binary graph file
+     */
+    public void parse(File file)
+    {
+        try
+        {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try
+            {
+                _buf = raf.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException("Could not read " + file, e);
+        }
+
+        try
+        {
+            load();
+        }
+        catch (RuntimeException e)
+        {
+            // Out of bounds positions, negative counts, bad header, ...
+            throw new RuntimeException("Invalid binary graph " + file
+                + ": " + e, e);
+        }
+        finally
+        {
+            _buf = null;
+            _strings = null;
+            _products = null;
+        }
+    }
+
+    /**
+     * Returns the graph of the given file
+     * @param path The path to the binary graph file
+     * @return The graph
+     */
+    public BPDFGraph getGraph(String path)
+    {
+        parse(new File(path));
+        BPDFGraph graph = new BPDFGraph();
+        graph.addActors(getActors());
+        graph.addEdges(getEdges());
+        return graph;
+    }
+
+/******************************************************************************
+ ** GETTERS
+ ******************************************************************************/
+
+    /**
+     * Returns the actors of the last loaded file
+     * @return The list of actors
+     */
+    public List<BPDFActor> getActors()
+    {
+        return _actorList;
+    }
+
+    /**
+     * Returns the edges of the last loaded file
+     * @return The list of edges
+     */
+    public List<BPDFEdge> getEdges()
+    {
+        return _edgeList;
+    }
+
+    /**
+     * Returns the actors of the last loaded file by name
+     * @return The actor map
+     */
+    public Map<String, BPDFActor> getActorMap()
+    {
+        return _actorMap;
+    }
+
+/******************************************************************************
+ ** PRIVATE METHODS
+ ******************************************************************************/
+
+    /**
+     * Reads the sections of the mapped file
+     */
+    private void load()
+    {
+        _actorMap = new LinkedHashMap<String, BPDFActor>();
+        _actorList = new ArrayList<BPDFActor>();
+        _edgeList = new ArrayList<BPDFEdge>();
+
+        if (_buf.getInt() != MAGIC)
+            throw new RuntimeException("Not a binary graph");
+        int version = _buf.getInt();
+        if (version != VERSION)
+            throw new RuntimeException("Unsupported binary graph version "
+                + version);
+        int strings = _buf.getInt();
+        int products = _buf.getInt();
+        int actors = _buf.getInt();
+        int modifiers = _buf.getInt();
+        int edges = _buf.getInt();
+
+        // Skip the tables, they are decoded on demand
+        _strings = new String[strings];
+        _strPos = _buf.position();
+        _buf.position(_strPos + 4 * strings);
+        int length = _buf.getInt();
+        _buf.position(_buf.position() + length);
+        _products = new Product[products];
+        _prodPos = _buf.position();
+        _buf.position(_prodPos + 4 * products);
+        length = _buf.getInt();
+        _buf.position(_buf.position() + length);
+
+        for (int i = 0; i < actors; i++)
+        {
+            BPDFActor actor = new BPDFActor(string(_buf.getInt()));
+            actor.setTime(_buf.getInt());
+            _actorList.add(actor);
+            _actorMap.put(actor.getName(), actor);
+        }
+
+        for (int i = 0; i < modifiers; i++)
+        {
+            BPDFActor actor = _actorList.get(_buf.getInt());
+            String param = string(_buf.getInt());
+            actor.setModifier(param, product(_buf.getInt()));
+        }
+
+        for (int i = 0; i < edges; i++)
+        {
+            BPDFActor producer = _actorList.get(_buf.getInt());
+            BPDFActor consumer = _actorList.get(_buf.getInt());
+            Product rateIn = product(_buf.getInt());
+            Product rateOut = product(_buf.getInt());
+            Product tokens = product(_buf.getInt());
+            String guard = string(_buf.getInt());
+            BPDFEdge edge = new BPDFEdge(string(_buf.getInt()),
+                producer, rateIn, consumer, rateOut);
+            edge.setTokens(tokens);
+            edge.setGuard(guard);
+            BPDFGraph.connectActors(edge);
+            _edgeList.add(edge);
+        }
+    }
+
+    /**
+     * Returns the string at the given position of the string table
+     */
+    private String string(int id)
+    {
+        String str = _strings[id];
+        if (str == null)
+        {
+            // The offsets are followed by the length, the end of the last
+            int start = _buf.getInt(_strPos + 4 * id);
+            int end = _buf.getInt(_strPos + 4 * (id + 1));
+            ByteBuffer data = _buf.duplicate();
+            data.position(_strPos + 4 * (_strings.length + 1) + start);
+            byte[] bytes = new byte[end - start];
+            data.get(bytes);
+            str = new String(bytes, UTF8);
+            _strings[id] = str;
+        }
+        return str;
+    }
+
+    /**
+     * Returns the product at the given position of the product table
+     */
+    private Product product(int id)
+    {
+        Product prod = _products[id];
+        if (prod == null)
+        {
+            int pos = _prodPos + 4 * (_products.length + 1)
+                + _buf.getInt(_prodPos + 4 * id);
+            int numeric = _buf.getInt(pos);
+            boolean sign = _buf.get(pos + 4) != 0;
+            int factors = _buf.getInt(pos + 5);
+            Monomial mono = Monomial.UNIT;
+            for (int i = 0; i < factors; i++)
+            {
+                String param = string(_buf.getInt(pos + 9 + 8 * i));
+                int power = _buf.getInt(pos + 13 + 8 * i);
+                mono = mono.multiply(Monomial.valueOf(param, power));
+            }
+            // A zero numeric flips the sign given to the constructor
+            if (numeric == 0) sign = !sign;
+            prod = new Product(mono, numeric, sign);
+            _products[id] = prod;
+        }
+        return prod;
+    }
+}
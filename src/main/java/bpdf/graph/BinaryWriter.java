@@ -0,0 +1,206 @@
+// BinaryWriter.java
+
+package bpdf.graph;
+
+import bpdf.symbol.*;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the topology of a graph (actors, timing, modifiers, edges, rates,
+ * initial tokens and guards) in the binary format read by BinaryParser.
+ * Reading periods and other analysis results are not written.
+ */
+public class BinaryWriter
+{
+/******************************************************************************
+ ** PRIVATE PARAMETERS
+ ******************************************************************************/
+
+    /**
+     * The string table: position of each string
+     */
+    private Map<String, Integer> _strings
+        = new LinkedHashMap<String, Integer>();
+
+    /**
+     * The product table: position of each distinct product
+     */
+    private Map<String, Integer> _productIds
+        = new LinkedHashMap<String, Integer>();
+    private List<Product> _products = new ArrayList<Product>();
+
+/******************************************************************************
+ ** WRITING
+ ******************************************************************************/
+
+    /**
+     * Writes the graph to the given file
+     * @param graph The graph
+     * @param file The binary file
+     */
+    public static void write(BPDFGraph graph, File file)
+    {
+        try
+        {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+            try
+            {
+                new BinaryWriter().write(graph, out);
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException("Could not write " + file, e);
+        }
+    }
+
+    /**
+     * Writes all the sections of the format
+     */
+    private void write(BPDFGraph graph, DataOutputStream out)
+        throws IOException
+    {
+        List<BPDFActor> actors = graph.getActors();
+        List<BPDFEdge> edges = graph.getEdges();
+        Map<BPDFActor, Integer> actorIds
+            = new IdentityHashMap<BPDFActor, Integer>();
+
+        // Fixed size records, filling the string and product tables
+        ByteArrayOutputStream actorBytes = new ByteArrayOutputStream();
+        DataOutputStream actorOut = new DataOutputStream(actorBytes);
+        ByteArrayOutputStream modBytes = new ByteArrayOutputStream();
+        DataOutputStream modOut = new DataOutputStream(modBytes);
+        int modifiers = 0;
+        for (BPDFActor actor : actors)
+        {
+            int id = actorIds.size();
+            actorIds.put(actor, id);
+            actorOut.writeInt(string(actor.getName()));
+            actorOut.writeInt(actor.getTime());
+            for (String param : actor.getBoolParam())
+            {
+                modOut.writeInt(id);
+                modOut.writeInt(string(param));
+                modOut.writeInt(product(actor.getPeriod(param)));
+                modifiers++;
+            }
+        }
+
+        ByteArrayOutputStream edgeBytes = new ByteArrayOutputStream();
+        DataOutputStream edgeOut = new DataOutputStream(edgeBytes);
+        for (BPDFEdge edge : edges)
+        {
+            edgeOut.writeInt(actorIds.get(edge.getProducer()));
+            edgeOut.writeInt(actorIds.get(edge.getConsumer()));
+            edgeOut.writeInt(product(edge.getRateIn()));
+            edgeOut.writeInt(product(edge.getRateOut()));
+            edgeOut.writeInt(product(edge.getTokens()));
+            edgeOut.writeInt(string(edge.getGuard()));
+            edgeOut.writeInt(string(edge.getName()));
+        }
+
+        // The products may add parameter names to the string table
+        ByteArrayOutputStream prodBytes = new ByteArrayOutputStream();
+        DataOutputStream prodOut = new DataOutputStream(prodBytes);
+        int[] prodOffsets = new int[_products.size()];
+        for (int i = 0; i < _products.size(); i++)
+        {
+            prodOffsets[i] = prodOut.size();
+            Product prod = _products.get(i);
+            Monomial mono = prod.getMonomial();
+            prodOut.writeInt(prod.getNumeric());
+            prodOut.writeBoolean(prod.getSign());
+            prodOut.writeInt(mono.size());
+            for (int j = 0; j < mono.size(); j++)
+            {
+                prodOut.writeInt(string(mono.getParam(j)));
+                prodOut.writeInt(mono.getPowerAt(j));
+            }
+        }
+
+        ByteArrayOutputStream strBytes = new ByteArrayOutputStream();
+        int[] strOffsets = new int[_strings.size()];
+        int s = 0;
+        for (String str : _strings.keySet())
+        {
+            strOffsets[s++] = strBytes.size();
+            strBytes.write(str.getBytes("UTF-8"));
+        }
+
+        out.writeInt(BinaryParser.MAGIC);
+        out.writeInt(BinaryParser.VERSION);
+        out.writeInt(strOffsets.length);
+        out.writeInt(prodOffsets.length);
+        out.writeInt(actors.size());
+        out.writeInt(modifiers);
+        out.writeInt(edges.size());
+        writeTable(out, strOffsets, strBytes);
+        writeTable(out, prodOffsets, prodBytes);
+        actorBytes.writeTo(out);
+        modBytes.writeTo(out);
+        edgeBytes.writeTo(out);
+    }
+
+/******************************************************************************
+ ** PRIVATE METHODS
+ ******************************************************************************/
+
+    /**
+     * Writes a table of variable size entries: offsets, length and data
+     */
+    private static void writeTable(DataOutputStream out, int[] offsets,
+        ByteArrayOutputStream data) throws IOException
+    {
+        for (int offset : offsets)
+            out.writeInt(offset);
+        out.writeInt(data.size());
+        data.writeTo(out);
+    }
+
+    /**
+     * Returns the position of a string, adding it to the table if needed
+     */
+    private int string(String str)
+    {
+        Integer id = _strings.get(str);
+        if (id == null)
+        {
+            id = _strings.size();
+            _strings.put(str, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the position of a product, adding it to the table if needed
+     */
+    private int product(Product prod)
+    {
+        String key = prod.getMonomial().getString() + "|"
+            + prod.getNumeric() + "|" + prod.getSign();
+        Integer id = _productIds.get(key);
+        if (id == null)
+        {
+            id = _products.size();
+            _productIds.put(key, id);
+            _products.add(prod);
+        }
+        return id;
+    }
+}
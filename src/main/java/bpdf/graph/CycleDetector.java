@@ -1,11 +1,22 @@
 // CycleDetector.java
 package bpdf.graph;
 
-import java.util.List;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
 
+/**
+ * Finds the strongly connected components (SCCs) of a graph with Tarjan's
+ * algorithm in O(V+E) and enumerates its elementary cycles with Johnson's
+ * algorithm, restricted to the non-trivial components. Cycles are produced
+ * one at a time by an iterator with an upper bound, since a graph may have
+ * exponentially many of them. Both algorithms are iterative and work on
+ * the positions of the actors, so the actors are never modified.
+ */
 public class CycleDetector
 {
 /******************************************************************************
@@ -17,145 +28,488 @@ public class CycleDetector
      */
     private BPDFGraph graph;
 
-    /** 
-     * The cycles found in the graph
+    /**
+     * The actors of the graph, by position
      */
-    private List<BPDFGraph> cycleList = new ArrayList<BPDFGraph>();
+    private List<BPDFActor> actors;
 
     /**
-     * Counter used in the algorithm
+     * The distinct successors of each actor, by position
      */
-    private int index = 1;
+    private int[][] succ;
+
+    /**
+     * The SCCs of the graph, in reverse topological order
+     */
+    private List<int[]> components;
 
 /******************************************************************************
  ** CONSTRUCTORS
  ******************************************************************************/
 
+    /**
+     * Finds the SCCs of the given graph
+     * @param g The graph
+     */
     public CycleDetector(BPDFGraph g)
     {
-        graph = new BPDFGraph(g);
-        modifiedTarjanAlgorithm();
+        graph = g;
+        actors = new ArrayList<BPDFActor>(g.getActors());
+        succ = new int[actors.size()][];
+        for (int v = 0; v < succ.length; v++)
+            succ[v] = positions(g.getSuccessors(actors.get(v)));
+        BitSet all = new BitSet();
+        all.set(0, actors.size());
+        components = tarjan(all);
     }
 
 /******************************************************************************
- ** ALGORITHM
+ ** COMPONENTS
  ******************************************************************************/
 
     /**
-     * A modified version of Tarjan's strongly connected component 
-     * algorithm that can find nested cycles as well
+     * Returns the strongly connected components of the graph, in reverse
+     * topological order
+     * @return The lists of actors of each component
      */
-    private void modifiedTarjanAlgorithm()
+    public List<List<BPDFActor>> getComponents()
     {
-        Iterator iActors = graph.getActors().iterator();
+        List<List<BPDFActor>> res = new ArrayList<List<BPDFActor>>();
+        for (int[] comp : components)
+            res.add(toActors(comp));
+        return res;
+    }
 
-        while (iActors.hasNext())
+    /**
+     * Returns the components that contain a cycle: those with more than one
+     * actor or with an actor connected to itself
+     * @return The lists of actors of each cyclic component
+     */
+    public List<List<BPDFActor>> getCyclicComponents()
+    {
+        List<List<BPDFActor>> res = new ArrayList<List<BPDFActor>>();
+        for (int[] comp : components)
         {
-            BPDFActor v = (BPDFActor) iActors.next();
-            LinkedList<BPDFActor> nodeList = new LinkedList<BPDFActor>();
-            if (v.index == 0)
-            {
-                v.index = index + 1;
-                nodeList.push(v);
-                dfs(v,nodeList);
-            }
+            if (isCyclic(comp))
+                res.add(toActors(comp));
         }
+        return res;
     }
 
     /**
-     * Depth First Search. If an actor is revisited a cycle is detected
-     * @param v The starting actor
-     * @param nodeList The list of previously visited actors
+     * Returns true if the graph has at least one cycle
+     * @return True if the graph is cyclic
      */
-    private void dfs(BPDFActor v, List nodeList)
+    public boolean hasCycles()
     {
-        List successors = graph.getSuccessors(v);
-     
-        // Consider successors of v
-        Iterator iSuccessors = successors.iterator();
-        while (iSuccessors.hasNext())
-        {
-            BPDFActor w = (BPDFActor) iSuccessors.next();
-
-            // Copy node list
-            LinkedList copyNodeList = new LinkedList<BPDFActor>();
-            Iterator iNodeList = nodeList.iterator();
-            while (iNodeList.hasNext())
+        for (int[] comp : components)
+        {
+            if (isCyclic(comp))
+                return true;
+        }
+        return false;
+    }
+
+/******************************************************************************
+ ** CYCLES
+ ******************************************************************************/
+
+    /**
+     * Returns an iterator over at most max elementary cycles of the graph.
+     * Each cycle is a graph with the actors of the cycle and the edges
+     * between consecutive actors.
+     * @param max The maximum number of cycles
+     * @return The iterator over the cycles
+     */
+    public Cycles cycles(int max)
+    {
+        return new Cycles(max);
+    }
+
+    /**
+     * Returns all the elementary cycles of the graph. The number of cycles
+     * can be exponential in the size of the graph, see cycles(int).
+     * @return The list of cycles
+     */
+    public List<BPDFGraph> getCycles()
+    {
+        List<BPDFGraph> cycleList = new ArrayList<BPDFGraph>();
+        Iterator<BPDFGraph> it = cycles(Integer.MAX_VALUE);
+        while (it.hasNext())
+            cycleList.add(it.next());
+        return cycleList;
+    }
+
+    /**
+     * Iterator over the elementary cycles. Self loops come first, then the
+     * cycles of each cyclic component are found with Johnson's algorithm:
+     * all the cycles through the first actor of the component, then the
+     * cycles of the components left once that actor is removed.
+     */
+    public class Cycles implements Iterator<BPDFGraph>
+    {
+        /**
+         * Maximum and number of cycles returned
+         */
+        private final int _max;
+        private int _count = 0;
+
+        /**
+         * Self loops not returned yet
+         */
+        private int _loop = 0;
+
+        /**
+         * Components left to search, and the actors of the current one
+         */
+        private LinkedList<int[]> _todo = new LinkedList<int[]>();
+        private BitSet _comp = new BitSet();
+
+        /**
+         * State of the search from the start actor: the path, the position
+         * of the next successor of each actor on the path, the blocked
+         * actors, Johnson's B sets and the actors closing a cycle
+         */
+        private int _start = -1;
+        private int[] _path = new int[actors.size()];
+        private int[] _next = new int[actors.size()];
+        private int _depth = 0;
+        private boolean[] _blocked = new boolean[actors.size()];
+        private BitSet[] _b = new BitSet[actors.size()];
+        private boolean[] _closed = new boolean[actors.size()];
+
+        /**
+         * The next cycle, null if not found yet
+         */
+        private int[] _cycle;
+        private boolean _done = false;
+
+        private Cycles(int max)
+        {
+            _max = max;
+            for (int[] comp : components)
+            {
+                if (comp.length > 1)
+                    _todo.add(comp);
+            }
+        }
+
+        public boolean hasNext()
+        {
+            return (_count < _max) && (peek() != null);
+        }
+
+        public BPDFGraph next()
+        {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            int[] cycle = _cycle;
+            _cycle = null;
+            _count++;
+            return toGraph(cycle);
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Returns true if the iteration stopped at the maximum number of
+         * cycles while more cycles exist
+         * @return True if cycles were left out
+         */
+        public boolean isTruncated()
+        {
+            return (_count >= _max) && (peek() != null);
+        }
+
+        /**
+         * Returns the next cycle, finding it if needed
+         */
+        private int[] peek()
+        {
+            if ((_cycle == null) && !_done)
+            {
+                _cycle = advance();
+                _done = (_cycle == null);
+            }
+            return _cycle;
+        }
+
+        /**
+         * Returns the position of the next actor with a self loop
+         */
+        private int nextLoop()
+        {
+            while (_loop < actors.size())
             {
-                BPDFActor actor = (BPDFActor) iNodeList.next();
-                copyNodeList.add(actor);
+                if (Arrays.binarySearch(succ[_loop], _loop) >= 0)
+                    return _loop;
+                _loop++;
             }
+            return -1;
+        }
 
-            if (!nodeList.contains(w))
-            {// Successor w has not yet been visited; recurse on it
-                // If no index set, set
-                if (w.index == 0)
-                    w.index = v.index + 1;
+        /**
+         * Finds the next cycle
+         */
+        private int[] advance()
+        {
+            int loop = nextLoop();
+            if (loop >= 0)
+            {
+                _loop++;
+                return new int[] {loop};
+            }
+
+            while (true)
+            {
+                if (_start < 0)
+                {
+                    if (_todo.isEmpty()) return null;
+                    startSearch(_todo.removeFirst());
+                }
+                int[] cycle = search();
+                if (cycle != null) return cycle;
 
-                // if parent index less, recurse otherwise ignore
-                if (v.index < w.index)
+                // All cycles through the start actor found, remove it
+                _comp.clear(_start);
+                for (int[] comp : tarjan(_comp))
                 {
-                    copyNodeList.push(w);
-                    dfs(w,copyNodeList);
+                    if (comp.length > 1)
+                        _todo.addFirst(comp);
                 }
+                _start = -1;
             }
-            else
+        }
+
+        /**
+         * Starts searching the cycles through the first actor of a component
+         */
+        private void startSearch(int[] comp)
+        {
+            _comp.clear();
+            for (int v : comp)
             {
-            // Successor w is in stack nodeList and hence in the current SCC
-            // Set the global index to the maximum value after each cycle
-                if (v.index > index)
-                    index = v.index;
-                getCycle(w,copyNodeList);
+                _comp.set(v);
+                _blocked[v] = false;
+                _closed[v] = false;
+                _b[v] = null;
+            }
+            _start = comp[0];
+            _path[0] = _start;
+            _next[0] = 0;
+            _depth = 1;
+            _blocked[_start] = true;
+        }
+
+        /**
+         * Continues the search until the next cycle through the start actor
+         * @return The cycle, null if there are no more
+         */
+        private int[] search()
+        {
+            while (_depth > 0)
+            {
+                int v = _path[_depth - 1];
+                int[] nbrs = succ[v];
+                if (_next[_depth - 1] < nbrs.length)
+                {
+                    int w = nbrs[_next[_depth - 1]++];
+                    if (!_comp.get(w) || (w == v)) continue;
+                    if (w == _start)
+                    {
+                        for (int i = 0; i < _depth; i++)
+                            _closed[_path[i]] = true;
+                        return Arrays.copyOf(_path, _depth);
+                    }
+                    else if (!_blocked[w])
+                    {
+                        _path[_depth] = w;
+                        _next[_depth] = 0;
+                        _depth++;
+                        _closed[w] = false;
+                        _blocked[w] = true;
+                    }
+                    continue;
+                }
+
+                // All successors of v searched
+                if (_closed[v])
+                    unblock(v);
+                else
+                {
+                    for (int w : nbrs)
+                    {
+                        if (!_comp.get(w)) continue;
+                        if (_b[w] == null) _b[w] = new BitSet();
+                        _b[w].set(v);
+                    }
+                }
+                _depth--;
+            }
+            return null;
+        }
+
+        /**
+         * Unblocks an actor and, recursively, the actors waiting on it
+         */
+        private void unblock(int v)
+        {
+            LinkedList<Integer> stack = new LinkedList<Integer>();
+            stack.push(v);
+            while (!stack.isEmpty())
+            {
+                int u = stack.pop();
+                if (!_blocked[u]) continue;
+                _blocked[u] = false;
+                if (_b[u] != null)
+                {
+                    for (int w = _b[u].nextSetBit(0); w >= 0;
+                        w = _b[u].nextSetBit(w + 1))
+                        stack.push(w);
+                    _b[u].clear();
+                }
             }
         }
     }
 
+/******************************************************************************
+ ** PRIVATE METHODS
+ ******************************************************************************/
+
     /**
-     * It returns the cycle as a graph by popping elements off the list until 
-     * the revisited actor is found
+     * Tarjan's algorithm on the actors of the given set, with an explicit
+     * stack instead of recursion
+     * @return The components, in reverse topological order
      */
-    private void getCycle(BPDFActor v, LinkedList s)
+    private List<int[]> tarjan(BitSet set)
     {
+        int n = actors.size();
+        int[] index = new int[n];
+        int[] low = new int[n];
+        Arrays.fill(index, -1);
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int top = 0;
+        int[] callStack = new int[n];
+        int[] next = new int[n];
+        int counter = 0;
+        List<int[]> res = new ArrayList<int[]>();
 
-        BPDFGraph cycle = new BPDFGraph();
-        BPDFActor w = (BPDFActor) s.pop();
-        cycle.addActor(w);
-        
-        // Get actors
-        while (w.getName() != v.getName())
+        for (int root = set.nextSetBit(0); root >= 0;
+            root = set.nextSetBit(root + 1))
         {
-            w = (BPDFActor) s.pop();
-            cycle.addActor(w);
-        }
+            if (index[root] >= 0) continue;
+            int depth = 0;
+            callStack[depth++] = root;
+            index[root] = low[root] = counter++;
+            next[root] = 0;
+            stack[top++] = root;
+            onStack[root] = true;
 
-        // Get edges
-        List cycleActorList = cycle.getActors();
-        Iterator iActors = cycleActorList.iterator();
-        while (iActors.hasNext())
-        {
-            BPDFActor actor = (BPDFActor) iActors.next();
-            List edges = graph.getOutEdges(actor);
-            Iterator iEdges = edges.iterator();
-            while(iEdges.hasNext())
+            while (depth > 0)
             {
-                BPDFEdge edge = (BPDFEdge) iEdges.next();
-                if (cycleActorList.contains(edge.getConsumer()))
+                int v = callStack[depth - 1];
+                if (next[v] < succ[v].length)
+                {
+                    int w = succ[v][next[v]++];
+                    if (!set.get(w)) continue;
+                    if (index[w] < 0)
+                    {
+                        index[w] = low[w] = counter++;
+                        next[w] = 0;
+                        stack[top++] = w;
+                        onStack[w] = true;
+                        callStack[depth++] = w;
+                    }
+                    else if (onStack[w])
+                        low[v] = Math.min(low[v], index[w]);
+                    continue;
+                }
+
+                // All successors of v visited
+                depth--;
+                if (depth > 0)
                 {
-                    cycle.addEdge(edge);
+                    int parent = callStack[depth - 1];
+                    low[parent] = Math.min(low[parent], low[v]);
+                }
+                if (low[v] == index[v])
+                {
+                    int size = 0;
+                    while (stack[top - 1 - size] != v)
+                        size++;
+                    size++;
+                    int[] comp = Arrays.copyOfRange(stack, top - size, top);
+                    Arrays.sort(comp);
+                    for (int u : comp)
+                        onStack[u] = false;
+                    top -= size;
+                    res.add(comp);
                 }
             }
         }
-        cycleList.add(cycle);
-        // System.out.println ("Cycle: ");
-        // cycle.printGraph();
+        return res;
     }
 
-/******************************************************************************
- ** GETTERS
- ******************************************************************************/
+    /**
+     * Returns true if the component contains a cycle
+     */
+    private boolean isCyclic(int[] comp)
+    {
+        return (comp.length > 1)
+            || (Arrays.binarySearch(succ[comp[0]], comp[0]) >= 0);
+    }
 
-    public List<BPDFGraph> getCycles()
+    /**
+     * Returns the actors at the given positions
+     */
+    private List<BPDFActor> toActors(int[] positions)
     {
-        return cycleList;
+        List<BPDFActor> res = new ArrayList<BPDFActor>();
+        for (int v : positions)
+            res.add(actors.get(v));
+        return res;
+    }
+
+    /**
+     * Returns the cycle as a graph: its actors in order and the edges from
+     * each actor to the next one
+     */
+    private BPDFGraph toGraph(int[] cycle)
+    {
+        BPDFGraph res = new BPDFGraph();
+        for (int v : cycle)
+            res.addActor(actors.get(v));
+        for (int i = 0; i < cycle.length; i++)
+        {
+            BPDFActor next = actors.get(cycle[(i + 1) % cycle.length]);
+            for (BPDFEdge edge : graph.getOutEdges(actors.get(cycle[i])))
+            {
+                if (edge.getConsumer() == next)
+                    res.addEdge(edge);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Returns the distinct positions of the given actors, in ascending order
+     */
+    private int[] positions(List<BPDFActor> successors)
+    {
+        int[] res = new int[successors.size()];
+        for (int i = 0; i < res.length; i++)
+            res[i] = graph.indexOf(successors.get(i));
+        Arrays.sort(res);
+        int size = 0;
+        for (int i = 0; i < res.length; i++)
+        {
+            if ((size == 0) || (res[size - 1] != res[i]))
+                res[size++] = res[i];
+        }
+        return Arrays.copyOf(res, size);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,548 @@
+// ExecutionState.java
+
+package bpdf.graph;
+
+import bpdf.symbol.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The state of one run over a graph: the tokens stored on the edges, the
+ * remaining execution time and the firings of the actors, the change
+ * periods of the modifiers and the reading periods of the users once the
+ * integer parameters get values, and the repetition vector. The graph only
+ * holds the topology and the results of its analyses, which are read but
+ * never changed by a run, so any number of states (and the schedulers or
+ * analyses using them) can run on one loaded graph, in several threads.
+ * A state itself is used by a single thread.
+ */
+public final class ExecutionState
+{
+/******************************************************************************
+ ** PRIVATE PARAMETERS
+ ******************************************************************************/
+
+    /**
+     * The graph of the run
+     */
+    private final BPDFGraph _graph;
+
+    /**
+     * Tokens stored on each edge, indexed by edge position
+     */
+    private final TokenCounter[] _tokens;
+
+    /**
+     * The edges, indexed by edge position
+     */
+    private final BPDFEdge[] _edges;
+
+    /**
+     * Production and consumption rate of each edge when numeric, -1 when
+     * parametric, indexed by edge position
+     */
+    private final long[] _rateIn;
+    private final long[] _rateOut;
+
+    /**
+     * Positions of the input and output edges of each actor, indexed by
+     * actor position
+     */
+    private final int[][] _inEdges;
+    private final int[][] _outEdges;
+
+    /**
+     * Remaining execution time of each actor, indexed by actor position
+     */
+    private final int[] _remainTime;
+
+    /**
+     * Firings of each actor, indexed by actor position
+     */
+    private final TokenCounter[] _firings;
+
+    /**
+     * Change periods of each actor, null until changed by the run
+     */
+    private final List<Map<String, Product>> _periods;
+
+    /**
+     * Reading periods of each actor, null until changed by the run
+     */
+    private final List<Map<String, Product>> _readingPeriods;
+
+    /**
+     * Repetition vector, null if the graph is not consistent
+     */
+    private final Map<String, Expression> _repVector;
+
+/******************************************************************************
+ ** CONSTRUCTORS
+ ******************************************************************************/
+
+    /**
+     * Creates the initial state of a run over the given graph: the initial
+     * tokens of the edges, no firings, the symbolic periods and the
+     * repetition vector found by the last consistency analysis.
+     * @param graph The graph
+     */
+    public ExecutionState(BPDFGraph graph)
+    {
+        _graph = graph;
+        List<BPDFActor> actors = graph.getActors();
+        List<BPDFEdge> edges = graph.getEdges();
+
+        _edges = edges.toArray(new BPDFEdge[edges.size()]);
+        _tokens = new TokenCounter[edges.size()];
+        _rateIn = new long[edges.size()];
+        _rateOut = new long[edges.size()];
+        for (int e = 0; e < _tokens.length; e++)
+        {
+            BPDFEdge edge = _edges[e];
+            _tokens[e] = new TokenCounter(edge.getTokens());
+            _rateIn[e] = numericRate(edge.getRateIn());
+            _rateOut[e] = numericRate(edge.getRateOut());
+        }
+
+        _remainTime = new int[actors.size()];
+        _firings = new TokenCounter[actors.size()];
+        _inEdges = new int[actors.size()][];
+        _outEdges = new int[actors.size()][];
+        _periods = new ArrayList<Map<String, Product>>(actors.size());
+        _readingPeriods = new ArrayList<Map<String, Product>>(actors.size());
+        for (int a = 0; a < _remainTime.length; a++)
+        {
+            BPDFActor actor = actors.get(a);
+            _remainTime[a] = actor.getTime();
+            _firings[a] = new TokenCounter();
+            _inEdges[a] = edgeIndices(graph.getInEdges(actor));
+            _outEdges[a] = edgeIndices(graph.getOutEdges(actor));
+            _periods.add(null);
+            _readingPeriods.add(null);
+        }
+
+        Map<String, Expression> vector = graph.getVector();
+        _repVector = (vector == null)
+            ? null : new HashMap<String, Expression>(vector);
+    }
+
+/******************************************************************************
+ ** TOKENS
+ ******************************************************************************/
+
+    /**
+     * Returns the amount of tokens stored on an edge
+     * @param edge The edge
+     * @return The amount of stored tokens
+     */
+    public Product getTokens(BPDFEdge edge)
+    {
+        return _tokens[edgeIndex(edge)].getProduct();
+    }
+
+    /**
+     * Sets the tokens stored on an edge
+     * @param edge The edge
+     * @param t The amount of tokens to be stored
+     */
+    public void setTokens(BPDFEdge edge, Product t)
+    {
+        _tokens[edgeIndex(edge)].set(t);
+    }
+
+    /**
+     * Adds t tokens to the ones stored on an edge
+     * @param edge The edge
+     * @param t The amount of tokens to be added
+     */
+    public void addTokens(BPDFEdge edge, Product t)
+    {
+        _tokens[edgeIndex(edge)].add(t);
+    }
+
+    /**
+     * Subtracts t tokens from the ones stored on an edge
+     * @param edge The edge
+     * @param t The amount of tokens to be removed
+     * @throws TokenCounter.Underflow if less than t tokens are stored
+     */
+    public void removeTokens(BPDFEdge edge, Product t)
+    {
+        _tokens[edgeIndex(edge)].subtract(t);
+    }
+
+/******************************************************************************
+ ** FIRING
+ ******************************************************************************/
+
+    /**
+     * Returns true if the actor can fire (enough tokens in its input ports).
+     * @param actor The actor
+     * @return True if the actor can fire once
+     */
+    public boolean prefire(BPDFActor actor)
+    {
+        return canFire(actorIndex(actor), 1);
+    }
+
+    /**
+     * Fires the actor one time.
+     * @param actor The actor
+     * @throws TokenCounter.Underflow if the actor cannot fire, in which
+     * case the state is left as it was
+     */
+    public void fire(BPDFActor actor)
+    {
+        int a = actorIndex(actor);
+        if (!canFire(a, 1))
+            throw underflow(actor);
+
+        for (int e : _inEdges[a])
+        {
+            if (_rateOut[e] < 0)
+                _tokens[e].subtract(rateOut(e));
+            else
+                _tokens[e].subtract(_rateOut[e]);
+        }
+        for (int e : _outEdges[a])
+        {
+            if (_rateIn[e] < 0)
+                _tokens[e].add(rateIn(e));
+            else
+                _tokens[e].add(_rateIn[e]);
+        }
+        _firings[a].add(1);
+    }
+
+    /**
+     * Returns true if the actor can fire a given number of times.
+     * @param actor The actor
+     * @param times The number of times the actor should fire.
+     * @return True if the actor can fire that many times.
+     */
+    public boolean prefire(BPDFActor actor, Product times)
+    {
+        int a = actorIndex(actor);
+        if (times.isNumber())
+            return canFire(a, times.getNumber());
+        for (int e : _inEdges[a])
+        {
+            if (!_tokens[e].covers(rateOut(e).multiply(times).getProduct()))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns how many times in a row the actor can fire, up to a limit.
+     * Parametric rates or tokens on its input edges are only checked for
+     * one firing.
+     * @param actor The actor
+     * @param limit The most firings wanted
+     * @return The number of firings its input edges hold enough tokens for
+     */
+    public long getMaxFirings(BPDFActor actor, long limit)
+    {
+        int a = actorIndex(actor);
+        long n = limit;
+        boolean symbolic = false;
+        for (int e : _inEdges[a])
+        {
+            if ((_rateOut[e] < 0) || !_tokens[e].isNumber())
+                symbolic = true;
+            else if (_rateOut[e] > 0)
+                n = Math.min(n, _tokens[e].getCount() / _rateOut[e]);
+        }
+        if (symbolic && (n > 0))
+            n = canFire(a, 1) ? 1 : 0;
+        return n;
+    }
+
+    /**
+     * Fires the actor a given number of times.
+     * @param actor The actor
+     * @param times The number of times the actor should fire.
+     * @throws TokenCounter.Underflow if the actor cannot fire that many
+     * times, in which case the state is left as it was
+     */
+    public void fire(BPDFActor actor, Product times)
+    {
+        int a = actorIndex(actor);
+        if (!prefire(actor, times))
+            throw underflow(actor);
+
+        if (times.isNumber())
+        {
+            long n = times.getNumber();
+            for (int e : _inEdges[a])
+            {
+                if (_rateOut[e] < 0)
+                    _tokens[e].subtract(rateOut(e).multiply(times)
+                        .getProduct());
+                else
+                    _tokens[e].subtract(
+                        ExactArithmetic.multiply(_rateOut[e], n));
+            }
+            for (int e : _outEdges[a])
+            {
+                if (_rateIn[e] < 0)
+                    _tokens[e].add(rateIn(e).multiply(times).getProduct());
+                else
+                    _tokens[e].add(ExactArithmetic.multiply(_rateIn[e], n));
+            }
+            _firings[a].add(n);
+            return;
+        }
+
+        for (int e : _inEdges[a])
+            _tokens[e].subtract(rateOut(e).multiply(times).getProduct());
+        for (int e : _outEdges[a])
+            _tokens[e].add(rateIn(e).multiply(times).getProduct());
+        _firings[a].add(times);
+    }
+
+    /**
+     * Returns the number of times the actor fired in this run
+     * @param actor The actor
+     * @return The number of firings
+     */
+    public Product getFirings(BPDFActor actor)
+    {
+        return _firings[actorIndex(actor)].getProduct();
+    }
+
+/******************************************************************************
+ ** TIMING
+ ******************************************************************************/
+
+    /**
+     * Returns the remaining execution time of the actor.
+     * @param actor The actor
+     * @return The execution time
+     */
+    public int getTime(BPDFActor actor)
+    {
+        return _remainTime[actorIndex(actor)];
+    }
+
+    /**
+     * Advances the execution of the actor. When it completes the remaining
+     * time is reset to the execution time of the actor.
+     * @param actor The actor
+     * @param advance The amount of time units
+     * @return The remaining time, 0 if the execution completed
+     */
+    public int advanceTime(BPDFActor actor, int advance)
+    {
+        int a = actorIndex(actor);
+        _remainTime[a] = _remainTime[a] - advance;
+        if (_remainTime[a] == 0)
+        {
+            _remainTime[a] = actor.getTime();
+            return 0;
+        }
+        else
+            return _remainTime[a];
+    }
+
+/******************************************************************************
+ ** PARAMETERS
+ ******************************************************************************/
+
+    /**
+     * Set specific values to the Integer parameters of the run: evaluates
+     * the change periods of the modifiers and the repetition vector.
+     * @param map A map holding the pairs of integer parameters and values.
+     */
+    public void setIntValues(Map<String, Integer> map)
+    {
+        EvaluationCache cache = _graph.getEvaluationCache();
+        List<BPDFActor> actors = _graph.getActors();
+        for (int a = 0; a < actors.size(); a++)
+        {
+            BPDFActor actor = actors.get(a);
+            if (!actor.isModifier()) continue;
+            Map<String, Product> periods = new HashMap<String, Product>();
+            for (String param : actor.getBoolParam())
+                periods.put(param, cache.evaluate(
+                    getPeriod(actor, param), map));
+            _periods.set(a, periods);
+        }
+
+        if (_repVector != null)
+        {
+            for (Map.Entry<String, Expression> entry : _repVector.entrySet())
+            {
+                entry.setValue(cache.evaluate(entry.getValue(),map));
+            }
+        }
+    }
+
+    /**
+     * Returns the change period of a boolean parameter of a modifier
+     * @param actor The modifier
+     * @param param The name of the boolean parameter
+     * @return The change period
+     */
+    public Product getPeriod(BPDFActor actor, String param)
+    {
+        Map<String, Product> periods = _periods.get(actorIndex(actor));
+        if (periods == null)
+            return actor.getPeriod(param);
+        return periods.get(param);
+    }
+
+    /**
+     * Returns the list of the boolean parameters the actor can modify in
+     * the given firing. The change periods must have been evaluated to
+     * numbers by setIntValues.
+     * @param actor The modifier
+     * @param i The current firing of the actor
+     * @return The list of the parameters that can be modified
+     */
+    public List<String> canModify(BPDFActor actor, int i)
+    {
+        List<String> change = new ArrayList<String>();
+        for (String param : actor.getBoolParam())
+        {
+            int period = getPeriod(actor, param).getNumber();
+            if (i % period == 0) change.add(param);
+        }
+        return change;
+    }
+
+    /**
+     * Returns the reading period of a boolean parameter for a user, as set
+     * by this run or else by the period safety analysis of the graph.
+     * @param actor The user
+     * @param param The name of the boolean parameter
+     * @return The reading period, null if not set
+     */
+    public Product getReadingPeriod(BPDFActor actor, String param)
+    {
+        Map<String, Product> periods = _readingPeriods.get(actorIndex(actor));
+        if ((periods != null) && periods.containsKey(param))
+            return periods.get(param);
+        return _graph.getReadingPeriod(actor, param);
+    }
+
+    /**
+     * Sets the reading period of a boolean parameter for a user in this run
+     * @param actor The user
+     * @param param The name of the boolean parameter
+     * @param period The reading period
+     */
+    public void setReadingPeriod(BPDFActor actor, String param, Product period)
+    {
+        int a = actorIndex(actor);
+        Map<String, Product> periods = _readingPeriods.get(a);
+        if (periods == null)
+        {
+            periods = new HashMap<String, Product>();
+            _readingPeriods.set(a, periods);
+        }
+        periods.put(param, period);
+    }
+
+/******************************************************************************
+ ** GETTERS
+ ******************************************************************************/
+
+    /**
+     * Returns the graph of the run
+     * @return The graph
+     */
+    public BPDFGraph getGraph()
+    {
+        return _graph;
+    }
+
+    /**
+     * Returns the repetition vector of the run, evaluated by setIntValues
+     * @return The repetition vector, null if the graph is not consistent
+     */
+    public Map<String, Expression> getVector()
+    {
+        return _repVector;
+    }
+
+/******************************************************************************
+ ** PRIVATE METHODS
+ ******************************************************************************/
+
+    /**
+     * Returns true if the actor at the given position can fire n times
+     * @param a The position of the actor
+     * @param n The number of firings
+     * @return True if its input edges hold enough tokens
+     */
+    private boolean canFire(int a, long n)
+    {
+        for (int e : _inEdges[a])
+        {
+            if (_rateOut[e] < 0)
+            {
+                Product needed = rateOut(e);
+                if (n != 1)
+                    needed = needed.multiply(
+                        new Product(ExactArithmetic.toInt(n))).getProduct();
+                if (!_tokens[e].covers(needed))
+                    return false;
+            }
+            else if (!_tokens[e].covers(
+                ExactArithmetic.multiply(_rateOut[e], n)))
+                return false;
+        }
+        return true;
+    }
+
+    private Product rateIn(int e)
+    {
+        return _edges[e].getRateIn();
+    }
+
+    private Product rateOut(int e)
+    {
+        return _edges[e].getRateOut();
+    }
+
+    private static long numericRate(Product rate)
+    {
+        return rate.isNumber() ? rate.getNumber() : -1;
+    }
+
+    private int[] edgeIndices(List<BPDFEdge> edges)
+    {
+        int[] indices = new int[edges.size()];
+        for (int i = 0; i < indices.length; i++)
+            indices[i] = edgeIndex(edges.get(i));
+        return indices;
+    }
+
+    private static TokenCounter.Underflow underflow(BPDFActor actor)
+    {
+        return new TokenCounter.Underflow("Not enough tokens to fire "
+            + actor.getName());
+    }
+
+    private int actorIndex(BPDFActor actor)
+    {
+        int a = _graph.indexOf(actor);
+        if (a < 0)
+            throw new RuntimeException("Actor " + actor.getName()
+                + " is not in the graph");
+        return a;
+    }
+
+    private int edgeIndex(BPDFEdge edge)
+    {
+        int e = _graph.indexOf(edge);
+        if ((e < 0) || (e >= _tokens.length))
+            throw new RuntimeException("Edge " + edge.getName()
+                + " is not in the graph");
+        return e;
+    }
+}
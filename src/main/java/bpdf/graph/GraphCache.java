@@ -0,0 +1,262 @@
+// GraphCache.java
+
+package bpdf.graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of parsed graph files. Every file is parsed once into a template
+ * graph, keyed by its path and the hash of its content, so an edited file is
+ * parsed again. Every request returns a new graph copied from the template:
+ * the actors and edges are new objects that can be changed without touching
+ * the template, while the immutable rates and guards are shared. Runs that
+ * do not change the graph can share one copy (see ExecutionState). The
+ * number of hits / misses and the time spent parsing are kept for
+ * inspection. The cache can be used by several threads; two threads missing
+ * the same file at once may both parse it. A file changed while it is being
+ * parsed is parsed again, so a template always matches the hash it is kept
+ * with.
+ */
+public class GraphCache
+{
+/******************************************************************************
+ ** PRIVATE PARAMETERS
+ ******************************************************************************/
+
+    /**
+     * The parsed templates by canonical file path
+     */
+    private final Map<String, Template> _templates
+        = new ConcurrentHashMap<String, Template>();
+
+    /**
+     * Number of requests served from a template
+     */
+    private final AtomicLong _hits = new AtomicLong();
+
+    /**
+     * Number of requests that parsed the file
+     */
+    private final AtomicLong _misses = new AtomicLong();
+
+    /**
+     * Total time spent parsing, in nanoseconds
+     */
+    private final AtomicLong _parseTime = new AtomicLong();
+
+    /**
+     * Number of times a file is parsed before giving up if it keeps
+     * changing
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+/******************************************************************************
+ ** GRAPHS
+ ******************************************************************************/
+
+    /**
+     * Returns a new graph loaded from the given file
+     * @param path The path to the graph file
+     * @return The graph
+     */
+    public BPDFGraph getGraph(String path)
+    {
+        return getGraph(new File(path));
+    }
+
+    /**
+     * Returns a new graph loaded from the given file
+     * @param file The graph file
+     * @return The graph
+     */
+    public BPDFGraph getGraph(File file)
+    {
+        String key;
+        try
+        {
+            key = file.getCanonicalPath();
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException("Could not read " + file, e);
+        }
+        String hash = hash(read(file));
+
+        Template template = _templates.get(key);
+        if ((template != null) && template._hash.equals(hash))
+        {
+            _hits.incrementAndGet();
+        }
+        else
+        {
+            _misses.incrementAndGet();
+            template = parse(file, hash);
+            _templates.put(key, template);
+        }
+        return copy(template._graph);
+    }
+
+    /**
+     * Removes all templates and resets the statistics
+     */
+    public void clear()
+    {
+        _templates.clear();
+        _hits.set(0);
+        _misses.set(0);
+        _parseTime.set(0);
+    }
+
+/******************************************************************************
+ ** STATISTICS
+ ******************************************************************************/
+
+    /**
+     * Returns the number of requests served without parsing
+     * @return The number of hits
+     */
+    public long getHits()
+    {
+        return _hits.get();
+    }
+
+    /**
+     * Returns the number of requests that parsed the file
+     * @return The number of misses
+     */
+    public long getMisses()
+    {
+        return _misses.get();
+    }
+
+    /**
+     * Returns the fraction of requests served without parsing
+     * @return The hit rate, 0 if there were no requests
+     */
+    public double getHitRate()
+    {
+        long hits = _hits.get();
+        long total = hits + _misses.get();
+        return (total == 0) ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Returns the total time spent parsing
+     * @return The parse time in nanoseconds
+     */
+    public long getParseTime()
+    {
+        return _parseTime.get();
+    }
+
+/******************************************************************************
+ ** PRIVATE METHODS
+ ******************************************************************************/
+
+    /**
+     * Parses the file into a template. The file is read again after parsing
+     * and parsed once more if its content no longer has the given hash.
+     */
+    private Template parse(File file, String hash)
+    {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++)
+        {
+            long start = System.nanoTime();
+            BPDFGraph graph = new BPDFGraph(file);
+            _parseTime.addAndGet(System.nanoTime() - start);
+            String parsed = hash(read(file));
+            if (parsed.equals(hash))
+                return new Template(hash, graph);
+            hash = parsed;
+        }
+        throw new RuntimeException(file + " kept changing while parsed");
+    }
+
+    /**
+     * Returns the content of the file
+     */
+    private static byte[] read(File file)
+    {
+        try
+        {
+            return Files.readAllBytes(file.toPath());
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException("Could not read " + file, e);
+        }
+    }
+
+    /**
+     * Returns a graph with copies of the actors and edges of the template
+     */
+    private static BPDFGraph copy(BPDFGraph template)
+    {
+        BPDFGraph graph = new BPDFGraph();
+        Map<BPDFActor, BPDFActor> actors
+            = new IdentityHashMap<BPDFActor, BPDFActor>();
+        for (BPDFActor actor : template.getActors())
+        {
+            BPDFActor tmp = actor.copy();
+            actors.put(actor, tmp);
+            graph.addActor(tmp);
+        }
+        for (BPDFEdge edge : template.getEdges())
+        {
+            BPDFEdge tmp = edge.copy(actors.get(edge.getProducer()),
+                actors.get(edge.getConsumer()));
+            graph.connect(tmp);
+        }
+        return graph;
+    }
+
+    /**
+     * Returns the SHA-256 hash of the content as a hex string
+     */
+    private static String hash(byte[] content)
+    {
+        byte[] digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256").digest(content);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new RuntimeException("SHA-256 not available", e);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest)
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    /**
+     * A parsed graph along with the hash of the file it was parsed from.
+     * The graph is only read after construction.
+     */
+    private static final class Template
+    {
+        private final String _hash;
+        private final BPDFGraph _graph;
+
+        Template(String hash, BPDFGraph graph)
+        {
+            _hash = hash;
+            _graph = graph;
+            // Parse and compile the guards once, the copies share them
+            for (BPDFEdge edge : graph.getEdges())
+            {
+                edge.getGuardParams();
+                edge.getCompiledGuard();
+            }
+        }
+    }
+}
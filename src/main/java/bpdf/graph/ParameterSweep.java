@@ -0,0 +1,432 @@
+// ParameterSweep.java
+
+package bpdf.graph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a set of scheduler variants over the cartesian product of ranges of
+ * integer parameters. Every parameter point is run for a number of
+ * iterations, each one with newly generated boolean values that are shared
+ * by all the variants of the iteration. The graph is loaded (through a
+ * GraphCache, so the file is parsed once), verified once, frozen and shared
+ * by all the runs; every run builds its own scheduler, whose state is kept in
+ * an ExecutionState, so the runs are independent and are spread over a
+ * ForkJoinPool. Per point, the sweep reports average times of variants and
+ * average ratios between variants.
+ */
+public class ParameterSweep
+{
+/******************************************************************************
+ ** INTERFACES
+ ******************************************************************************/
+
+    /**
+     * A way of scheduling a graph, e.g. slotted with user constraints.
+     */
+    public interface Variant
+    {
+        /**
+         * Schedules one iteration of the graph.
+         * @param graph The loaded and verified graph, frozen and shared by
+         * all the runs
+         * @param intMap The values of the integer parameters
+         * @param boolMap The values of the boolean parameters
+         * @return The total time of the schedule
+         */
+        int run(BPDFGraph graph, Map<String, Integer> intMap,
+            Map<String, String> boolMap);
+    }
+
+    /**
+     * Generates the values of the boolean parameters of an iteration.
+     */
+    public interface BooleanGenerator
+    {
+        /**
+         * @param intMap The values of the integer parameters
+         * @param rand The random generator of the iteration
+         * @return The values of the boolean parameters (see Scheduler)
+         */
+        Map<String, String> generate(Map<String, Integer> intMap,
+            Random rand);
+    }
+
+/******************************************************************************
+ ** PRIVATE PARAMETERS
+ ******************************************************************************/
+
+    /**
+     * Path of the graph file
+     */
+    private String _path;
+
+    /**
+     * Cache of the parsed graph file
+     */
+    private GraphCache _cache = new GraphCache();
+
+    /**
+     * Number of iterations per parameter point
+     */
+    private int _iterations = 1;
+
+    /**
+     * Seed of the random generators of the iterations
+     */
+    private long _seed = new Random().nextLong();
+
+    /**
+     * Number of runs executed in parallel
+     */
+    private int _parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Values of each integer parameter
+     */
+    private Map<String, List<Integer>> _ranges
+        = new LinkedHashMap<String, List<Integer>>();
+
+    /**
+     * The scheduler variants by name
+     */
+    private Map<String, Variant> _variants
+        = new LinkedHashMap<String, Variant>();
+
+    /**
+     * Generator of the boolean values, no boolean parameters by default
+     */
+    private BooleanGenerator _generator = new BooleanGenerator()
+    {
+        public Map<String, String> generate(Map<String, Integer> intMap,
+            Random rand)
+        {
+            return new HashMap<String, String>();
+        }
+    };
+
+    /**
+     * The reported statistics: label, variant and (for ratios) divisor
+     */
+    private List<String[]> _stats = new ArrayList<String[]>();
+
+/******************************************************************************
+ ** CONSTRUCTORS
+ ******************************************************************************/
+
+    /**
+     * Constructor with the graph file
+     * @param path The path of the graph file
+     */
+    public ParameterSweep(String path)
+    {
+        _path = path;
+    }
+
+/******************************************************************************
+ ** SETUP
+ ******************************************************************************/
+
+    /**
+     * Sets the number of iterations per parameter point
+     * @param iterations The number of iterations
+     */
+    public void setIterations(int iterations)
+    {
+        _iterations = iterations;
+    }
+
+    /**
+     * Sets the seed of the random generators, for repeatable sweeps
+     * @param seed The seed
+     */
+    public void setSeed(long seed)
+    {
+        _seed = seed;
+    }
+
+    /**
+     * Sets the number of runs executed in parallel
+     * @param parallelism The number of runs (defaults to the cores)
+     */
+    public void setParallelism(int parallelism)
+    {
+        _parallelism = parallelism;
+    }
+
+    /**
+     * Returns the cache the graphs of the runs are loaded from
+     * @return The graph cache
+     */
+    public GraphCache getCache()
+    {
+        return _cache;
+    }
+
+    /**
+     * Adds the values from min to max (inclusive) to an integer parameter
+     * @param param The integer parameter
+     * @param min The first value
+     * @param max The last value
+     * @param step The step between values
+     */
+    public void addRange(String param, int min, int max, int step)
+    {
+        if (step <= 0) throw new RuntimeException("Invalid step: " + step);
+        List<Integer> values = _ranges.get(param);
+        if (values == null)
+        {
+            values = new ArrayList<Integer>();
+            _ranges.put(param, values);
+        }
+        for (int v = min; v <= max; v += step)
+            values.add(v);
+    }
+
+    /**
+     * Sets the generator of the boolean values
+     * @param generator The generator
+     */
+    public void setBooleanGenerator(BooleanGenerator generator)
+    {
+        _generator = generator;
+    }
+
+    /**
+     * Adds a scheduler variant
+     * @param name The name of the variant
+     * @param variant The variant
+     */
+    public void addVariant(String name, Variant variant)
+    {
+        _variants.put(name, variant);
+    }
+
+    /**
+     * Reports the average time of a variant
+     * @param label The label of the statistic
+     * @param variant The name of the variant
+     */
+    public void addAverage(String label, String variant)
+    {
+        checkVariant(variant);
+        _stats.add(new String[] {label, variant, null});
+    }
+
+    /**
+     * Reports the average ratio of the times of two variants
+     * @param label The label of the statistic
+     * @param variant The name of the dividend variant
+     * @param divisor The name of the divisor variant
+     */
+    public void addRatio(String label, String variant, String divisor)
+    {
+        checkVariant(variant);
+        checkVariant(divisor);
+        _stats.add(new String[] {label, variant, divisor});
+    }
+
+/******************************************************************************
+ ** EXECUTION
+ ******************************************************************************/
+
+    /**
+     * Runs all the variants on all the parameter points
+     * @return The statistics of each parameter point
+     */
+    public List<Result> run()
+    {
+        final BPDFGraph graph = _cache.getGraph(_path);
+        if (!graph.verifyGraph())
+            throw new RuntimeException("Graph could not be verified");
+        // Shared by the runs of all the threads
+        graph.freeze();
+
+        List<Map<String, Integer>> points = getPoints();
+        List<Callable<int[]>> tasks = new ArrayList<Callable<int[]>>();
+        for (int p = 0; p < points.size(); p++)
+        {
+            for (int i = 0; i < _iterations; i++)
+            {
+                final Map<String, Integer> point = points.get(p);
+                final long seed = _seed + 31L * (p * (long) _iterations + i);
+                tasks.add(new Callable<int[]>()
+                {
+                    public int[] call()
+                    {
+                        return runOnce(graph, point, new Random(seed));
+                    }
+                });
+            }
+        }
+
+        List<int[]> times = new ArrayList<int[]>();
+        ForkJoinPool pool = new ForkJoinPool(_parallelism);
+        try
+        {
+            for (Future<int[]> future : pool.invokeAll(tasks))
+                times.add(future.get());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Sweep interrupted", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException("Sweep failed: " + e.getCause(),
+                e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        List<Result> results = new ArrayList<Result>();
+        for (int p = 0; p < points.size(); p++)
+        {
+            results.add(new Result(points.get(p), times.subList(
+                p * _iterations, (p + 1) * _iterations)));
+        }
+        return results;
+    }
+
+    /**
+     * Runs all the variants once, with the same boolean values
+     */
+    private int[] runOnce(BPDFGraph graph, Map<String, Integer> point,
+        Random rand)
+    {
+        Map<String, String> boolMap = _generator.generate(point, rand);
+        int[] times = new int[_variants.size()];
+        int v = 0;
+        for (Variant variant : _variants.values())
+        {
+            times[v++] = variant.run(graph,
+                new HashMap<String, Integer>(point),
+                new HashMap<String, String>(boolMap));
+        }
+        return times;
+    }
+
+    /**
+     * Returns the cartesian product of the parameter ranges
+     */
+    private List<Map<String, Integer>> getPoints()
+    {
+        List<Map<String, Integer>> points
+            = new ArrayList<Map<String, Integer>>();
+        points.add(new LinkedHashMap<String, Integer>());
+        for (Map.Entry<String, List<Integer>> range : _ranges.entrySet())
+        {
+            List<Map<String, Integer>> next
+                = new ArrayList<Map<String, Integer>>();
+            for (Map<String, Integer> point : points)
+            {
+                for (int value : range.getValue())
+                {
+                    Map<String, Integer> tmp
+                        = new LinkedHashMap<String, Integer>(point);
+                    tmp.put(range.getKey(), value);
+                    next.add(tmp);
+                }
+            }
+            points = next;
+        }
+        return points;
+    }
+
+    private void checkVariant(String name)
+    {
+        if (!_variants.containsKey(name))
+            throw new RuntimeException("Unknown variant " + name);
+    }
+
+    /**
+     * Returns the position of a variant in the times of a run
+     */
+    private int indexOf(String name)
+    {
+        return new ArrayList<String>(_variants.keySet()).indexOf(name);
+    }
+
+/******************************************************************************
+ ** RESULTS
+ ******************************************************************************/
+
+    /**
+     * The statistics of a parameter point
+     */
+    public class Result
+    {
+        private Map<String, Integer> _point;
+        private List<String> _labels = new ArrayList<String>();
+        private List<Double> _values = new ArrayList<Double>();
+
+        private Result(Map<String, Integer> point, List<int[]> times)
+        {
+            _point = point;
+            for (String[] stat : _stats)
+            {
+                int v = indexOf(stat[1]);
+                int d = (stat[2] == null) ? -1 : indexOf(stat[2]);
+                double sum = 0;
+                for (int[] run : times)
+                {
+                    if (d < 0)
+                        sum += run[v];
+                    else
+                        sum += (double) run[v] / run[d];
+                }
+                _labels.add(stat[0]);
+                _values.add(sum / times.size());
+            }
+        }
+
+        /**
+         * Returns the values of the integer parameters of the point
+         * @return The parameter values
+         */
+        public Map<String, Integer> getPoint()
+        {
+            return _point;
+        }
+
+        /**
+         * Returns the value of a statistic
+         * @param label The label of the statistic
+         * @return The average time or ratio
+         */
+        public double getValue(String label)
+        {
+            int idx = _labels.indexOf(label);
+            if (idx < 0)
+                throw new RuntimeException("Unknown statistic " + label);
+            return _values.get(idx);
+        }
+
+        /**
+         * Returns the statistics as text, one "Avg. label value" per line
+         * @return The statistics as a string
+         */
+        public String getString()
+        {
+            StringBuilder sb = new StringBuilder("\n");
+            for (int i = 0; i < _labels.size(); i++)
+            {
+                sb.append("Avg. ").append(_labels.get(i))
+                    .append(_values.get(i)).append("\n");
+            }
+            return sb.toString();
+        }
+    }
+}
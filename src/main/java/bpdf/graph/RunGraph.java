@@ -16,123 +16,136 @@ import java.io.FileWriter;
 import java.io.BufferedWriter;
 import java.io.IOException;
 
+/**
+ * The vc1 experiments: compares the slotted scheduler (plain, with the
+ * MC / LOOP user constraints and with the LOOP buffer constraint) against
+ * the non-slotted scheduler. Runs on a ParameterSweep over ranges of p and
+ * q and writes the average times and ratios to path_iter_p_q.txt.
+ */
 public class RunGraph
 {
     // # of iterations
     private int _iter;
     // Integer parameters
-    private int _p;
-    private int _q;
-    Map<String, Integer> setup = new HashMap<String, Integer>();
-    // Boolean parameters
-    private List<Boolean> boolA = new ArrayList<Boolean>();
-    private List<Boolean> boolB = new ArrayList<Boolean>();
-
-    private Random rand = new Random();
-
+    private int _pMin;
+    private int _pMax;
+    private int _qMin;
+    private int _qMax;
 
     public RunGraph(int iter, int p, int q)
+    {
+        this(iter, p, p, q, q);
+    }
+
+    public RunGraph(int iter, int pMin, int pMax, int qMin, int qMax)
     {
         _iter = iter;
-        _p = p;
-        _q = q;
-        setup.put("p",_p);
-        setup.put("q",_q);
+        _pMin = pMin;
+        _pMax = pMax;
+        _qMin = qMin;
+        _qMax = qMax;
     }
 
-    /*public void runAll(String path)
+    public void runAll(String path)
     {
-        String fullpath = "src/" + path + ".groovy";
-        populateBoolean();
-        double sumSVAN = 0;
-        double sumNSVAN = 0;
-        double sumSOPT = 0;
-        double sumBUFF = 0;
-
-        double sum1 = 0;
-        double sum2 = 0;
-        double sum3 = 0;
-        double sum4 = 0;
-
-        for (int i = 0; i < _iter; i++)
+        String fullpath = "src/" + path + ".bpdf";
+        ParameterSweep sweep = new ParameterSweep(fullpath);
+        sweep.setIterations(_iter);
+        sweep.addRange("p", _pMin, _pMax, 1);
+        sweep.addRange("q", _qMin, _qMax, 1);
+        sweep.setBooleanGenerator(new ParameterSweep.BooleanGenerator()
         {
-            double sVan = runSlottedVanilla(new BPDFGraph(fullpath));
-            double nsVan = runNonSlottedVanilla(new BPDFGraph(fullpath));
-            double sOpt = runSlottedOptimized(new BPDFGraph(fullpath));
-            double sBuff = runSlottedBuffer(new BPDFGraph(fullpath));
-
-            double ratio1 = sVan / nsVan;
-            double ratio2 = sOpt / nsVan;
-            double ratio3 = sVan / sOpt;
-            double ratio4 = sVan / sBuff;
-            sum1 += ratio1;
-            sum2 += ratio2;
-            sum3 += ratio3;
-            sum4 += ratio4;
-            sumSVAN += sVan;
-            sumNSVAN += nsVan;
-            sumSOPT += sOpt;
-            sumBUFF += sBuff;
-        }
+            public Map<String, String> generate(Map<String, Integer> intMap,
+                Random rand)
+            {
+                return populateBoolean(intMap.get("p"), rand);
+            }
+        });
 
-        double avg1 = sum1 / _iter;
-        double avg2 = sum2 / _iter;
-        double avg3 = sum3 / _iter;
-        double avg4 = sum4 / _iter;
-        double avgSVAN = sumSVAN / _iter;
-        double avgNSVAN = sumNSVAN / _iter;
-        double avgSOPT = sumSOPT / _iter;
-        double avgBUFF = sumBUFF / _iter;
-
-        String filename = path + "_" 
-            + _iter + "_"
-            + _p + "_" 
-            + _q + ".txt";
-
-        String results = "\n" + 
-        "Avg. Van Sl / Non-Sl: \t"  + avg1 + "\n" +
-        "Avg. Opt Sl / Non-Sl: \t"  + avg2 + "\n" +
-        "Avg. Van / Opt:    \t\t"   + avg3 + "\n" +
-        "Avg. Van / L.Buff: \t\t"   + avg4 + "\n" +
-        "Avg. Van Sl:       \t\t\t" + avgSVAN + "\n" +
-        "Avg. Non-Sl:       \t\t\t" + avgNSVAN + "\n" +
-        "Avg. Opt Sl:       \t\t\t" + avgSOPT + "\n" +
-        "Avg. LBuff:        \t\t\t" + avgBUFF + "\n";
-
-
-        try
+        sweep.addVariant("SVAN", new ParameterSweep.Variant()
         {
-            File file = new File(filename);
- 
-            //if file doesnt exists, then create it
-            if(!file.exists())
+            public int run(BPDFGraph graph, Map<String, Integer> intMap,
+                Map<String, String> boolMap)
             {
-                file.createNewFile();
+                return runSlotted(graph, intMap, boolMap, null);
             }
- 
-            //true = append file
-            FileWriter fileWritter = new FileWriter(file.getName(),true);
-            BufferedWriter bufferWritter = new BufferedWriter(fileWritter);
-            bufferWritter.write(results);
-            bufferWritter.close();
-        }
-        catch(IOException e)
+        });
+        sweep.addVariant("NSVAN", new ParameterSweep.Variant()
         {
-            e.printStackTrace();
-        }
+            public int run(BPDFGraph graph, Map<String, Integer> intMap,
+                Map<String, String> boolMap)
+            {
+                Scheduler sched 
+                    = new NonSlottedScheduler(graph, intMap, boolMap);
+                sched._verbose = false;
+                return sched.getSchedule();
+            }
+        });
+        sweep.addVariant("SOPT", new ParameterSweep.Variant()
+        {
+            public int run(BPDFGraph graph, Map<String, Integer> intMap,
+                Map<String, String> boolMap)
+            {
+                return runSlotted(graph, intMap, boolMap,
+                    getMCLOOPConstraints(getActorMap(graph)));
+            }
+        });
+        sweep.addVariant("SBUFF", new ParameterSweep.Variant()
+        {
+            public int run(BPDFGraph graph, Map<String, Integer> intMap,
+                Map<String, String> boolMap)
+            {
+                return runSlotted(graph, intMap, boolMap,
+                    getBufferConstraints(getActorMap(graph)));
+            }
+        });
+
+        sweep.addRatio("Van Sl / Non-Sl: \t", "SVAN", "NSVAN");
+        sweep.addRatio("Opt Sl / Non-Sl: \t", "SOPT", "NSVAN");
+        sweep.addRatio("Van / Opt:    \t\t", "SVAN", "SOPT");
+        sweep.addRatio("Van / L.Buff: \t\t", "SVAN", "SBUFF");
+        sweep.addAverage("Van Sl:       \t\t\t", "SVAN");
+        sweep.addAverage("Non-Sl:       \t\t\t", "NSVAN");
+        sweep.addAverage("Opt Sl:       \t\t\t", "SOPT");
+        sweep.addAverage("LBuff:        \t\t\t", "SBUFF");
+
+        for (ParameterSweep.Result result : sweep.run())
+        {
+            String filename = path + "_" 
+                + _iter + "_"
+                + result.getPoint().get("p") + "_" 
+                + result.getPoint().get("q") + ".txt";
+            String results = result.getString();
 
-        System.out.println(results);
-    }*/
+            try
+            {
+                //true = append file
+                FileWriter fileWritter = new FileWriter(filename,true);
+                BufferedWriter bufferWritter = new BufferedWriter(fileWritter);
+                bufferWritter.write(results);
+                bufferWritter.close();
+            }
+            catch(IOException e)
+            {
+                e.printStackTrace();
+            }
+
+            System.out.println(results);
+        }
+    }
 
-    private void populateBoolean()
+    /**
+     * Generates p values for the boolean parameters a and b, never both
+     * false.
+     */
+    private static Map<String, String> populateBoolean(int p, Random rand)
     {
         boolean value1;
         boolean value2;
-        
-        boolA.clear();
-        boolB.clear();
+        StringBuilder boolA = new StringBuilder();
+        StringBuilder boolB = new StringBuilder();
 
-        for (int i = 0; i < _p; i++)
+        for (int i = 0; i < p; i++)
         {
             value1 = rand.nextBoolean();
             value2 = rand.nextBoolean();
@@ -141,48 +154,40 @@ public class RunGraph
                 value1 = rand.nextBoolean();
                 value2 = rand.nextBoolean();
             }
-            boolA.add(value1);
-            boolB.add(value2);
+            boolA.append(value1 ? '1' : '0');
+            boolB.append(value2 ? '1' : '0');
         }
-    }
-/*
-    public int runSlottedVanilla(BPDFGraph graph)
-    {
-        Scheduler sched = new ConstraintScheduler(boolA,boolB);
-        if (!graph.verifyGraph())
-            throw new RuntimeException("Graph could not be verified");
-        return graph.execute(setup,sched);
-    }
 
-    public int runSlottedOptimized(BPDFGraph graph)
-    {
-        Scheduler sched = new ConstraintScheduler(boolA,boolB);
-        if (!graph.verifyGraph())
-            throw new RuntimeException("Graph could not be verified");
-        Map<String, BPDFActor> actorMap = graph.getActorMap();
-        graph.addConstraints(getMCLOOPConstraints(actorMap));
-        return graph.execute(setup,sched);
+        Map<String, String> boolMap = new HashMap<String, String>();
+        boolMap.put("a", boolA.toString());
+        boolMap.put("b", boolB.toString());
+        return boolMap;
     }
 
-    public int runSlottedBuffer(BPDFGraph graph)
+    private static int runSlotted(BPDFGraph graph, 
+        Map<String, Integer> intMap, Map<String, String> boolMap,
+        List<BPDFConstraint> userConstraints)
     {
-        Scheduler sched = new ConstraintScheduler(boolA,boolB);
-        if (!graph.verifyGraph())
-            throw new RuntimeException("Graph could not be verified");
-        Map<String, BPDFActor> actorMap = graph.getActorMap();
-        graph.addConstraints(getBufferConstraints(actorMap));
-        return graph.execute(setup,sched);
+        Scheduler sched = new SlottedScheduler(graph, intMap, boolMap);
+        sched._verbose = false;
+        if (userConstraints != null)
+        {
+            sched.addConstraints(userConstraints);
+            // Bind the integer parameters of the new constraints
+            sched.setIntValues(intMap);
+        }
+        return sched.getSchedule();
     }
 
-    public int runNonSlottedVanilla(BPDFGraph graph)
+    private static Map<String, BPDFActor> getActorMap(BPDFGraph graph)
     {
-        Scheduler sched = new NonSlottedScheduler(boolA,boolB);
-        if (!graph.verifyGraph())
-            throw new RuntimeException("Graph could not be verified");
-        return graph.execute(setup,sched);
-    }*/
+        Map<String, BPDFActor> actorMap = new HashMap<String, BPDFActor>();
+        for (Object actor : graph.getActors())
+            actorMap.put(((BPDFActor) actor).getName(), (BPDFActor) actor);
+        return actorMap;
+    }
 
-    private List<BPDFConstraint> getMCLOOPConstraints(
+    private static List<BPDFConstraint> getMCLOOPConstraints(
             Map<String, BPDFActor> actorMap)
     {
         List<BPDFConstraint> cons = new ArrayList<BPDFConstraint>();
@@ -216,7 +221,7 @@ public class RunGraph
         return cons;        
     }
 
-    private List<BPDFConstraint> getBufferConstraints(
+    private static List<BPDFConstraint> getBufferConstraints(
             Map<String, BPDFActor> actorMap)
     {
         List<BPDFConstraint> cons = new ArrayList<BPDFConstraint>();
@@ -0,0 +1,441 @@
+// SimpleDslParser.java
+
+package bpdf.graph;
+
+import bpdf.symbol.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parser of graph files written in the plain subset of the DSL: calls of
+ * actor, connect, setTokens, setGuard, setModifier and timing with string
+ * and integer literals, separated by new lines or semicolons, along with
+ * comments. The file is read in a single pass without Groovy. Files using
+ * anything else (other commands, variables, closures, ...) or referring to
+ * an unknown actor or edge are handed to DslParser instead, so the
+ * resulting graph and the reported errors are the same as with the Groovy
+ * script. Other errors, such as an invalid rate, are thrown as they are.
+ */
+public class SimpleDslParser implements Parser
+{
+/******************************************************************************
+ ** PRIVATE PARAMETERS
+ ******************************************************************************/
+
+    /**
+     * The parsed actors by name, in order of declaration
+     */
+    private Map<String, BPDFActor> _actorMap
+        = new LinkedHashMap<String, BPDFActor>();
+
+    /**
+     * The parsed edges, in order of declaration
+     */
+    private List<BPDFEdge> _edgeList = new ArrayList<BPDFEdge>();
+
+    /**
+     * True if the last file was parsed by DslParser
+     */
+    private boolean _fallback = false;
+
+    /**
+     * The file being read and the current character (-1 at the end)
+     */
+    private Reader _in;
+    private int _ch;
+
+/******************************************************************************
+ ** CONSTRUCTORS
+ ******************************************************************************/
+
+    /**
+     * Empty constructor
+     */
+    public SimpleDslParser(){}
+
+    /**
+     * Constructor parsing the given file
+     * @param file The graph file
+     */
+    public SimpleDslParser(File file)
+    {
+        parse(file);
+    }
+
+/******************************************************************************
+ ** PARSING
+ ******************************************************************************/
+
+    /**
+     * Parses the given file, using DslParser if the file is not in the
+     * plain subset of the DSL
+     * @param file The graph file
+     */
+    @SuppressWarnings("unchecked")
+    public void parse(File file)
+    {
+        _actorMap = new LinkedHashMap<String, BPDFActor>();
+        _edgeList = new ArrayList<BPDFEdge>();
+        _fallback = false;
+        try
+        {
+            _in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+            try
+            {
+                parseFile();
+                return;
+            }
+            finally
+            {
+                _in.close();
+                _in = null;
+            }
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException("Could not read " + file, e);
+        }
+        catch (Unsupported e)
+        {
+            // Left to the Groovy script
+        }
+
+        DslParser p = new DslParser(file);
+        _actorMap = new LinkedHashMap<String, BPDFActor>(p.getActorMap());
+        _edgeList = new ArrayList<BPDFEdge>(p.getEdges());
+        _fallback = true;
+    }
+
+    /**
+     * Returns the graph of the given file
+     * @param path The path to the graph file
+     * @return The graph
+     */
+    public BPDFGraph getGraph(String path)
+    {
+        parse(new File(path));
+        BPDFGraph graph = new BPDFGraph();
+        graph.addActors(getActors());
+        graph.addEdges(getEdges());
+        return graph;
+    }
+
+/******************************************************************************
+ ** GETTERS
+ ******************************************************************************/
+
+    /**
+     * Returns the actors of the last parsed file
+     * @return The list of actors
+     */
+    public List<BPDFActor> getActors()
+    {
+        return new ArrayList<BPDFActor>(_actorMap.values());
+    }
+
+    /**
+     * Returns the edges of the last parsed file
+     * @return The list of edges
+     */
+    public List<BPDFEdge> getEdges()
+    {
+        return _edgeList;
+    }
+
+    /**
+     * Returns the actors of the last parsed file by name
+     * @return The actor map
+     */
+    public Map<String, BPDFActor> getActorMap()
+    {
+        return _actorMap;
+    }
+
+    /**
+     * Returns true if the last file was not in the plain subset of the DSL
+     * and was parsed by DslParser
+     * @return True if DslParser was used
+     */
+    public boolean usedDslParser()
+    {
+        return _fallback;
+    }
+
+/******************************************************************************
+ ** GRAMMAR
+ ******************************************************************************/
+
+    /**
+     * file := { separator | call terminator }
+     */
+    private void parseFile() throws IOException
+    {
+        _ch = _in.read();
+        while (true)
+        {
+            skipBlank(true);
+            if (_ch == -1) return;
+            if (_ch == ';')
+            {
+                _ch = _in.read();
+                continue;
+            }
+            parseCall();
+
+            // A call ends at a new line, a semicolon or the end of the file
+            skipBlank(false);
+            if ((_ch != '\n') && (_ch != ';') && (_ch != -1))
+                throw new Unsupported();
+        }
+    }
+
+    /**
+     * call := name '(' [ literal { ',' literal } ] ')'
+     */
+    private void parseCall() throws IOException
+    {
+        String name = readName();
+        skipBlank(false);
+        if (_ch != '(') throw new Unsupported();
+        _ch = _in.read();
+
+        List<Object> args = new ArrayList<Object>();
+        skipBlank(true);
+        if (_ch != ')')
+        {
+            while (true)
+            {
+                skipBlank(true);
+                args.add(readLiteral());
+                skipBlank(true);
+                if (_ch == ')') break;
+                if (_ch != ',') throw new Unsupported();
+                _ch = _in.read();
+            }
+        }
+        _ch = _in.read();
+        apply(name, args);
+    }
+
+    /**
+     * Reads an identifier
+     */
+    private String readName() throws IOException
+    {
+        if ((_ch == -1) || !Character.isJavaIdentifierStart(_ch))
+            throw new Unsupported();
+        StringBuilder sb = new StringBuilder();
+        while ((_ch != -1) && Character.isJavaIdentifierPart(_ch))
+        {
+            sb.append((char) _ch);
+            _ch = _in.read();
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reads a string literal without escapes or interpolation, or a decimal
+     * int literal. Returns a String or an Integer.
+     */
+    private Object readLiteral() throws IOException
+    {
+        if ((_ch == '"') || (_ch == '\''))
+        {
+            int quote = _ch;
+            StringBuilder sb = new StringBuilder();
+            _ch = _in.read();
+            while (_ch != quote)
+            {
+                if ((_ch == -1) || (_ch == '\\') || (_ch == '$')
+                    || (_ch == '\n') || (_ch == '\r'))
+                    throw new Unsupported();
+                sb.append((char) _ch);
+                _ch = _in.read();
+            }
+            _ch = _in.read();
+            // Empty string followed by a quote is a triple quoted string
+            if ((sb.length() == 0) && (_ch == quote))
+                throw new Unsupported();
+            return sb.toString();
+        }
+
+        StringBuilder sb = new StringBuilder();
+        if (_ch == '-')
+        {
+            sb.append('-');
+            _ch = _in.read();
+        }
+        while ((_ch >= '0') && (_ch <= '9'))
+        {
+            sb.append((char) _ch);
+            _ch = _in.read();
+        }
+        String digits = sb.toString();
+        // No octal, long, floating point or other literals
+        if (digits.isEmpty() || digits.equals("-")
+            || digits.matches("-?0\\d+")
+            || ((_ch != -1) && (Character.isJavaIdentifierPart(_ch)
+                || (_ch == '.'))))
+            throw new Unsupported();
+        try
+        {
+            return Integer.valueOf(digits);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new Unsupported();
+        }
+    }
+
+    /**
+     * Skips white space and comments. New lines are skipped only if
+     * newLines is set; a line comment then stops at its new line.
+     */
+    private void skipBlank(boolean newLines) throws IOException
+    {
+        while (true)
+        {
+            if ((_ch == ' ') || (_ch == '\t') || (_ch == '\r')
+                || (newLines && (_ch == '\n')))
+            {
+                _ch = _in.read();
+            }
+            else if (_ch == '/')
+            {
+                _ch = _in.read();
+                if (_ch == '/')
+                {
+                    while ((_ch != '\n') && (_ch != -1))
+                        _ch = _in.read();
+                }
+                else if (_ch == '*')
+                {
+                    int prev = 0;
+                    _ch = _in.read();
+                    while (!((prev == '*') && (_ch == '/')))
+                    {
+                        if (_ch == -1) throw new Unsupported();
+                        prev = _ch;
+                        _ch = _in.read();
+                    }
+                    _ch = _in.read();
+                }
+                else
+                    throw new Unsupported();
+            }
+            else
+                return;
+        }
+    }
+
+/******************************************************************************
+ ** COMMANDS
+ ******************************************************************************/
+
+    /**
+     * Applies a command of the DSL, as in DslParser
+     */
+    private void apply(String name, List<Object> args)
+    {
+        if (name.equals("actor") && (args.size() == 1))
+        {
+            String actor = string(args.get(0));
+            _actorMap.put(actor, new BPDFActor(actor));
+        }
+        else if (name.equals("connect") && (args.size() == 4))
+        {
+            BPDFActor producer = actor(string(args.get(0)));
+            BPDFActor consumer = actor(string(args.get(2)));
+            BPDFEdge edge = new BPDFEdge(
+                producer, args.get(1).toString(),
+                consumer, args.get(3).toString());
+            BPDFGraph.connectActors(edge);
+            _edgeList.add(edge);
+        }
+        else if (name.equals("setTokens") && (args.size() == 3))
+        {
+            BPDFEdge edge = findEdge(string(args.get(0)),
+                string(args.get(1)));
+            Object tokens = args.get(2);
+            if (tokens instanceof Integer)
+                edge.setTokens((Integer) tokens);
+            else
+                edge.setTokens((String) tokens);
+        }
+        else if (name.equals("setGuard") && (args.size() == 3))
+        {
+            BPDFEdge edge = findEdge(string(args.get(0)),
+                string(args.get(1)));
+            edge.setGuard(string(args.get(2)));
+        }
+        else if (name.equals("setModifier") && (args.size() == 3))
+        {
+            BPDFActor actor = actor(string(args.get(0)));
+            Object period = args.get(2);
+            if (period instanceof Integer)
+                actor.setModifier(string(args.get(1)),
+                    new Product((Integer) period));
+            else
+                actor.setModifier(string(args.get(1)),
+                    new Product((String) period));
+        }
+        else if (name.equals("timing") && (args.size() == 2))
+        {
+            if (!(args.get(1) instanceof Integer)) throw new Unsupported();
+            actor(string(args.get(0))).setTime((Integer) args.get(1));
+        }
+        else
+            throw new Unsupported();
+    }
+
+    /**
+     * Returns the argument if it is a string
+     */
+    private static String string(Object arg)
+    {
+        if (!(arg instanceof String)) throw new Unsupported();
+        return (String) arg;
+    }
+
+    /**
+     * Returns the actor with the given name
+     */
+    private BPDFActor actor(String name)
+    {
+        BPDFActor actor = _actorMap.get(name);
+        if (actor == null) throw new Unsupported();
+        return actor;
+    }
+
+    /**
+     * Returns the first edge from actorA to actorB
+     */
+    private BPDFEdge findEdge(String actorA, String actorB)
+    {
+        for (BPDFEdge edge : _edgeList)
+        {
+            if (edge.getProducer().getName().equals(actorA)
+                && edge.getConsumer().getName().equals(actorB))
+                return edge;
+        }
+        throw new Unsupported();
+    }
+
+    /**
+     * Thrown when the file is not in the plain subset of the DSL
+     */
+    private static class Unsupported extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,298 @@
+// TokenCounter.java
+
+package bpdf.graph;
+
+import bpdf.symbol.*;
+
+/**
+ * A mutable amount of tokens (or firings). The amount is kept as a long
+ * while it is a number and as an expression only once a parametric amount
+ * is added, so the firings of a run with numeric rates do not allocate.
+ * Parametric amounts add up to a polynomial when they are not alike (such
+ * as p + 2). Removing more tokens than known to be stored throws an
+ * Underflow and leaves the amount as it was.
+ */
+public final class TokenCounter
+{
+/******************************************************************************
+ ** PRIVATE PARAMETERS
+ ******************************************************************************/
+
+    /**
+     * The amount, when numeric
+     */
+    private long _count;
+
+    /**
+     * The amount, when parametric (null when numeric)
+     */
+    private Expression _symbolic;
+
+/******************************************************************************
+ ** CONSTRUCTORS
+ ******************************************************************************/
+
+    /**
+     * Creates a counter holding no tokens
+     */
+    public TokenCounter()
+    {
+        _count = 0;
+    }
+
+    /**
+     * Creates a counter holding the given amount
+     * @param amount The initial amount
+     */
+    public TokenCounter(Product amount)
+    {
+        set(amount);
+    }
+
+/******************************************************************************
+ ** ARITHMETIC
+ ******************************************************************************/
+
+    /**
+     * Sets the amount
+     * @param amount The amount
+     */
+    public void set(Product amount)
+    {
+        if (amount.isNumber())
+        {
+            _count = amount.getNumber();
+            _symbolic = null;
+        }
+        else
+            _symbolic = amount;
+    }
+
+    /**
+     * Sets the amount, numeric if the expression is a number
+     * @param amount The amount
+     */
+    private void set(Expression amount)
+    {
+        if (amount.isProduct())
+            set(amount.getProduct());
+        else
+            _symbolic = amount;
+    }
+
+    /**
+     * Adds a numeric amount
+     * @param n The amount to be added
+     */
+    public void add(long n)
+    {
+        if (_symbolic == null)
+            _count = addExact(_count, n);
+        else
+            add(new Product(ExactArithmetic.toInt(n)));
+    }
+
+    /**
+     * Adds an amount
+     * @param amount The amount to be added
+     */
+    public void add(Product amount)
+    {
+        if ((_symbolic == null) && amount.isNumber())
+            _count = addExact(_count, amount.getNumber());
+        else
+            set(getExpression().add(amount));
+    }
+
+    /**
+     * Removes a numeric amount
+     * @param n The amount to be removed
+     * @throws Underflow if less than n is stored
+     */
+    public void subtract(long n)
+    {
+        if (_symbolic == null)
+        {
+            if (_count < n)
+                throw underflow(Long.toString(n));
+            _count -= n;
+        }
+        else
+            subtract(new Product(ExactArithmetic.toInt(n)));
+    }
+
+    /**
+     * Removes an amount
+     * @param amount The amount to be removed
+     * @throws Underflow if less than the amount is stored
+     */
+    public void subtract(Product amount)
+    {
+        if ((_symbolic == null) && amount.isNumber())
+        {
+            subtract((long) amount.getNumber());
+            return;
+        }
+        Expression res = getExpression().add(amount.negate());
+        if (!isPositive(res))
+            throw underflow(amount.getString());
+        set(res);
+    }
+
+/******************************************************************************
+ ** COMPARISON
+ ******************************************************************************/
+
+    /**
+     * Returns true if at least n tokens are stored
+     * @param n The amount
+     * @return True if the amount can be removed
+     */
+    public boolean covers(long n)
+    {
+        if (_symbolic == null)
+            return _count >= n;
+        return covers(new Product(ExactArithmetic.toInt(n)));
+    }
+
+    /**
+     * Returns true if at least the given amount is stored. With parametric
+     * amounts, this must hold for any values of the parameters (p covers
+     * 1, but not 2).
+     * @param amount The amount
+     * @return True if the amount can be removed
+     */
+    public boolean covers(Product amount)
+    {
+        if ((_symbolic == null) && amount.isNumber())
+            return _count >= amount.getNumber();
+        return isPositive(getExpression().add(amount.negate()));
+    }
+
+/******************************************************************************
+ ** GETTERS
+ ******************************************************************************/
+
+    /**
+     * Returns true if the amount is a number
+     * @return True if numeric
+     */
+    public boolean isNumber()
+    {
+        return (_symbolic == null);
+    }
+
+    /**
+     * Returns true if the amount is 0
+     * @return True if no tokens are stored
+     */
+    public boolean isZero()
+    {
+        return (_symbolic == null) && (_count == 0);
+    }
+
+    /**
+     * Returns the numeric amount
+     * @return The amount
+     */
+    public long getCount()
+    {
+        if (_symbolic != null)
+            throw new RuntimeException("Tokens: " + _symbolic.getString()
+                + " is not a number");
+        return _count;
+    }
+
+    /**
+     * Returns the amount as a Product
+     * @return The amount
+     */
+    public Product getProduct()
+    {
+        if (_symbolic != null)
+            return _symbolic.getProduct();
+        return new Product(ExactArithmetic.toInt(_count));
+    }
+
+    /**
+     * Returns the amount as an expression
+     * @return The amount
+     */
+    public Expression getExpression()
+    {
+        if (_symbolic != null)
+            return _symbolic;
+        return new Product(ExactArithmetic.toInt(_count));
+    }
+
+    /**
+     * Returns the amount as a string
+     * @return The amount string
+     */
+    public String getString()
+    {
+        if (_symbolic != null)
+            return _symbolic.getString();
+        return Long.toString(_count);
+    }
+
+/******************************************************************************
+ ** PRIVATE METHODS
+ ******************************************************************************/
+
+    /**
+     * Returns true if the amount is 0 or more for any values of its
+     * parameters. Only the numeric term may be negative, as long as the
+     * amount is still 0 or more with all the parameters set to 1.
+     * @param amount The amount
+     * @return True if the amount is known to be 0 or more
+     */
+    private static boolean isPositive(Expression amount)
+    {
+        long atOne = 0;
+        for (Expression term : amount.getPolynomial().getList())
+        {
+            if (!term.isProduct())
+                return false;
+            Product prod = term.getProduct();
+            if (prod.isZero())
+                continue;
+            if (!prod.getSign())
+            {
+                if (!prod.isNumber())
+                    return false;
+                atOne -= prod.getNumeric();
+            }
+            else
+                atOne += prod.getNumeric();
+        }
+        return atOne >= 0;
+    }
+
+    private Underflow underflow(String removed)
+    {
+        return new Underflow("Not enough tokens: " + removed + " removed, "
+            + getString() + " stored");
+    }
+
+    private static long addExact(long a, long b)
+    {
+        long res = a + b;
+        if (((a ^ res) & (b ^ res)) < 0)
+            throw new ArithmeticException("Long overflow: " + a + "+" + b);
+        return res;
+    }
+
+    /**
+     * Thrown when more tokens are removed than stored
+     */
+    public static class Underflow extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        Underflow(String message)
+        {
+            super(message);
+        }
+    }
+}
@@ -40,12 +40,40 @@ public class BPDFConstraint
      */
     private Expression rFunc;
 
+    /**
+     * The right function compiled to integer arithmetic. Compiled on first
+     * use and discarded whenever a parameter of rFunc gets a value.
+     */
+    private CompiledExpression rKernel;
+
     /**
      * Boolean guard enabling / disabling the constraint
-     * Defaults to true (no guard)
+     * Defaults to true (no guard). Null until needed when the guard was
+     * given already compiled.
      */
     private BooleanExpression guard = new BooleanValue(true);
 
+    /**
+     * The guard as a string, when it was given already compiled
+     */
+    private String guardString;
+
+    /**
+     * The guard compiled to a truth table over its parameters.
+     */
+    private CompiledGuard compiledGuard = CompiledGuard.compile(guard);
+
+    /**
+     * The value histories of the guard's parameters, indexed by their bit
+     * position in the compiled guard.
+     */
+    private BooleanHistory[] guardHistories = new BooleanHistory[0];
+
+    /**
+     * The value of the guard on its last evaluation.
+     */
+    private boolean guardValue = true;
+
     /**
      * Set holding the names of the boolean parameters used in the guard of
      * this constraint.
@@ -60,8 +88,8 @@ public class BPDFConstraint
     /**
      * Map that holds the values of each boolean parameter.
      */
-    private Map<String, List<Boolean>> valueMap 
-                                    = new HashMap<String, List<Boolean>>();
+    private Map<String, BooleanHistory> valueMap 
+                                    = new HashMap<String, BooleanHistory>();
 
     /**
      * Shifting the boolean values in case of a user constraint that does that.
@@ -109,9 +137,9 @@ public class BPDFConstraint
                 return -1;
             else
             {
-                if (guard.getValue())
+                if (guardValue)
                 {
-                    int slot = rFunc.evaluate("i",i).getNumber();
+                    int slot = getKernel().evaluate(i);
                     if (slot < 0)
                         return 0;
                     else
@@ -124,7 +152,7 @@ public class BPDFConstraint
         else
         { // if not set return the value anyway
             // Ugly - used in the case of user constraints.
-            int slot = rFunc.evaluate("i",i).getNumber();
+            int slot = getKernel().evaluate(i);
             if (slot < 0)
                 return 0;
             else
@@ -141,6 +169,7 @@ public class BPDFConstraint
     public void evaluateParam(String param, int n)
     {
         rFunc = rFunc.evaluate(param,n);
+        rKernel = null;
         
         for(String p : params)
         {
@@ -150,6 +179,36 @@ public class BPDFConstraint
         }
     }
 
+    /**
+     * Evaluates the left and right expressions by fixing values to all the
+     * given parameters at once.
+     * @param values The values of the parameters.
+     * @param cache The cache of the evaluations.
+     */
+    public void evaluateParams(Map<String, Integer> values,
+        EvaluationCache cache)
+    {
+        rFunc = cache.evaluate(rFunc,values);
+        rKernel = null;
+
+        for(String p : params)
+        {
+            Product period = (Product) periodMap.get(p);
+            periodMap.put(p,cache.evaluate(period,values));
+        }
+    }
+
+    /**
+     * Returns the right function compiled for the variable i.
+     * @return The compiled right function.
+     */
+    private CompiledExpression getKernel()
+    {
+        if (rKernel == null)
+            rKernel = CompiledExpression.compile(rFunc,"i");
+        return rKernel;
+    }
+
     /**
      * Evaluates the boolean guard based on the stored boolean values.
      * @param status The number of the current firing.
@@ -157,14 +216,18 @@ public class BPDFConstraint
      */
     public boolean evaluateGuard(int status)
     {
-        for (String p : params)
+        long mask = 0;
+        for (int k = 0; k < guardHistories.length; k++)
         {
-            List<Boolean> values = (List<Boolean>) valueMap.get(p);
-            guard.setValue(p,(Boolean) values.get(status));
+            if (guardHistories[k].get(status))
+                mask |= (1L << k);
         }
 
-        if (guard.isSet())
-            return true;            
+        if (compiledGuard.isSet())
+        {
+            guardValue = compiledGuard.evaluate(mask);
+            return true;
+        }
         else
             return false;
     }
@@ -179,7 +242,7 @@ public class BPDFConstraint
     {
         int st = status + shift;
         if (evaluateGuard(st))
-            return guard.getValue();
+            return guardValue;
         else
             throw new RuntimeException("Guard is not set");
     }
@@ -194,13 +257,7 @@ public class BPDFConstraint
      */
     public void setGuard(String g)
     {
-        guard = new BooleanComposite(g);
-        params = guard.getParam();
-        for (String p : params)
-        {
-            periodMap.put(p,new Product(1));
-            valueMap.put(p,new ArrayList<Boolean>());
-        }
+        setGuard(new BooleanComposite(g));
     }
 
     /**
@@ -211,12 +268,21 @@ public class BPDFConstraint
     public void setGuard(BooleanExpression expr)
     {
         guard = expr;
-        params = guard.getParam();
-        for (String p : params)
-        {
-            periodMap.put(p,new Product(1));
-            valueMap.put(p,new ArrayList<Boolean>());
-        }
+        guardString = null;
+        setCompiledGuard(CompiledGuard.compile(expr));
+    }
+
+    /**
+     * Adds a guard that is already compiled, such as the one kept by the
+     * edge of the constraint, so that it is not parsed again.
+     * @param compiled The compiled guard
+     * @param g The guard as a string
+     */
+    public void setGuard(CompiledGuard compiled, String g)
+    {
+        guard = null;
+        guardString = g;
+        setCompiledGuard(compiled);
     }
 
     /**
@@ -224,9 +290,31 @@ public class BPDFConstraint
      */
     public BooleanExpression getGuard()
     {
+        if (guard == null)
+            guard = new BooleanComposite(guardString);
         return guard;
     }
 
+    /**
+     * Uses the compiled guard and creates the value histories of its
+     * parameters
+     * @param compiled The compiled guard
+     */
+    private void setCompiledGuard(CompiledGuard compiled)
+    {
+        compiledGuard = compiled;
+        params = new HashSet<String>();
+        guardHistories = new BooleanHistory[compiled.size()];
+        for (int k = 0; k < guardHistories.length; k++)
+        {
+            String p = compiled.getParam(k);
+            params.add(p);
+            periodMap.put(p,new Product(1));
+            valueMap.put(p,new BooleanHistory());
+            guardHistories[k] = valueMap.get(p);
+        }
+    }
+
     /**
      * Sets the value of a boolean parameter to value.
      * @param param The boolean parameter.
@@ -237,15 +325,22 @@ public class BPDFConstraint
         if (params.contains(param))
         {
             Product period = (Product) periodMap.get(param);
-            List<Boolean> values = (List<Boolean>) valueMap.get(param);
-            for (int i = 0; i < period.getNumber(); i++)
-            {
-                values.add(value);
-            }
-            valueMap.put(param,values);
+            valueMap.get(param).append(value,period.getNumber());
         }
     }
 
+    /**
+     * Releases the boolean values of the firings before the given one.
+     * Must only be called once no actor of the constraint will read them
+     * again.
+     * @param status The earliest firing still to be read.
+     */
+    public void release(int status)
+    {
+        for (BooleanHistory values : valueMap.values())
+            values.release(status + shift);
+    }
+
     /**
      * Checks whether the boolean variables composing the boolean guard have
      * been assigned values for the given firing
@@ -257,8 +352,7 @@ public class BPDFConstraint
         if (status < 0) return false;
         for (String p : params)
         {
-            List<Boolean> values = (List<Boolean>) valueMap.get(p);
-            int size = values.size();
+            long size = valueMap.get(p).size();
             if (size <= status)
                 return false;
         }
@@ -354,4 +448,4 @@ public class BPDFConstraint
             + rActor.getName() + "[" + rFunc.getString() + "]";
         return res;
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,128 @@
+// BooleanHistory.java
+package bpdf.scheduling;
+
+/**
+ * The values a boolean parameter took, as seen by the firings of a
+ * constrained actor. Every new value is read by a whole reading period of
+ * firings, so the history stores one bit per value (a run) instead of one
+ * entry per firing. The runs are kept in a growable ring buffer and the runs
+ * of firings that will not be read again can be released.
+ */
+class BooleanHistory
+{
+/******************************************************************************
+ ** PRIVATE PARAMETERS
+ ******************************************************************************/
+
+    /**
+     * Ring buffer of run values, one bit per run. The length is a power of
+     * two.
+     */
+    private long[] _bits = new long[1];
+
+    /**
+     * Absolute index of the first run still held.
+     */
+    private int _first = 0;
+
+    /**
+     * Number of runs appended so far.
+     */
+    private int _end = 0;
+
+    /**
+     * Number of firings reading each run, 0 until the first value.
+     */
+    private int _period = 0;
+
+/******************************************************************************
+ ** METHODS
+ ******************************************************************************/
+
+    /**
+     * Appends a new value, read by the next period firings.
+     * @param value The boolean value.
+     * @param period The reading period.
+     */
+    void append(boolean value, int period)
+    {
+        if (period <= 0) return;
+        if (_period == 0)
+            _period = period;
+        else if (_period != period)
+            throw new RuntimeException("Reading period changed");
+
+        int capacity = _bits.length << 6;
+        if (_end - _first == capacity)
+            grow(capacity << 1);
+
+        int pos = _end & ((_bits.length << 6) - 1);
+        if (value)
+            _bits[pos >>> 6] |= (1L << pos);
+        else
+            _bits[pos >>> 6] &= ~(1L << pos);
+        _end++;
+    }
+
+    /**
+     * Returns the value read by the given firing.
+     * @param index The firing (starting from 0).
+     * @return The boolean value.
+     */
+    boolean get(int index)
+    {
+        if ((index < 0) || (index >= size()))
+            throw new IndexOutOfBoundsException("Index: " + index
+                + ", Size: " + size());
+        int run = index / _period;
+        if (run < _first)
+            throw new RuntimeException("Boolean value already released");
+        int pos = run & ((_bits.length << 6) - 1);
+        return ((_bits[pos >>> 6] >>> pos) & 1L) != 0;
+    }
+
+    /**
+     * Returns the number of firings that have a value.
+     * @return The number of firings.
+     */
+    long size()
+    {
+        return (long) _end * _period;
+    }
+
+    /**
+     * Releases the values read only by firings before the given one.
+     * @param index The first firing that may still be read.
+     */
+    void release(int index)
+    {
+        if ((_period == 0) || (index <= 0)) return;
+        int run = Math.min(index / _period, _end);
+        if (run > _first)
+            _first = run;
+    }
+
+/******************************************************************************
+ ** PRIVATE METHODS
+ ******************************************************************************/
+
+    /**
+     * Moves the held runs to a larger buffer.
+     */
+    private void grow(int capacity)
+    {
+        long[] bits = new long[capacity >>> 6];
+        int oldMask = (_bits.length << 6) - 1;
+        int newMask = capacity - 1;
+        for (int run = _first; run < _end; run++)
+        {
+            int from = run & oldMask;
+            if (((_bits[from >>> 6] >>> from) & 1L) != 0)
+            {
+                int to = run & newMask;
+                bits[to >>> 6] |= (1L << to);
+            }
+        }
+        _bits = bits;
+    }
+}
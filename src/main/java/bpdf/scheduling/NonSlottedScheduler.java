@@ -6,6 +6,8 @@ import bpdf.symbol.*;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.Map;
@@ -23,6 +25,26 @@ import java.util.Random;
  */
 public class NonSlottedScheduler extends Scheduler
 {
+/******************************************************************************
+ ** PRIVATE PARAMETERS
+ ******************************************************************************/
+
+    /**
+     * Pending completions of the active actors that execute, earliest first.
+     */
+    private PriorityQueue<Completion> _events = new PriorityQueue<Completion>();
+
+    /**
+     * Active actors with no enabled data dependency. They do not execute and
+     * complete only when nothing else completes within 10 time units.
+     */
+    private BitSet _disconnected = new BitSet();
+
+    /**
+     * Absolute time of the current event.
+     */
+    private int _now = 0;
+
 /******************************************************************************
  ** CONSTRUCTORS
  ******************************************************************************/
@@ -49,13 +71,11 @@ public class NonSlottedScheduler extends Scheduler
     public int getSchedule()
     {
         // Initialize
-        Set<String> keySet = _repVector.keySet();
-        for (String key : keySet)
-        {
-            _stVector.put(key,0);
-            _actVector.put(key,false);
-        }
-            
+        initVectors();
+        initReadySet();
+        _events.clear();
+        _disconnected.clear();
+        _now = 0;
 
         // First slot
         advance();
@@ -73,9 +93,9 @@ public class NonSlottedScheduler extends Scheduler
 
     private void advance()
     {
-        List<BPDFActor> fireables = new ArrayList<BPDFActor>();
-        fireables = getSlot();
-        updateBoolean(fireables);
+        List<BPDFActor> fireables = getReady();
+        List<String> modified = updateBoolean(fireables);
+        invalidate(new ArrayList<BPDFActor>(), modified);
         updateActive(fireables);
         _slot++;
         printActiveSlot(fireables);
@@ -86,78 +106,14 @@ public class NonSlottedScheduler extends Scheduler
  ** SCHEDULER AUXILIARIES
  ******************************************************************************/
     
-    /**
-     * Schedules a slot. Evaluates constraints and returns a list of 
-     * fireable actors.
-     * @return The list of fireable actors in the current slot.
-     */
-    private List<BPDFActor> getSlot()
-    {
-        List<BPDFActor> fireables = new ArrayList<BPDFActor>();
-
-        for (BPDFActor actor : _actorList)
-        {
-            String name = actor.getName();
-            boolean isActive = (boolean)_actVector.get(name);
-            if (!isActive)
-            {
-                List<BPDFConstraint> actorCons = getConstraints(actor);
-                int status = (int) _stVector.get(name);            
-                Expression solution = (Expression) _repVector.get(name);
-                int sol = solution.getNumber();
-                
-                if (status == sol) continue;
-                if (status >= sol) throw new RuntimeException(
-                    "Actor has been fired over the solution!");
-                
-                boolean fire = true;
-                for (BPDFConstraint cons : actorCons)
-                {
-                    BPDFActor right = cons.getDepActor();
-                    int rightFired = (int) _stVector.get(right.getName());
-                    int leftFire = status + 1;
-                    int neededFirings = cons.evaluate(leftFire);
-
-                    // System.out.println(name + "(" + leftFire + "): "
-                    //     + right.getName() + "(" + neededFirings + ") <= "
-                    //     + right.getName() + "(" + rightFired + ")");
-
-                    // if guard not set OR not enough firings
-                    if ((neededFirings < 0) || (rightFired < neededFirings))
-                    {
-                        fire = false;
-                        break;
-                    }
-                }
-                if (fire) fireables.add(actor);
-            }   
-        }
-        return fireables;
-    }
-
-    /**
-     * Updates the status vector by increasing the firings of each actor
-     * that will fire in the current slot.
-     * @param The list of the actors to be fired (and therefore printed)
-     * in the slot.
-     */
-    private void updateStatus(List<BPDFActor> fireables)
-    {
-        for (BPDFActor actor : fireables)
-        {
-            String name = actor.getName();
-            int status = (int) _stVector.get(name);
-            _stVector.put(name,status + 1);
-        }
-    }
-
     /**
      * Updates the boolean values of the parameters if a modifier is eligible
      * to do so. All the users receive copies according to their reading
      * periods.
      * @param fireables The actors eligible to fire
+     * @return The parameters that got new values
      */
-    private void updateBoolean(List<BPDFActor> fireables)
+    private List<String> updateBoolean(List<BPDFActor> fireables)
     {
         List<String> paramToModify = new ArrayList<String>();
 
@@ -167,8 +123,8 @@ public class NonSlottedScheduler extends Scheduler
             if (actor.isModifier())
             {
                 List<String> params = new ArrayList<String>();
-                int st = (int) _stVector.get(actor.getName());
-                params = actor.canModify(st);
+                int st = _status[idOf(actor)];
+                params = _state.canModify(actor,st);
                 paramToModify.addAll(params);
             }
         }
@@ -180,146 +136,99 @@ public class NonSlottedScheduler extends Scheduler
             for (BPDFConstraint cons : _constraints)
                 cons.setParam(param,value);
         }
+        return paramToModify;
     }
 
     /**
-     *
+     * Advances the time to the next event. Active actors whose data
+     * dependencies got enabled start executing and are queued by completion
+     * time. Disconnected actors take 10 time units counted from the last
+     * event, so they complete only when no other actor completes earlier.
+     * All the actors completing at the next event are retired.
+     * @param fireables The actors fired in the current slot.
      */
     private void updateTime(List<BPDFActor> fireables)
     {
-        int min = getMinTime(fireables);
-        Set<String> keySet = _actVector.keySet();
-        for (String name : keySet)
+        for (int id = _disconnected.nextSetBit(0); id >= 0; 
+            id = _disconnected.nextSetBit(id + 1))
         {
-            boolean isActive = (boolean) _actVector.get(name);
-            if (isActive)
+            BPDFActor actor = _actors[id];
+            if (isActive(actor,_status[id]))
             {
-                BPDFActor actor = getActor(name);
-                int status = (int) _stVector.get(name);
-                int remain = 0;
-                if (isActive(actor,status))
-                    remain = actor.advanceTime(min);
-                else
-                {
-                    remain = 10 - min;
-                    assert(remain == 0);
-                }
-                
-                if (remain == 0)
-                {
-                    _stVector.put(name,status + 1);
-                    _actVector.put(name,false);
-                    _advance = true;
-                }
+                _events.add(new Completion(_now + _state.getTime(actor), id));
+                _disconnected.clear(id);
             }
         }
-        if (min < 0) min = 0;
-        _slotMax = min;
-        _totalTime += min;
-    }
 
-    private void updateActive(List<BPDFActor> fireables)
-    {
-        for (BPDFActor actor : fireables)
+        int next = -1;
+        if (!_events.isEmpty())
+            next = _events.peek()._time;
+        if (!_disconnected.isEmpty() && ((next < 0) || (_now + 10 < next)))
+            next = _now + 10;
+        if (next < 0)
         {
-            String name = actor.getName();
-            _actVector.put(name,true);
+            _slotMax = 0;
+            return;
         }
-    }
 
-    /**
-     * Calculates the maximum time on the current slot and keeps track of the
-     * total time.
-     * @param fireables The list of actors eligible to fire.
-     */
-    private void getTiming(List<BPDFActor> fireables)
-    {
-        
-        _slotMax = getMaxTime(fireables);
+        List<BPDFActor> completed = new ArrayList<BPDFActor>();
+        while (!_events.isEmpty() && (_events.peek()._time == next))
+            complete(_events.poll()._id, completed);
+        if (next == _now + 10)
+        {
+            for (int id = _disconnected.nextSetBit(0); id >= 0; 
+                id = _disconnected.nextSetBit(id + 1))
+            {
+                complete(id, completed);
+            }
+            _disconnected.clear();
+        }
+        invalidate(completed, new ArrayList<String>());
+
+        _slotMax = next - _now;
         _totalTime += _slotMax;
+        _now = next;
     }
 
     /**
-     *
+     * Retires an active actor that completed its firing.
+     * @param id The id of the actor.
+     * @param completed The list the actor is added to.
      */
-    private int getMaxTime(List<BPDFActor> fireables)
+    private void complete(int id, List<BPDFActor> completed)
     {
-        int max = 0;
-        for(BPDFActor actor : fireables)
-        {
-            String name = actor.getName();
-            int status = (int) _stVector.get(name);
-            // Check if the actor is disconnected
-            boolean active = false;
-            for (BPDFConstraint cons : getDataConstraints(actor))
-            {
-                if (cons.isSet(status))
-                {
-                    if (cons.getGuardValue(status))
-                    {
-                        active = true; break;
-                    }
-                }
-            }
-            if (active)
-                max = Math.max(actor.getTime(),max);
-            else
-                max = Math.max(10,max);
-        }
-        return max;
+        _status[id]++;
+        _active[id] = false;
+        _advance = true;
+        completed.add(_actors[id]);
+        releaseHistories(id);
     }
 
     /**
-     *
+     * Marks the fired actors active. They are classified as executing or
+     * disconnected by the next updateTime.
+     * @param fireables The actors fired in the current slot.
      */
-    private int getMinTime(List<BPDFActor> fireables)
+    private void updateActive(List<BPDFActor> fireables)
     {
-        int min = -1;
-        Set<String> keySet = _repVector.keySet();
-        for (String name : keySet)
+        for (BPDFActor actor : fireables)
         {
-            boolean isActive = (boolean) _actVector.get(name);
-            if (isActive)
-            {
-                int time;
-                BPDFActor actor = getActor(name);
-                int status = (int) _stVector.get(name);
-                
-                if (isActive(actor,status))
-                    time = actor.getTime();
-                else
-                    time = 10;
-
-                if (min < 0)
-                    min = time;
-                else
-                    min = Math.min(time,min);
-            }
+            int id = idOf(actor);
+            _active[id] = true;
+            _ready.clear(id);
+            _disconnected.set(id);
         }
-        return min;
     }
 
-
-
 /******************************************************************************
  ** AUXILIARY METHODS
  ******************************************************************************/
 
 
-    private BPDFActor getActor(String name)
-    {
-        for(BPDFActor actor : _actorList)
-        {
-            if (actor.getName().equals(name))
-                return actor;
-        }
-        return null;
-    }
-
     private boolean isActive(BPDFActor actor, int st)
     {
         boolean active = false;
-        for (BPDFConstraint cons : getDataConstraints(actor))
+        for (BPDFConstraint cons : _dataOf[idOf(actor)])
         {
             if (cons.isSet(st))
             {
@@ -332,46 +241,42 @@ public class NonSlottedScheduler extends Scheduler
         return active;
     }
 
-    private boolean noActive()
+    private void printActiveSlot(List<BPDFActor> fireables)
     {
-        Set<String> keySet = _actVector.keySet();
-        for (String name : keySet)
+        if (!_verbose) return;
+        System.out.print(_slot + ": ");
+        for (int id = 0; id < _actors.length; id++)
         {
-            boolean isActive = (boolean) _actVector.get(name);
-            if (isActive) return false;
+            if (_active[id])
+                System.out.print(_actors[id].getName() + " | ");
         }
-        return true;
+        // System.out.print("\t\t Min: " + getMinTime(fireables));
+        System.out.println("");
     }
 
+/******************************************************************************
+ ** EVENTS
+ ******************************************************************************/
+
     /**
-     * Prints the given list of actors in a slotted manner.
-     * @param fireables The list of actors eligible to fire in the current slot.
+     * The completion of the current firing of an actor at an absolute time.
      */
-    private void printSlot(List<BPDFActor> fireables)
+    private static final class Completion implements Comparable<Completion>
     {
-        if (!fireables.isEmpty())
+        private final int _time;
+        private final int _id;
+
+        Completion(int time, int id)
         {
-            System.out.print(_slot + ": ");
-            for (BPDFActor actor : fireables)
-            {
-                System.out.print(actor.getName() + " | ");
-            }
-            System.out.print("\t\t Max: " + _slotMax);
-            System.out.println("");
+            _time = time;
+            _id = id;
         }
-    }
 
-    private void printActiveSlot(List<BPDFActor> fireables)
-    {
-        System.out.print(_slot + ": ");
-        Set<String> keySet = _actVector.keySet();
-        for (String name : keySet)
+        public int compareTo(Completion other)
         {
-            boolean isActive = (boolean) _actVector.get(name);
-            if (isActive)
-                System.out.print(name + " | ");
+            if (_time != other._time)
+                return (_time < other._time) ? -1 : 1;
+            return (_id < other._id) ? -1 : ((_id == other._id) ? 0 : 1);
         }
-        // System.out.print("\t\t Min: " + getMinTime(fireables));
-        System.out.println("");
     }
 }
\ No newline at end of file
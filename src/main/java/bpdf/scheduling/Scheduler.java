@@ -8,10 +8,14 @@ import bpdf.symbol.*;
 // util
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.AbstractMap;
 import java.util.Iterator;
 import java.util.Random;
 
@@ -39,6 +43,9 @@ public class Scheduler
     /** BPDF graph. */
     public BPDFGraph graph = new BPDFGraph();
 
+    /** State of the run over the graph. */
+    public ExecutionState _state = new ExecutionState(graph);
+
     /** List of constraints on actors. */
     public List<BPDFConstraint> _constraints 
         = new ArrayList<BPDFConstraint>();
@@ -47,17 +54,81 @@ public class Scheduler
     public List<BPDFConstraint> _dataConstraints 
         = new ArrayList<BPDFConstraint>();
 
+    /** Constraints imposed on each actor, indexed by actor id. */
+    public BPDFConstraint[][] _consOn = new BPDFConstraint[0][];
+
+    /** Dependency actor id of each constraint in _consOn. */
+    public int[][] _consDep = new int[0][];
+
+    /** Constraints each actor is the dependency of, indexed by actor id. */
+    public BPDFConstraint[][] _consFrom = new BPDFConstraint[0][];
+
+    /** Ids of the actors constrained by each actor, indexed by actor id. */
+    public int[][] _dependents = new int[0][];
+
+    /** Constraints containing each actor, indexed by actor id. */
+    public BPDFConstraint[][] _consAll = new BPDFConstraint[0][];
+
+    /** Data dependencies containing each actor, indexed by actor id. */
+    public BPDFConstraint[][] _dataOf = new BPDFConstraint[0][];
+
     /** List of actors to be scheduled */
     public List<BPDFActor> _actorList = new ArrayList<BPDFActor>();
 
+    /** Actors to be scheduled, indexed by actor id. */
+    public BPDFActor[] _actors = new BPDFActor[0];
+
+    /** Map from actor name to actor id. */
+    public Map<String, Integer> _actorIds = new HashMap<String, Integer>();
+
     /** Repetition vector. Holds actor name, actor solution. */
     public Map _repVector = new HashMap<String, Expression>();
 
-    /** Status vector. Holds actor name, times fired. */
-    public Map _stVector = new HashMap<String, Integer>();
+    /** Repetition count of each actor, indexed by actor id. */
+    public int[] _solution = new int[0];
 
-    /** Active vector. Holds actor name, active or not. */
-    public Map _actVector = new HashMap<String, Boolean>();
+    /** Times each actor has fired, indexed by actor id. */
+    public int[] _status = new int[0];
+
+    /** Whether each actor is active, indexed by actor id. */
+    public boolean[] _active = new boolean[0];
+
+    /** Status vector. Holds actor name, times fired (view of _status). */
+    public Map _stVector = new ActorMap<Integer>()
+    {
+        Integer getValue(int id)
+        {
+            return _status[id];
+        }
+
+        void setValue(int id, Integer value)
+        {
+            _status[id] = value;
+        }
+    };
+
+    /** Active vector. Holds actor name, active or not (view of _active). */
+    public Map _actVector = new ActorMap<Boolean>()
+    {
+        Boolean getValue(int id)
+        {
+            return _active[id];
+        }
+
+        void setValue(int id, Boolean value)
+        {
+            _active[id] = value;
+        }
+    };
+
+    /** Inactive actors whose constraints were satisfied when last checked. */
+    public BitSet _ready = new BitSet();
+
+    /** Actors whose constraints have to be checked again. */
+    public BitSet _dirty = new BitSet();
+
+    /** Actors constrained by guards on each boolean parameter. */
+    public Map<String, BitSet> _guardUsers = new HashMap<String, BitSet>();
 
     /** Used to produce random boolean values. */
     public Random _rand = new Random();
@@ -71,6 +142,9 @@ public class Scheduler
     /** Keeps the maximum time of the current slot. */
     public int _slotMax = 0;
 
+    /** Prints every slot to the standard output if true. */
+    public boolean _verbose = true;
+
     /** Boolean that keep track of schedule progress (to remove?) */
     public boolean _advance = false;
 
@@ -90,11 +164,13 @@ public class Scheduler
         Map<String,String> boolMap)
     {
         graph = g;
+        _state = new ExecutionState(graph);
         _actorList = graph.getActors();
-        _repVector = graph.getVector();
+        _repVector = _state.getVector();
+        indexActors();
         generateDataDependencies();
         generateMuDependencies();
-        graph.setIntValues(intMap);
+        indexConstraints();
         setBoolValues(boolMap);
         setIntValues(intMap);
         setIndxValues();
@@ -104,6 +180,169 @@ public class Scheduler
  ** METHODS
  ***********************************************************************/
 
+    /**
+     * Assigns the actor ids used by the state arrays. The id of an actor
+     * is its position in the graph's actor list.
+     */
+    private void indexActors()
+    {
+        _actors = new BPDFActor[_actorList.size()];
+        _actorIds.clear();
+        for (int id = 0; id < _actors.length; id++)
+        {
+            _actors[id] = _actorList.get(id);
+            _actorIds.put(_actors[id].getName(), id);
+        }
+        _solution = new int[_actors.length];
+        _status = new int[_actors.length];
+        _active = new boolean[_actors.length];
+    }
+
+    /**
+     * Groups the constraints by the actors they refer to, so that the
+     * constraints of an actor are found without scanning all of them.
+     * Must be called whenever the constraint lists change.
+     */
+    void indexConstraints()
+    {
+        int size = _actors.length;
+        List<List<BPDFConstraint>> on = newBuckets(size);
+        List<List<BPDFConstraint>> from = newBuckets(size);
+        List<List<BPDFConstraint>> all = newBuckets(size);
+        List<List<BPDFConstraint>> data = newBuckets(size);
+
+        for (BPDFConstraint cons : _constraints)
+        {
+            int left = idOf(cons.getConActor());
+            int right = idOf(cons.getDepActor());
+            if (left >= 0) on.get(left).add(cons);
+            if (right >= 0) from.get(right).add(cons);
+            if (left >= 0) all.get(left).add(cons);
+            if ((right >= 0) && (right != left)) all.get(right).add(cons);
+        }
+        for (BPDFConstraint cons : _dataConstraints)
+        {
+            int left = idOf(cons.getConActor());
+            int right = idOf(cons.getDepActor());
+            if (left >= 0) data.get(left).add(cons);
+            if ((right >= 0) && (right != left)) data.get(right).add(cons);
+        }
+
+        _consOn = toArrays(on);
+        _consFrom = toArrays(from);
+        _consAll = toArrays(all);
+        _dataOf = toArrays(data);
+        _consDep = new int[size][];
+        _dependents = new int[size][];
+        for (int id = 0; id < size; id++)
+        {
+            Set<Integer> dependents = new LinkedHashSet<Integer>();
+            for (BPDFConstraint cons : _consFrom[id])
+                dependents.add(idOf(cons.getConActor()));
+            dependents.remove(-1);
+            _dependents[id] = new int[dependents.size()];
+            int d = 0;
+            for (int dep : dependents)
+                _dependents[id][d++] = dep;
+
+            _consDep[id] = new int[_consOn[id].length];
+            for (int k = 0; k < _consOn[id].length; k++)
+            {
+                int dep = idOf(_consOn[id][k].getDepActor());
+                if (dep < 0) throw new RuntimeException(
+                    "Unknown actor " + _consOn[id][k].getDepActor().getName());
+                _consDep[id][k] = dep;
+            }
+        }
+    }
+
+    private static List<List<BPDFConstraint>> newBuckets(int size)
+    {
+        List<List<BPDFConstraint>> buckets 
+            = new ArrayList<List<BPDFConstraint>>(size);
+        for (int id = 0; id < size; id++)
+            buckets.add(new ArrayList<BPDFConstraint>());
+        return buckets;
+    }
+
+    private static BPDFConstraint[][] toArrays(
+        List<List<BPDFConstraint>> buckets)
+    {
+        BPDFConstraint[][] res = new BPDFConstraint[buckets.size()][];
+        for (int id = 0; id < res.length; id++)
+        {
+            List<BPDFConstraint> bucket = buckets.get(id);
+            res[id] = bucket.toArray(new BPDFConstraint[bucket.size()]);
+        }
+        return res;
+    }
+
+    /**
+     * Resets the state arrays for a new iteration. The repetition vector
+     * must have been evaluated to numbers by setIntValues.
+     */
+    void initVectors()
+    {
+        for (int id = 0; id < _actors.length; id++)
+        {
+            Expression solution 
+                = (Expression) _repVector.get(_actors[id].getName());
+            _solution[id] = solution.getNumber();
+            _status[id] = 0;
+            _active[id] = false;
+        }
+    }
+
+    /**
+     * Multiplies the repetition counts by the given number of iterations,
+     * so that the iterations run back-to-back. The number of iterations is
+     * capped so that every count fits an int, and all the actors are done
+     * after the same number of iterations.
+     * @param iterations The number of iterations.
+     */
+    void scaleSolution(int iterations)
+    {
+        for (int id = 0; id < _actors.length; id++)
+        {
+            if (_solution[id] > 0)
+                iterations = Math.min(iterations,
+                    Integer.MAX_VALUE / _solution[id]);
+        }
+        for (int id = 0; id < _actors.length; id++)
+            _solution[id] *= iterations;
+    }
+
+    /**
+     * Returns the number of complete graph iterations executed so far,
+     * i.e. the iterations every actor has finished.
+     * @return The number of completed iterations.
+     */
+    public int getCompletedIterations()
+    {
+        int res = Integer.MAX_VALUE;
+        for (int id = 0; id < _actors.length; id++)
+        {
+            Expression solution 
+                = (Expression) _repVector.get(_actors[id].getName());
+            int sol = solution.getNumber();
+            if (sol > 0)
+                res = Math.min(res, _status[id] / sol);
+        }
+        return (res == Integer.MAX_VALUE) ? 0 : res;
+    }
+
+    /**
+     * Returns the id of the given actor, found by name as constraints
+     * may hold actors of another copy of the graph.
+     * @param actor The actor.
+     * @return The actor's id in this scheduler, -1 if not scheduled.
+     */
+    int idOf(BPDFActor actor)
+    {
+        Integer id = _actorIds.get(actor.getName());
+        return (id == null) ? -1 : id;
+    }
+
     /**
      * Produces the next boolean value of the given boolean parameter.
      * @param param The name of the boolean parameter.
@@ -136,33 +375,13 @@ public class Scheduler
      */
     public void setIntValues(Map<String, Integer> map)
     {
-        Iterator<Map.Entry<String,Integer>> iMap = 
-            map.entrySet().iterator();
+        // Populate Periods and Repetition Vector
+        _state.setIntValues(map);
 
-        while (iMap.hasNext())
+        // Populate Constraints
+        for (BPDFConstraint cons : _constraints)
         {
-            Map.Entry<String,Integer> tempEntry = iMap.next();
-            String param = tempEntry.getKey();
-            int value = tempEntry.getValue();
-
-            // Populate Constraints
-            for (BPDFConstraint cons : _constraints)
-            {
-                cons.evaluateParam(param,value);
-            }
-
-            // Populate Repetition Vector
-            Iterator<Map.Entry<String,Expression>> rMap =
-                _repVector.entrySet().iterator();
-
-            while (rMap.hasNext())
-            {
-                Map.Entry<String,Expression> tEntry = rMap.next();
-                String actor = tEntry.getKey();
-                Expression sol = tEntry.getValue();
-                sol = sol.evaluate(param,value);
-                _repVector.put(actor,sol);
-            }
+            cons.evaluateParams(map, graph.getEvaluationCache());
         }
     }
 
@@ -206,14 +425,7 @@ public class Scheduler
      */
     public List<BPDFConstraint> getConstraints(BPDFActor actor)
     {
-        List<BPDFConstraint> actorCons =  new ArrayList<BPDFConstraint>();
-
-        for (BPDFConstraint cons : _constraints)
-        {
-            if (cons.isConstraintOn(actor))
-                actorCons.add(cons);
-        }
-        return actorCons;
+        return getIndexed(_consOn, actor);
     }
 
     /** 
@@ -223,14 +435,7 @@ public class Scheduler
      */
     public List<BPDFConstraint> getAllConstraints(BPDFActor actor)
     {
-        List<BPDFConstraint> actorCons =  new ArrayList<BPDFConstraint>();
-
-        for (BPDFConstraint cons : _constraints)
-        {
-            if (cons.contains(actor))
-                actorCons.add(cons);
-        }
-        return actorCons;
+        return getIndexed(_consAll, actor);
     }
 
     /**
@@ -240,14 +445,147 @@ public class Scheduler
      */
     public List<BPDFConstraint> getDataConstraints(BPDFActor actor)
     {
-        List<BPDFConstraint> actorCons =  new ArrayList<BPDFConstraint>();
+        return getIndexed(_dataOf, actor);
+    }
 
-        for (BPDFConstraint cons : _dataConstraints)
+    /**
+     * Returns a copy of the indexed constraints of the given actor.
+     */
+    private List<BPDFConstraint> getIndexed(BPDFConstraint[][] index,
+        BPDFActor actor)
+    {
+        int id = idOf(actor);
+        if (id < 0) return new ArrayList<BPDFConstraint>();
+        return new ArrayList<BPDFConstraint>(Arrays.asList(index[id]));
+    }
+
+/***********************************************************************
+ ** READY SET
+ ***********************************************************************/
+
+    /**
+     * Re-evaluates the constraints of the actors marked by invalidate and
+     * returns the inactive actors that can fire, in id order.
+     * @return The list of fireable actors.
+     */
+    List<BPDFActor> getReady()
+    {
+        for (int id = _dirty.nextSetBit(0); id >= 0; 
+            id = _dirty.nextSetBit(id + 1))
+        {
+            _ready.set(id, !_active[id] && isReady(id));
+        }
+        _dirty.clear();
+
+        List<BPDFActor> fireables = new ArrayList<BPDFActor>();
+        for (int id = _ready.nextSetBit(0); id >= 0; 
+            id = _ready.nextSetBit(id + 1))
+        {
+            fireables.add(_actors[id]);
+        }
+        return fireables;
+    }
+
+    /**
+     * Evaluates the constraints of an actor for its next firing.
+     * @param id The id of the actor.
+     * @return True if the actor can fire.
+     */
+    boolean isReady(int id)
+    {
+        int status = _status[id];
+        int sol = _solution[id];
+
+        if (status == sol) return false;
+        if (status >= sol) throw new RuntimeException(
+            "Actor has been fired over the solution!");
+
+        BPDFConstraint[] actorCons = _consOn[id];
+        int[] deps = _consDep[id];
+        for (int k = 0; k < actorCons.length; k++)
         {
-            if (cons.contains(actor))
-                actorCons.add(cons);
+            BPDFConstraint cons = actorCons[k];
+            int rightFired = _status[deps[k]];
+            int leftFire = status + 1;
+            int neededFirings = cons.evaluate(leftFire);
+
+            // if guard not set OR not enough firings
+            if ((neededFirings < 0) || (rightFired < neededFirings))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Resets the ready set so that every actor is checked in the first slot
+     * and maps the boolean parameters to the actors whose guards use them.
+     */
+    void initReadySet()
+    {
+        _ready.clear();
+        _dirty.clear();
+        _dirty.set(0, _actors.length);
+
+        _guardUsers.clear();
+        for (int id = 0; id < _actors.length; id++)
+        {
+            for (BPDFConstraint cons : _consOn[id])
+            {
+                for (String param : cons.getParam())
+                {
+                    BitSet users = _guardUsers.get(param);
+                    if (users == null)
+                    {
+                        users = new BitSet();
+                        _guardUsers.put(param, users);
+                    }
+                    users.set(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the actors whose constraints may have changed by the last slot:
+     * the fired actors, the actors depending on them and the actors guarded
+     * by the modified boolean parameters.
+     * @param fireables The actors fired in the last slot.
+     * @param modified The boolean parameters that got new values.
+     */
+    void invalidate(List<BPDFActor> fireables, List<String> modified)
+    {
+        for (BPDFActor actor : fireables)
+        {
+            int id = idOf(actor);
+            if (id < 0) continue;
+            _dirty.set(id);
+            for (int dep : _dependents[id])
+                _dirty.set(dep);
+        }
+        for (String param : modified)
+        {
+            BitSet users = _guardUsers.get(param);
+            if (users != null)
+                _dirty.or(users);
+        }
+    }
+
+    /**
+     * Releases the boolean values that the constraints of an actor will
+     * not read again. Called when the actor's status advances; a value is
+     * kept until both actors of the constraint have passed it.
+     * @param id The id of the actor.
+     */
+    void releaseHistories(int id)
+    {
+        for (BPDFConstraint cons : _consAll[id])
+        {
+            if (cons.getParam().isEmpty()) continue;
+            int left = idOf(cons.getConActor());
+            int right = idOf(cons.getDepActor());
+            if ((left < 0) || (right < 0)) continue;
+            cons.release(Math.min(_status[left], _status[right]));
         }
-        return actorCons;
     }
 
 /***********************************************************************
@@ -264,8 +602,8 @@ public class Scheduler
             BPDFActor rightActor = edge.getProducer();
             Product rateIn = edge.getRateIn();
             Product rateOut = edge.getRateOut();
-            Product tokens = edge.getTokens();
-            Product negTokens = new Product("-" + tokens.getString());
+            Product tokens = _state.getTokens(edge);
+            Product negTokens = tokens.negate();
             String guard = edge.getGuard();
 
             // Data Dependency
@@ -275,13 +613,11 @@ public class Scheduler
                 new BPDFConstraint (leftActor,rightActor,f);
             if (!guard.isEmpty())
             {
-                dataDependency.setGuard(guard);
-                BooleanComposite tmp = new BooleanComposite(guard);
-                Set<String> paramSet = tmp.getParam();
-                for (String s : paramSet)
+                dataDependency.setGuard(edge.getCompiledGuard(), guard);
+                for (String s : edge.getGuardParams())
                 {
                     dataDependency.setReadingPeriod(s,
-                        leftActor.getReadingPeriod(s));
+                        _state.getReadingPeriod(leftActor,s));
                 }
             }
             _constraints.add(dataDependency);
@@ -310,8 +646,7 @@ public class Scheduler
                     Product uSol 
                         = (Product) _repVector.get(actor.getName());
                     Product rPeriod = uSol.divide(freq).getProduct();
-                    Product negWPeriod 
-                        = new Product("-" + wPeriod.getString());
+                    Product negWPeriod = wPeriod.negate();
                     Expression aux 
                         = new Fraction(new Product("i"),rPeriod);
                     Expression f = wPeriod.multiply(aux.ceiling()).add(
@@ -337,23 +672,24 @@ public class Scheduler
 
             for (String p : params)
             {
-                Product period = constrainee.getReadingPeriod(p);
+                Product period = _state.getReadingPeriod(constrainee,p);
                 if (period == null)
                 {
                     Product rPeriod = setupReadingPeriod(constrainee, p);
-                    constrainee.setReadingPeriod(p,rPeriod);
+                    _state.setReadingPeriod(constrainee,p,rPeriod);
                     constraint.setReadingPeriod(p,rPeriod);
                 }
             }
         }
         _constraints.addAll(cons);
+        indexConstraints();
     }
 
     private Product setupReadingPeriod(BPDFActor actor, String param)
     {
         Map<String, BPDFActor> modifiers = graph.getModifiers();
         BPDFActor modifier = modifiers.get(param);
-        Product wPeriod = modifier.getPeriod(param);
+        Product wPeriod = _state.getPeriod(modifier,param);
         Product modSol = (Product) _repVector.get(modifier.getName());
         Expression freq = modSol.divide(wPeriod);
 
@@ -376,4 +712,57 @@ public class Scheduler
         return 0;
     }
 
+/***********************************************************************
+ ** STATE VIEWS
+ ***********************************************************************/
+
+    /**
+     * Map view of a per-actor state array, keyed by actor name. Reads and
+     * writes go through to the array.
+     */
+    abstract class ActorMap<V> extends AbstractMap<String, V>
+    {
+        abstract V getValue(int id);
+        abstract void setValue(int id, V value);
+
+        @Override
+        public V get(Object name)
+        {
+            Integer id = _actorIds.get(name);
+            if (id == null)
+                return null;
+            return getValue(id);
+        }
+
+        @Override
+        public V put(String name, V value)
+        {
+            Integer id = _actorIds.get(name);
+            if (id == null)
+                throw new RuntimeException("Unknown actor " + name);
+            V prev = getValue(id);
+            setValue(id, value);
+            return prev;
+        }
+
+        @Override
+        public boolean containsKey(Object name)
+        {
+            return _actorIds.containsKey(name);
+        }
+
+        @Override
+        public Set<Map.Entry<String, V>> entrySet()
+        {
+            Set<Map.Entry<String, V>> entries 
+                = new LinkedHashSet<Map.Entry<String, V>>();
+            for (int id = 0; id < _actors.length; id++)
+            {
+                entries.add(new AbstractMap.SimpleImmutableEntry<String, V>(
+                    _actors[id].getName(), getValue(id)));
+            }
+            return entries;
+        }
+    }
+
 }
\ No newline at end of file
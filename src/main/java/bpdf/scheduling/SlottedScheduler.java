@@ -24,7 +24,6 @@ import java.util.Random;
  */
 public class SlottedScheduler extends Scheduler
 {
-
 /******************************************************************************
  ** CONSTRUCTORS
  ******************************************************************************/
@@ -50,32 +49,63 @@ public class SlottedScheduler extends Scheduler
      */
     @Override
     public int getSchedule()
+    {
+        return getSchedule(1);
+    }
+
+    /**
+     * Executes the given number of iterations of the graph back-to-back
+     * (streaming). Firings are counted across iterations, so an actor may
+     * start its next iteration as soon as its constraints allow it, while
+     * other actors are still finishing the current one. Tokens, boolean
+     * values and constraint state carry over the iteration boundaries.
+     * @param iterations The number of iterations.
+     * @return The total time.
+     */
+    public int getSchedule(int iterations)
+    {
+        if (iterations < 1) throw new RuntimeException(
+            "Invalid number of iterations: " + iterations);
+        return stream(iterations, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Executes iterations of the graph back-to-back until the given time
+     * budget is used. The slot crossing the budget completes, so the time
+     * used may exceed it. See getCompletedIterations for the number of
+     * complete iterations.
+     * @param maxTime The time budget.
+     * @return The total time.
+     */
+    public int getScheduleUntil(int maxTime)
+    {
+        return stream(Integer.MAX_VALUE, maxTime);
+    }
+
+    /**
+     * Executes slots until the iterations are done or the time budget is
+     * used.
+     */
+    private int stream(int iterations, int maxTime)
     {
         // Initialize
-        Set<String> keySet = _repVector.keySet();
-        for (String key : keySet)
-            _stVector.put(key,0);
-
-        // First slot
-        List<BPDFActor> fireables = new ArrayList<BPDFActor>();
-        fireables = getSlot();
-        getTiming(fireables);
-        updateBoolean(fireables);
-        _slot++;
-        updateStatus(fireables);
-        printSlot(fireables);
-
-        // Rest of the slots
-        while(!fireables.isEmpty())
+        initVectors();
+        scaleSolution(iterations);
+        initReadySet();
+        int start = _totalTime;
+
+        List<BPDFActor> fireables;
+        do
         {
-            fireables = new ArrayList<BPDFActor>();
             fireables = getSlot();
             getTiming(fireables);
-            updateBoolean(fireables);
+            List<String> modified = updateBoolean(fireables);
             _slot++;
             updateStatus(fireables);
+            invalidate(fireables, modified);
             printSlot(fireables);
         }
+        while (!fireables.isEmpty() && (_totalTime - start < maxTime));
         // System.out.println("Total time: " + _totalTime);
         return _totalTime;
     }
@@ -85,48 +115,13 @@ public class SlottedScheduler extends Scheduler
  ******************************************************************************/
     
     /**
-     * Schedules a slot. Evaluates constraints and returns a list of 
-     * fireable actors.
+     * Schedules a slot. Re-evaluates the constraints of the actors affected
+     * by the previous slot and returns a list of fireable actors.
      * @return The list of fireable actors in the current slot.
      */
     private List<BPDFActor> getSlot()
     {
-        List<BPDFActor> fireables = new ArrayList<BPDFActor>();
-
-        for (BPDFActor actor : _actorList)
-        {
-            String name = actor.getName();
-            List<BPDFConstraint> actorCons = getConstraints(actor);
-            int status = (int) _stVector.get(name);            
-            Expression solution = (Expression) _repVector.get(name);
-            int sol = solution.getNumber();
-            
-            if (status == sol) continue;
-            if (status >= sol) throw new RuntimeException(
-                "Actor has been fired over the solution!");
-            
-            boolean fire = true;
-            for (BPDFConstraint cons : actorCons)
-            {
-                BPDFActor right = cons.getDepActor();
-                int rightFired = (int) _stVector.get(right.getName());
-                int leftFire = status + 1;
-                int neededFirings = cons.evaluate(leftFire);
-
-                // System.out.println(name + "(" + leftFire + "): "
-                //     + right.getName() + "(" + neededFirings + ") <= "
-                //     + right.getName() + "(" + rightFired + ")");
-
-                // if guard not set OR not enough firings
-                if ((neededFirings < 0) || (rightFired < neededFirings))
-                {
-                    fire = false;
-                    break;
-                }
-            }
-            if (fire) fireables.add(actor);
-        }
-        return fireables;
+        return getReady();
     }
 
     /**
@@ -138,11 +133,9 @@ public class SlottedScheduler extends Scheduler
     private void updateStatus(List<BPDFActor> fireables)
     {
         for (BPDFActor actor : fireables)
-        {
-            String name = actor.getName();
-            int status = (int) _stVector.get(name);
-            _stVector.put(name,status + 1);
-        }
+            _status[idOf(actor)]++;
+        for (BPDFActor actor : fireables)
+            releaseHistories(idOf(actor));
     }
 
     /**
@@ -150,8 +143,9 @@ public class SlottedScheduler extends Scheduler
      * to do so. All the users receive copies according to their reading
      * periods.
      * @param fireables The actors eligible to fire
+     * @return The parameters that got new values
      */
-    private void updateBoolean(List<BPDFActor> fireables)
+    private List<String> updateBoolean(List<BPDFActor> fireables)
     {
         List<String> paramToModify = new ArrayList<String>();
 
@@ -161,8 +155,8 @@ public class SlottedScheduler extends Scheduler
             if (actor.isModifier())
             {
                 List<String> params = new ArrayList<String>();
-                int st = (int) _stVector.get(actor.getName());
-                params = actor.canModify(st);
+                int st = _status[idOf(actor)];
+                params = _state.canModify(actor,st);
                 paramToModify.addAll(params);
             }
         }
@@ -174,6 +168,7 @@ public class SlottedScheduler extends Scheduler
             for (BPDFConstraint cons : _constraints)
                 cons.setParam(param,value);
         }
+        return paramToModify;
     }
 
     /**
@@ -193,11 +188,10 @@ public class SlottedScheduler extends Scheduler
         int max = 0;
         for(BPDFActor actor : fireables)
         {
-            String name = actor.getName();
-            int status = (int) _stVector.get(name);
+            int status = _status[idOf(actor)];
             // Check if the actor is disconnected
             boolean active = false;
-            for (BPDFConstraint cons : getDataConstraints(actor))
+            for (BPDFConstraint cons : _dataOf[idOf(actor)])
             {
                 if (cons.isSet(status))
                 {
@@ -208,7 +202,7 @@ public class SlottedScheduler extends Scheduler
                 }
             }
             if (active)
-                max = Math.max(actor.getTime(),max);
+                max = Math.max(_state.getTime(actor),max);
             else
                 max = Math.max(10,max);
         }
@@ -227,7 +221,7 @@ public class SlottedScheduler extends Scheduler
      */
     private void printSlot(List<BPDFActor> fireables)
     {
-        if (!fireables.isEmpty())
+        if (_verbose && !fireables.isEmpty())
         {
             System.out.print(_slot + ": ");
             for (BPDFActor actor : fireables)
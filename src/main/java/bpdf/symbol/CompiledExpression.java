@@ -0,0 +1,311 @@
+// CompiledExpression.java
+package bpdf.symbol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An Expression of a single integer variable compiled into plain integer
+ * arithmetic. Products, Fractions and Polynomials of the variable become a
+ * rational polynomial (coefficients over a common denominator) evaluated
+ * with Horner's rule and an integer ceiling / floor. Composites become sums
+ * and products of their compiled parts. Anything else, or anything whose
+ * coefficients do not fit in a long, falls back to the symbolic evaluation,
+ * so the results are always the same as expr.evaluate(var, n).getNumber().
+ * The arithmetic is checked: a result out of the range of an int, or an
+ * intermediate value out of the range of a long, throws an
+ * ArithmeticException rather than wrapping around.
+ */
+public abstract class CompiledExpression
+{
+/******************************************************************************
+ ** ROUNDING MODES
+ ******************************************************************************/
+
+    private static final int EXACT = 0;
+    private static final int CEILING = 1;
+    private static final int FLOOR = 2;
+
+/******************************************************************************
+ ** EVALUATION
+ ******************************************************************************/
+
+    /**
+     * Evaluates the expression for the given value of the variable
+     * @param n The value of the variable
+     * @return The integer result
+     */
+    public abstract int evaluate(int n);
+
+    /**
+     * Evaluates the expression as a long, without narrowing to int
+     */
+    abstract long evaluateLong(long n);
+
+    /**
+     * Returns true if the expression always evaluates to an integer
+     */
+    abstract boolean isIntegral();
+
+/******************************************************************************
+ ** COMPILATION
+ ******************************************************************************/
+
+    /**
+     * Compiles the given expression of the given variable. All other
+     * parameters of the expression should already have been evaluated.
+     * @param expr The expression to compile
+     * @param var The name of the variable
+     * @return The compiled expression
+     */
+    public static CompiledExpression compile(Expression expr, String var)
+    {
+        CompiledExpression res = compileExpr(expr, var);
+        if (res == null)
+            return new Symbolic(expr, var);
+        return res;
+    }
+
+    /**
+     * Compiles an expression, null if it is not supported
+     */
+    private static CompiledExpression compileExpr(Expression expr, String var)
+    {
+        if ((expr instanceof Product) || (expr instanceof Fraction))
+        {
+            return compileTerms(expr, var);
+        }
+        else if (expr instanceof Polynomial)
+        {
+            Polynomial poly = (Polynomial) expr;
+            for (Expression term : poly.getList())
+            {
+                if (term.hasCeiling() || term.hasFloor())
+                {
+                    if (poly.hasCeiling() || poly.hasFloor())
+                        return null;
+                    return compileList(poly.getList(), var, false);
+                }
+            }
+            return compileTerms(expr, var);
+        }
+        else if (expr instanceof CompositeProduct)
+        {
+            return compileList(
+                ((CompositeProduct) expr).getList(), var, true);
+        }
+        else if (expr instanceof CompositePolynomial)
+        {
+            return compileList(
+                ((CompositePolynomial) expr).getList(), var, false);
+        }
+        return null;
+    }
+
+    /**
+     * Compiles a list of expressions into their sum or product
+     */
+    private static CompiledExpression compileList(
+        List<? extends Expression> list, String var, boolean product)
+    {
+        CompiledExpression[] parts = new CompiledExpression[list.size()];
+        for (int i = 0; i < parts.length; i++)
+        {
+            parts[i] = compileExpr(list.get(i), var);
+            // Parts are combined as integers, so they must be integers
+            if ((parts[i] == null) || !parts[i].isIntegral()) return null;
+        }
+        return new Combination(parts, product);
+    }
+
+    /**
+     * Compiles a Product, Fraction or Polynomial of plain fractions into a
+     * single rational polynomial of the variable
+     */
+    private static CompiledExpression compileTerms(Expression expr, String var)
+    {
+        try
+        {
+            return compileRational(expr, var);
+        }
+        catch (ArithmeticException e)
+        { // the coefficients do not fit in a long
+            return null;
+        }
+    }
+
+    private static CompiledExpression compileRational(Expression expr,
+        String var)
+    {
+        List<Expression> terms = new ArrayList<Expression>();
+        if (expr instanceof Polynomial)
+            terms.addAll(((Polynomial) expr).getList());
+        else
+            terms.add(expr);
+
+        long[] coeffs = new long[1];
+        long denom = 1;
+        for (Expression term : terms)
+        {
+            Fraction frac = term.getFraction();
+            Product num = frac.getNum();
+            Product den = frac.getDenom();
+            if (!den.isNumber()) return null;
+
+            Monomial mono = num.getMonomial();
+            int power = mono.getPower(var);
+            if (mono.size() != ((power > 0) ? 1 : 0)) return null;
+
+            long termNum = num.getNumeric();
+            if (!num.getSign()) termNum = -termNum;
+            long termDen = den.getNumber();
+            if (termDen == 0) return null;
+            if (termDen < 0)
+            {
+                termNum = -termNum;
+                termDen = -termDen;
+            }
+
+            // Bring both to the common denominator
+            long gcd = ExactArithmetic.gcd(denom, termDen);
+            long scaleRes = termDen / gcd;
+            long scaleTerm = denom / gcd;
+            if (coeffs.length <= power)
+            {
+                long[] tmp = new long[power + 1];
+                System.arraycopy(coeffs, 0, tmp, 0, coeffs.length);
+                coeffs = tmp;
+            }
+            for (int k = 0; k < coeffs.length; k++)
+                coeffs[k] = ExactArithmetic.multiply(coeffs[k], scaleRes);
+            coeffs[power] = ExactArithmetic.add(coeffs[power],
+                ExactArithmetic.multiply(termNum, scaleTerm));
+            denom = ExactArithmetic.multiply(denom, scaleRes);
+        }
+
+        int mode = EXACT;
+        if (expr.hasCeiling())
+            mode = CEILING;
+        else if (expr.hasFloor())
+            mode = FLOOR;
+        return new Rational(coeffs, denom, mode);
+    }
+
+/******************************************************************************
+ ** KERNELS
+ ******************************************************************************/
+
+    /**
+     * (c_k*n^k + ... + c_1*n + c_0) / d, optionally under ceiling or floor
+     */
+    private static final class Rational extends CompiledExpression
+    {
+        private final long[] _coeffs;
+        private final long _denom;
+        private final int _mode;
+
+        Rational(long[] coeffs, long denom, int mode)
+        {
+            _coeffs = coeffs;
+            _denom = denom;
+            _mode = mode;
+        }
+
+        public int evaluate(int n)
+        {
+            return ExactArithmetic.toInt(evaluateLong(n));
+        }
+
+        long evaluateLong(long n)
+        {
+            long num = 0;
+            for (int k = _coeffs.length - 1; k >= 0; k--)
+                num = ExactArithmetic.add(
+                    ExactArithmetic.multiply(num, n), _coeffs[k]);
+            if (_denom == 1)
+                return num;
+
+            if (_mode == CEILING)
+                return ExactArithmetic.ceilDiv(num, _denom);
+            else if (_mode == FLOOR)
+                return ExactArithmetic.floorDiv(num, _denom);
+            else if (num % _denom == 0)
+                return num / _denom;
+            else
+                throw new RuntimeException("Fraction is NOT an integer");
+        }
+
+        boolean isIntegral()
+        {
+            return (_denom == 1) || (_mode != EXACT);
+        }
+    }
+
+    /**
+     * Sum or product of compiled expressions
+     */
+    private static final class Combination extends CompiledExpression
+    {
+        private final CompiledExpression[] _parts;
+        private final boolean _product;
+
+        Combination(CompiledExpression[] parts, boolean product)
+        {
+            _parts = parts;
+            _product = product;
+        }
+
+        public int evaluate(int n)
+        {
+            return ExactArithmetic.toInt(evaluateLong(n));
+        }
+
+        long evaluateLong(long n)
+        {
+            long res = _product ? 1 : 0;
+            for (CompiledExpression part : _parts)
+            {
+                if (_product)
+                    res = ExactArithmetic.multiply(res, part.evaluateLong(n));
+                else
+                    res = ExactArithmetic.add(res, part.evaluateLong(n));
+            }
+            return res;
+        }
+
+        boolean isIntegral()
+        {
+            return true;
+        }
+    }
+
+    /**
+     * Fallback to the symbolic evaluation of the expression
+     */
+    private static final class Symbolic extends CompiledExpression
+    {
+        private final Expression _expr;
+        private final String _var;
+
+        Symbolic(Expression expr, String var)
+        {
+            _expr = expr;
+            _var = var;
+        }
+
+        public int evaluate(int n)
+        {
+            return _expr.evaluate(_var, n).getNumber();
+        }
+
+        long evaluateLong(long n)
+        {
+            return evaluate(ExactArithmetic.toInt(n));
+        }
+
+        boolean isIntegral()
+        {
+            return false;
+        }
+    }
+}
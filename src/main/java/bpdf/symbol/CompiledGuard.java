@@ -0,0 +1,160 @@
+// CompiledGuard.java
+package bpdf.symbol;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * A BooleanExpression compiled into a truth table. The parameters of the
+ * expression are given bit positions (in alphabetical order) and an
+ * assignment of values is a bitmask, so evaluating the guard is a single
+ * table lookup without touching the expression tree. The table is built by
+ * evaluating the expression itself, so the results are always the same as
+ * setting all the parameters and calling getValue().
+ */
+public final class CompiledGuard
+{
+/******************************************************************************
+ ** PRIVATE PARAMETERS
+ ******************************************************************************/
+
+    /**
+     * Maximum number of parameters compiled into a table (64K entries).
+     */
+    private static final int MAX_PARAMS = 16;
+
+    /**
+     * The parameter names, indexed by bit position.
+     */
+    private final String[] _params;
+
+    /**
+     * The value of the expression for each assignment, one bit per
+     * assignment. Null if the expression has too many parameters.
+     */
+    private final long[] _table;
+
+    /**
+     * Whether the expression is set once all its parameters are set.
+     */
+    private final boolean _set;
+
+    /**
+     * The expression, used when there is no table.
+     */
+    private final BooleanExpression _expr;
+
+/******************************************************************************
+ ** CONSTRUCTORS
+ ******************************************************************************/
+
+    private CompiledGuard(String[] params, long[] table, boolean set,
+        BooleanExpression expr)
+    {
+        _params = params;
+        _table = table;
+        _set = set;
+        _expr = expr;
+    }
+
+    /**
+     * Compiles the given boolean expression. The expression's values are
+     * overwritten in the process and should not be relied upon afterwards.
+     * @param expr The expression to compile
+     * @return The compiled guard
+     */
+    public static CompiledGuard compile(BooleanExpression expr)
+    {
+        Set<String> paramSet = expr.getParam();
+        String[] params = paramSet.toArray(new String[paramSet.size()]);
+        Arrays.sort(params);
+
+        if (params.length > MAX_PARAMS)
+        {
+            assign(expr, params, 0L);
+            return new CompiledGuard(params, null, expr.isSet(), expr);
+        }
+
+        int rows = 1 << params.length;
+        long[] table = new long[(rows + 63) >>> 6];
+        boolean set = true;
+        for (int mask = 0; mask < rows; mask++)
+        {
+            assign(expr, params, mask);
+            set = expr.isSet();
+            if (!set) break;
+            if (expr.getValue())
+                table[mask >>> 6] |= (1L << mask);
+        }
+        return new CompiledGuard(params, table, set, null);
+    }
+
+/******************************************************************************
+ ** EVALUATION
+ ******************************************************************************/
+
+    /**
+     * Returns the number of parameters of the guard
+     * @return The number of parameters
+     */
+    public int size()
+    {
+        return _params.length;
+    }
+
+    /**
+     * Returns the name of the parameter at the given bit position
+     * @param bit The bit position
+     * @return The parameter name
+     */
+    public String getParam(int bit)
+    {
+        return _params[bit];
+    }
+
+    /**
+     * Returns true if the guard has a value once all its parameters are set
+     * (false e.g. for a guard on a constant that cannot be set).
+     * @return True if the guard can be evaluated
+     */
+    public boolean isSet()
+    {
+        return _set;
+    }
+
+    /**
+     * Evaluates the guard for the given assignment
+     * @param mask Bit i holds the value of the i-th parameter
+     * @return The value of the guard
+     */
+    public boolean evaluate(long mask)
+    {
+        if (!_set)
+            throw new RuntimeException("Guard is not set");
+        if (_table == null)
+        {
+            // The expression is shared by all the users of the guard
+            synchronized (_expr)
+            {
+                assign(_expr, _params, mask);
+                return _expr.getValue();
+            }
+        }
+        int row = (int) mask;
+        return ((_table[row >>> 6] >>> row) & 1L) != 0;
+    }
+
+/******************************************************************************
+ ** PRIVATE METHODS
+ ******************************************************************************/
+
+    /**
+     * Sets the parameters of the expression to the bits of the mask
+     */
+    private static void assign(BooleanExpression expr, String[] params,
+        long mask)
+    {
+        for (int i = 0; i < params.length; i++)
+            expr.setValue(params[i], ((mask >>> i) & 1L) != 0);
+    }
+}
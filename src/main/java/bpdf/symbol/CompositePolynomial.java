@@ -71,7 +71,7 @@ public class CompositePolynomial extends CompositeExpression
  ** GETTERS
  ******************************************************************************/
 
-    public ArrayList getList()
+    public ArrayList<Expression> getList()
     {
         return _expList;
     }
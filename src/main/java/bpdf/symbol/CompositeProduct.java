@@ -71,7 +71,7 @@ public class CompositeProduct extends CompositeExpression
         _expList.addAll(exprList);
     }
 
-    public ArrayList getList()
+    public ArrayList<Expression> getList()
     {
         return _expList;
     }
@@ -106,6 +106,24 @@ public class Equation
         else throw new RuntimeException("Non existing factor in the equation");
     }
 
+    /**
+     * Returns the first unknown factor of the equation
+     * @return The first unknown factor
+     */
+    public String getFirstFactor()
+    {
+        return sol1;
+    }
+
+    /**
+     * Returns the second unknown factor of the equation
+     * @return The second unknown factor
+     */
+    public String getSecondFactor()
+    {
+        return sol2;
+    }
+
     /** 
      * Return whether the unknown factors of the equations
      * are already solved
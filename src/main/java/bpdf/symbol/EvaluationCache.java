@@ -0,0 +1,157 @@
+// EvaluationCache.java
+package bpdf.symbol;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memo of evaluated expressions, keyed by the expression and the values
+ * given to the parameters. Products, fractions and polynomials are compared
+ * by structure (composites by identity), so the rates, periods and
+ * constraint functions that every scheduler of a graph builds anew are
+ * substituted only once for the same values. A cache is owned by a graph
+ * and shared by the runs over it, which may look it up from any thread.
+ * The keys and results are copies, so marking an expression with
+ * ceiling() or floor() does not change what is cached. An expression keeps
+ * the results of at most MAX_VALUES values and the cache at most
+ * MAX_EXPRESSIONS expressions; past these, they start over empty.
+ */
+public final class EvaluationCache
+{
+/******************************************************************************
+ ** PRIVATE PARAMETERS
+ ******************************************************************************/
+
+    /**
+     * The number of expressions kept
+     */
+    public static final int MAX_EXPRESSIONS = 4096;
+
+    /**
+     * The number of values of the parameters kept per expression
+     */
+    public static final int MAX_VALUES = 256;
+
+    /**
+     * Result of an evaluation that left the expression as it was. The
+     * expression given by the caller is returned rather than the key.
+     */
+    private static final Object UNCHANGED = new Object();
+
+    /**
+     * The results of each expression by values of the parameters
+     */
+    private final ConcurrentMap<Expression,
+        ConcurrentMap<Map<String, Integer>, Object>> _memo
+        = new ConcurrentHashMap<Expression,
+            ConcurrentMap<Map<String, Integer>, Object>>();
+
+    /**
+     * Statistics
+     */
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+
+/******************************************************************************
+ ** EVALUATION
+ ******************************************************************************/
+
+    /**
+     * Evaluates the expression for the given values of its parameters,
+     * reusing the result of a previous evaluation with the same values
+     * @param expr The expression
+     * @param values The values of the parameters
+     * @return The resulting expression
+     */
+    public Expression evaluate(Expression expr, Map<String, Integer> values)
+    {
+        ConcurrentMap<Map<String, Integer>, Object> results = _memo.get(expr);
+        if (results == null)
+        {
+            if (_memo.size() >= MAX_EXPRESSIONS)
+                _memo.clear();
+            ConcurrentMap<Map<String, Integer>, Object> created
+                = new ConcurrentHashMap<Map<String, Integer>, Object>();
+            results = _memo.putIfAbsent(copy(expr), created);
+            if (results == null)
+                results = created;
+        }
+
+        Object cached = results.get(values);
+        if (cached != null)
+        {
+            _hits.incrementAndGet();
+            return (cached == UNCHANGED) ? expr : copy((Expression) cached);
+        }
+
+        _misses.incrementAndGet();
+        Expression res = expr.evaluate(values);
+        if (results.size() >= MAX_VALUES)
+            results.clear();
+        results.put(
+            Collections.unmodifiableMap(new HashMap<String, Integer>(values)),
+            (res == expr) ? UNCHANGED : copy(res));
+        return res;
+    }
+
+    /**
+     * Evaluates the product for the given values of its parameters,
+     * reusing the result of a previous evaluation with the same values
+     * @param prod The product
+     * @param values The values of the parameters
+     * @return The resulting product
+     */
+    public Product evaluate(Product prod, Map<String, Integer> values)
+    {
+        return (Product) evaluate((Expression) prod, values);
+    }
+
+    /**
+     * Empties the cache
+     */
+    public void clear()
+    {
+        _memo.clear();
+        _hits.set(0);
+        _misses.set(0);
+    }
+
+    /**
+     * Returns a copy of a fraction or polynomial, which ceiling() and
+     * floor() change. Products and composites are returned as they are.
+     */
+    private static Expression copy(Expression expr)
+    {
+        if (expr instanceof Fraction)
+            return ((Fraction) expr).copy();
+        if (expr instanceof Polynomial)
+            return ((Polynomial) expr).copy();
+        return expr;
+    }
+
+/******************************************************************************
+ ** STATISTICS
+ ******************************************************************************/
+
+    /**
+     * Returns the number of evaluations answered from the cache
+     * @return The number of hits
+     */
+    public long getHits()
+    {
+        return _hits.get();
+    }
+
+    /**
+     * Returns the number of evaluations that were carried out
+     * @return The number of misses
+     */
+    public long getMisses()
+    {
+        return _misses.get();
+    }
+}
@@ -0,0 +1,174 @@
+// ExactArithmetic.java
+package bpdf.symbol;
+
+/**
+ * Exact integer arithmetic for the numeric parts of expressions.
+ * Operations are carried out in long and narrowed back to int, throwing an
+ * ArithmeticException instead of silently wrapping around (long operations
+ * are checked the same way). Divisions round exactly, without
+ * going through floating point.
+ */
+public final class ExactArithmetic
+{
+    private ExactArithmetic(){}
+
+/******************************************************************************
+ ** NARROWING
+ ******************************************************************************/
+
+    /**
+     * Narrows a long to int
+     * @param value The value
+     * @return The value as an int
+     * @throws ArithmeticException if the value does not fit in an int
+     */
+    public static int toInt(long value)
+    {
+        if ((int) value != value)
+            throw new ArithmeticException("Integer overflow: " + value);
+        return (int) value;
+    }
+
+/******************************************************************************
+ ** OPERATIONS
+ ******************************************************************************/
+
+    /**
+     * Returns a + b
+     * @param a The first operand
+     * @param b The second operand
+     * @return The sum
+     */
+    public static int add(int a, int b)
+    {
+        return toInt((long) a + b);
+    }
+
+    /**
+     * Returns a + b for longs
+     * @param a The first operand
+     * @param b The second operand
+     * @return The sum
+     * @throws ArithmeticException if the sum does not fit in a long
+     */
+    public static long add(long a, long b)
+    {
+        long res = a + b;
+        if (((a ^ res) & (b ^ res)) < 0)
+            throw new ArithmeticException("Long overflow: " + a + "+" + b);
+        return res;
+    }
+
+    /**
+     * Returns a * b
+     * @param a The first operand
+     * @param b The second operand
+     * @return The product
+     */
+    public static int multiply(int a, int b)
+    {
+        return toInt((long) a * b);
+    }
+
+    /**
+     * Returns a * b for longs
+     * @param a The first operand
+     * @param b The second operand
+     * @return The product
+     * @throws ArithmeticException if the product does not fit in a long
+     */
+    public static long multiply(long a, long b)
+    {
+        long res = a * b;
+        if (((Math.abs(a) | Math.abs(b)) >>> 31) != 0)
+        {
+            if (((b != 0) && (res / b != a))
+                || ((a == Long.MIN_VALUE) && (b == -1)))
+                throw new ArithmeticException("Long overflow: " + a + "*" + b);
+        }
+        return res;
+    }
+
+    /**
+     * Returns -a
+     * @param a The operand
+     * @return The negation
+     */
+    public static int negate(int a)
+    {
+        return toInt(-(long) a);
+    }
+
+    /**
+     * Returns base^power
+     * @param base The base
+     * @param power The non negative exponent
+     * @return The power
+     * @throws ArithmeticException if the power does not fit in an int
+     */
+    public static int pow(int base, int power)
+    {
+        if (power < 0)
+            throw new ArithmeticException("Negative exponent: " + power);
+        if ((base == 0) || (base == 1))
+            return (power == 0) ? 1 : base;
+        if (base == -1)
+            return (power % 2 == 0) ? 1 : -1;
+
+        // |base| >= 2, so at most 32 steps before leaving the int range
+        long res = 1;
+        for (int i = 0; i < power; i++)
+        {
+            res *= base;
+            if ((int) res != res)
+                throw new ArithmeticException("Integer overflow: "
+                    + base + "^" + power);
+        }
+        return (int) res;
+    }
+
+    /**
+     * Integer division rounding towards negative infinity
+     * @param a The numerator
+     * @param b The non zero denominator
+     * @return floor(a/b)
+     */
+    public static long floorDiv(long a, long b)
+    {
+        long q = a / b;
+        if ((a % b != 0) && ((a < 0) != (b < 0))) q--;
+        return q;
+    }
+
+    /**
+     * Integer division rounding towards positive infinity
+     * @param a The numerator
+     * @param b The non zero denominator
+     * @return ceil(a/b)
+     */
+    public static long ceilDiv(long a, long b)
+    {
+        long q = a / b;
+        if ((a % b != 0) && ((a < 0) == (b < 0))) q++;
+        return q;
+    }
+
+    /**
+     * Greatest Common Divisor of two longs, always non negative
+     * @param a The first value
+     * @param b The second value
+     * @return Their GCD
+     */
+    public static long gcd(long a, long b)
+    {
+        a = Math.abs(a);
+        b = Math.abs(b);
+        while (b != 0)
+        {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -1,6 +1,8 @@
 // Expression.java
 package bpdf.symbol;
 
+import java.util.Map;
+
 /**
  * Abstract class for symbolic expressions
  * @author Vagelis Bebelis
@@ -19,6 +21,21 @@ public abstract class Expression
 	public abstract Expression evaluate(String str, Integer value);
 	public abstract Expression ceiling();
 	public abstract Expression floor();
+
+	/**
+	 * Evaluates the expression for the given values of its parameters.
+	 * Parameters without a value are left as they are. Products, Fractions
+	 * and Polynomials substitute all the values in a single pass.
+	 * @param values The values of the parameters
+	 * @return The resulting expression
+	 */
+	public Expression evaluate(Map<String, Integer> values)
+	{
+		Expression res = this;
+		for (Map.Entry<String, Integer> entry : values.entrySet())
+			res = res.evaluate(entry.getKey(), entry.getValue());
+		return res;
+	}
 	
 /******************************************************************************
  ** PROPERTY CHECK
@@ -2,10 +2,7 @@
 package bpdf.symbol;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
-import java.lang.Math;
 
 /**
  * Fraction expressions
@@ -217,15 +214,32 @@ public class Fraction extends Expression
      */
     public Expression evaluate(String str, Integer n)
     {
-        Product evalNum = (Product) _num.evaluate(str,n);
-        Product evalDenom = (Product) _denom.evaluate(str,n);
+        return round(_num.evaluate(str,n), _denom.evaluate(str,n));
+    }
+
+    /**
+     * Evaluates the fraction for the given values of its parameters
+     * @param values The values of the parameters
+     * @return The resulting expression
+     */
+    public Expression evaluate(Map<String, Integer> values)
+    {
+        return round(_num.evaluate(values), _denom.evaluate(values));
+    }
+
+    /**
+     * Returns the fraction of the evaluated numerator and denominator,
+     * rounded if this is under a ceiling or floor
+     */
+    private Expression round(Product evalNum, Product evalDenom)
+    {
         Fraction resFrac = new Fraction(evalNum,evalDenom);
 
         if (ceiling)
             if (evalNum.isNumber() && evalDenom.isNumber())
             {
-                int ceiling = (int) Math.ceil((double)evalNum.getNumber() / 
-                    (double) evalDenom.getNumber());
+                int ceiling = ExactArithmetic.toInt(ExactArithmetic.ceilDiv(
+                    evalNum.getNumber(), evalDenom.getNumber()));
                 Product resProd = new Product(ceiling);
                 return resProd;
             }
@@ -234,8 +248,8 @@ public class Fraction extends Expression
         else if (floor)
             if (evalNum.isNumber() && evalDenom.isNumber())
             {   
-                int floor = (int) Math.floor((double) evalNum.getNumber() /
-                    (double) evalDenom.getNumber());
+                int floor = ExactArithmetic.toInt(ExactArithmetic.floorDiv(
+                    evalNum.getNumber(), evalDenom.getNumber()));
                 Product resProd = new Product(floor);
                 return resProd;
             }
@@ -252,6 +266,9 @@ public class Fraction extends Expression
     {
         if (this.isProduct())
             return this.getProduct();
+        else if (_num.isNumber() && _denom.isNumber())
+            return new Product(ExactArithmetic.toInt(ExactArithmetic.ceilDiv(
+                _num.getNumber(), _denom.getNumber())));
         else
         {
             ceiling = true;
@@ -267,6 +284,9 @@ public class Fraction extends Expression
     {
         if (this.isProduct())
             return this.getProduct();
+        else if (_num.isNumber() && _denom.isNumber())
+            return new Product(ExactArithmetic.toInt(ExactArithmetic.floorDiv(
+                _num.getNumber(), _denom.getNumber())));
         else
         {
             floor = true;
@@ -274,6 +294,20 @@ public class Fraction extends Expression
         }
     }
 
+    /**
+     * Returns a copy of the fraction, marked as this one is
+     * @return The copy
+     */
+    Fraction copy()
+    {
+        Fraction res = new Fraction();
+        res._num = _num;
+        res._denom = _denom;
+        res.ceiling = ceiling;
+        res.floor = floor;
+        return res;
+    }
+
     
 /******************************************************************************
  ** EXPRESSION METHODS - PROPERTY CHECK
@@ -395,6 +429,28 @@ public class Fraction extends Expression
         return floor;
     }
 
+    /**
+     * Fractions are equal when they have the same numerator, denominator
+     * and ceiling or floor. Fractions that only reduce to each other are
+     * not equal.
+     */
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) return true;
+        if (!(obj instanceof Fraction)) return false;
+        Fraction frac = (Fraction) obj;
+        return (ceiling == frac.ceiling) && (floor == frac.floor)
+            && _num.equals(frac._num) && _denom.equals(frac._denom);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int h = _num.hashCode() * 31 + _denom.hashCode();
+        return h * 4 + (ceiling ? 1 : 0) + (floor ? 2 : 0);
+    }
+
 /******************************************************************************
  ** EXPRESSION METHODS - TRANSFORMATIONS
  ******************************************************************************/
@@ -508,8 +564,7 @@ public class Fraction extends Expression
                 "Denominator cannot be zero (division by zero)");
         }
         // Get the GCD of numerator and denominator
-        HashMap<String, Integer> gcdMap =
-            MapManipulator.gcdMaps(_num.getMap(),_denom.getMap());
+        Monomial gcdMono = _num.getMonomial().gcd(_denom.getMonomial());
         int gcdNumeric = 
             MapManipulator.gcdNum(_num.getNumeric(),_denom.getNumeric());
 
@@ -517,15 +572,10 @@ public class Fraction extends Expression
         boolean sign = !(_num.getSign() ^ _denom.getSign());
 
         // Divide both with it
-        Product newNum = new Product(
-            MapManipulator.subMaps(_num.getMap(),gcdMap),
+        _num = new Product(_num.getMonomial().divide(gcdMono),
             _num.getNumeric()/gcdNumeric,sign);
 
-        Product newDenom = new Product(
-            MapManipulator.subMaps(_denom.getMap(),gcdMap),
+        _denom = new Product(_denom.getMonomial().divide(gcdMono),
             _denom.getNumeric()/gcdNumeric,true);
-        
-        _num = new Product(newNum);
-        _denom = new Product(newDenom);
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,538 @@
+// Monomial.java
+package bpdf.symbol;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The parametric part of a Product (e.g. p^2*q). Parameters are mapped to
+ * small integer ids and the powers are kept in a primitive array sorted by
+ * id. Instances are immutable and interned, so two equal monomials are
+ * always the same object and can be compared with ==. The intern table
+ * only holds them weakly: a monomial no longer used by any expression is
+ * collected, and is created anew if needed again.
+ */
+public final class Monomial
+{
+/******************************************************************************
+ ** PARAMETER REGISTRY
+ ******************************************************************************/
+
+    /**
+     * Map from parameter name to parameter id. Read without locking, only
+     * the registration of a new parameter locks it.
+     */
+    private static final ConcurrentHashMap<String, Integer> _paramIds
+        = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * Parameter names indexed by id, copied on registration. A name is
+     * published here before its id is put in _paramIds.
+     */
+    private static volatile String[] _paramNames = new String[0];
+
+    /**
+     * The number of parameters that can be registered
+     */
+    public static final int MAX_PARAMS = 1 << 16;
+
+    /**
+     * Table holding the canonical instance of every monomial in use. The
+     * instances are weakly referenced, so the ones no longer used can be
+     * collected; their entries are removed on the next interning.
+     */
+    private static final ConcurrentHashMap<Key, Ref> _interned
+        = new ConcurrentHashMap<Key, Ref>();
+
+    /**
+     * Queue of the references of the collected monomials
+     */
+    private static final ReferenceQueue<Monomial> _collected
+        = new ReferenceQueue<Monomial>();
+
+    /**
+     * The monomial with no parameters (equal to 1)
+     */
+    public static final Monomial UNIT = intern(new Key(new int[0], new int[0]));
+
+/******************************************************************************
+ ** PRIVATE PARAMETERS
+ ******************************************************************************/
+
+    /**
+     * Parameter ids in ascending order
+     */
+    private final int[] _ids;
+
+    /**
+     * Power of each parameter, aligned with _ids. Never zero.
+     */
+    private final int[] _powers;
+
+    /**
+     * Precomputed hash code
+     */
+    private final int _hash;
+
+    /**
+     * Cached string representation
+     */
+    private String _string;
+
+/******************************************************************************
+ ** CONSTRUCTORS
+ ******************************************************************************/
+
+    /**
+     * Creates a monomial from the given (already canonical) arrays.
+     * @param key The parameter ids in ascending order and their non-zero
+     * powers
+     */
+    private Monomial(Key key)
+    {
+        _ids = key._ids;
+        _powers = key._powers;
+        _hash = key._hash;
+    }
+
+    /**
+     * Returns the canonical monomial of a single parameter with a power.
+     * @param param The parameter name
+     * @param power The power of the parameter
+     * @return The interned monomial
+     */
+    public static Monomial valueOf(String param, int power)
+    {
+        if (power == 0)
+            return UNIT;
+        if (power < 0)
+            throw new RuntimeException("Negative Exponent!");
+        return intern(new Key(
+            new int[] {paramId(param)}, new int[] {power}));
+    }
+
+    /**
+     * Returns the canonical monomial of a power map. Keys are expected to be
+     * parameter names; numeric keys must be handled by the caller.
+     * @param map The power map
+     * @return The interned monomial
+     */
+    public static Monomial valueOf(Map<String, Integer> map)
+    {
+        Monomial res = UNIT;
+        for (Map.Entry<String, Integer> entry : map.entrySet())
+            res = res.multiply(valueOf(entry.getKey(), entry.getValue()));
+        return res;
+    }
+
+/******************************************************************************
+ ** MATH FUNCTIONS
+ ******************************************************************************/
+
+    /**
+     * Multiplies two monomials (adds the powers of common parameters)
+     * @param mono The monomial to multiply with
+     * @return The resulting monomial
+     */
+    public Monomial multiply(Monomial mono)
+    {
+        if (mono == UNIT) return this;
+        if (this == UNIT) return mono;
+
+        int[] ids = new int[_ids.length + mono._ids.length];
+        int[] powers = new int[ids.length];
+        int i = 0, j = 0, k = 0;
+        while (i < _ids.length || j < mono._ids.length)
+        {
+            if (j == mono._ids.length
+                || (i < _ids.length && _ids[i] < mono._ids[j]))
+            {
+                ids[k] = _ids[i];
+                powers[k++] = _powers[i++];
+            }
+            else if (i == _ids.length || mono._ids[j] < _ids[i])
+            {
+                ids[k] = mono._ids[j];
+                powers[k++] = mono._powers[j++];
+            }
+            else
+            {
+                ids[k] = _ids[i];
+                powers[k++] = _powers[i++] + mono._powers[j++];
+            }
+        }
+        return intern(ids, powers, k);
+    }
+
+    /**
+     * Divides this monomial by the given one (subtracts the powers).
+     * Throws exception if the result has a negative power.
+     * @param mono The divisor
+     * @return The resulting monomial
+     */
+    public Monomial divide(Monomial mono)
+    {
+        if (mono == UNIT) return this;
+        if (mono == this) return UNIT;
+
+        int[] ids = new int[_ids.length];
+        int[] powers = new int[_ids.length];
+        int i = 0, j = 0, k = 0;
+        while (i < _ids.length)
+        {
+            if (j < mono._ids.length && mono._ids[j] < _ids[i])
+                throw new RuntimeException("Negative Subtraction!");
+            if (j < mono._ids.length && mono._ids[j] == _ids[i])
+            {
+                int power = _powers[i] - mono._powers[j++];
+                if (power < 0)
+                    throw new RuntimeException("Negative Subtraction!");
+                if (power > 0)
+                {
+                    ids[k] = _ids[i];
+                    powers[k++] = power;
+                }
+            }
+            else
+            {
+                ids[k] = _ids[i];
+                powers[k++] = _powers[i];
+            }
+            i++;
+        }
+        if (j < mono._ids.length)
+            throw new RuntimeException("Negative Subtraction!");
+        return intern(ids, powers, k);
+    }
+
+    /**
+     * Returns the Greatest Common Divisor of the two monomials (the common
+     * parameters with their minimum powers)
+     * @param mono The given monomial
+     * @return The GCD
+     */
+    public Monomial gcd(Monomial mono)
+    {
+        if (mono == this) return this;
+        if (mono == UNIT || this == UNIT) return UNIT;
+
+        int[] ids = new int[Math.min(_ids.length, mono._ids.length)];
+        int[] powers = new int[ids.length];
+        int i = 0, j = 0, k = 0;
+        while (i < _ids.length && j < mono._ids.length)
+        {
+            if (_ids[i] < mono._ids[j])
+                i++;
+            else if (mono._ids[j] < _ids[i])
+                j++;
+            else
+            {
+                ids[k] = _ids[i];
+                powers[k++] = Math.min(_powers[i++], mono._powers[j++]);
+            }
+        }
+        return intern(ids, powers, k);
+    }
+
+    /**
+     * Returns the monomial without the given parameter
+     * @param param The parameter to remove
+     * @return The resulting monomial
+     */
+    public Monomial remove(String param)
+    {
+        int idx = indexOf(param);
+        if (idx < 0) return this;
+
+        int[] ids = new int[_ids.length - 1];
+        int[] powers = new int[ids.length];
+        System.arraycopy(_ids, 0, ids, 0, idx);
+        System.arraycopy(_powers, 0, powers, 0, idx);
+        System.arraycopy(_ids, idx + 1, ids, idx, ids.length - idx);
+        System.arraycopy(_powers, idx + 1, powers, idx, ids.length - idx);
+        return intern(ids, powers, ids.length);
+    }
+
+/******************************************************************************
+ ** PROPERTY CHECK
+ ******************************************************************************/
+
+    /**
+     * Returns true if the monomial has no parameters
+     * @return True if equal to 1
+     */
+    public boolean isUnit()
+    {
+        return (_ids.length == 0);
+    }
+
+    /**
+     * Returns the power of the given parameter, 0 if not present
+     * @param param The parameter name
+     * @return The power of the parameter
+     */
+    public int getPower(String param)
+    {
+        int idx = indexOf(param);
+        if (idx < 0) return 0;
+        return _powers[idx];
+    }
+
+    /**
+     * Returns true if the monomial contains the given parameter
+     * @param param The parameter name
+     * @return True if the parameter is present
+     */
+    public boolean contains(String param)
+    {
+        return (indexOf(param) >= 0);
+    }
+
+/******************************************************************************
+ ** TRANSFORMATIONS
+ ******************************************************************************/
+
+    /**
+     * Returns the number of parameters in the monomial
+     * @return The number of parameters
+     */
+    public int size()
+    {
+        return _ids.length;
+    }
+
+    /**
+     * Returns the name of the i-th parameter (in id order)
+     * @param i The index of the parameter
+     * @return The parameter name
+     */
+    public String getParam(int i)
+    {
+        return paramName(_ids[i]);
+    }
+
+    /**
+     * Returns the power of the i-th parameter (in id order)
+     * @param i The index of the parameter
+     * @return The parameter power
+     */
+    public int getPowerAt(int i)
+    {
+        return _powers[i];
+    }
+
+    /**
+     * Returns a new power map of the monomial
+     * @return The power map
+     */
+    public HashMap<String, Integer> toMap()
+    {
+        HashMap<String, Integer> map = new HashMap<String, Integer>();
+        for (int i = 0; i < _ids.length; i++)
+            map.put(paramName(_ids[i]), _powers[i]);
+        return map;
+    }
+
+    /**
+     * Returns the set of parameters of the monomial
+     * @return The set of parameter names
+     */
+    public Set<String> getParamSet()
+    {
+        Set<String> params = new LinkedHashSet<String>();
+        for (int i = 0; i < _ids.length; i++)
+            params.add(paramName(_ids[i]));
+        return params;
+    }
+
+    /**
+     * Returns the monomial as a string (parameters in alphabetical order)
+     * @return The string representation, empty for the unit monomial
+     */
+    public String getString()
+    {
+        String res = _string;
+        if (res == null)
+        {
+            String[] factors = new String[_ids.length];
+            for (int i = 0; i < _ids.length; i++)
+            {
+                factors[i] = paramName(_ids[i]);
+                if (_powers[i] != 1) factors[i] += "^" + _powers[i];
+            }
+            Arrays.sort(factors);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < factors.length; i++)
+            {
+                if (i > 0) sb.append('*');
+                sb.append(factors[i]);
+            }
+            res = sb.toString();
+            _string = res;
+        }
+        return res;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) return true;
+        if (!(obj instanceof Monomial)) return false;
+        Monomial mono = (Monomial) obj;
+        return (_hash == mono._hash) && Arrays.equals(_ids, mono._ids)
+            && Arrays.equals(_powers, mono._powers);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return _hash;
+    }
+
+/******************************************************************************
+ ** PRIVATE METHODS
+ ******************************************************************************/
+
+    /**
+     * Returns the position of the given parameter in _ids, -1 if absent
+     */
+    private int indexOf(String param)
+    {
+        Integer id = _paramIds.get(param);
+        if (id == null) return -1;
+        int idx = Arrays.binarySearch(_ids, id);
+        return (idx < 0) ? -1 : idx;
+    }
+
+    /**
+     * Returns the canonical instance of the first len entries of the arrays
+     */
+    private static Monomial intern(int[] ids, int[] powers, int len)
+    {
+        if (len == 0) return UNIT;
+        if (len < ids.length)
+        {
+            ids = Arrays.copyOf(ids, len);
+            powers = Arrays.copyOf(powers, len);
+        }
+        return intern(new Key(ids, powers));
+    }
+
+    /**
+     * Returns the canonical instance of the given arrays, created if no
+     * monomial in use has them
+     */
+    private static Monomial intern(Key key)
+    {
+        expunge();
+        while (true)
+        {
+            Ref ref = _interned.get(key);
+            Monomial mono = (ref == null) ? null : ref.get();
+            if (mono != null)
+                return mono;
+            mono = new Monomial(key);
+            Ref created = new Ref(mono, key);
+            if ((ref == null) ? (_interned.putIfAbsent(key, created) == null)
+                : _interned.replace(key, ref, created))
+                return mono;
+        }
+    }
+
+    /**
+     * Removes the entries of the collected monomials from _interned
+     */
+    private static void expunge()
+    {
+        Ref ref;
+        while ((ref = (Ref) _collected.poll()) != null)
+            _interned.remove(ref._key, ref);
+    }
+
+    /**
+     * Returns the id of a parameter, registering it if needed
+     */
+    private static int paramId(String param)
+    {
+        Integer id = _paramIds.get(param);
+        if (id != null)
+            return id;
+        synchronized (_paramIds)
+        {
+            id = _paramIds.get(param);
+            if (id == null)
+            {
+                if (_paramNames.length == MAX_PARAMS)
+                    throw new RuntimeException("Too many parameters: "
+                        + param);
+                String[] names = Arrays.copyOf(_paramNames,
+                    _paramNames.length + 1);
+                id = _paramNames.length;
+                names[id] = param;
+                _paramNames = names;
+                _paramIds.put(param, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Returns the name of a parameter id
+     */
+    private static String paramName(int id)
+    {
+        return _paramNames[id];
+    }
+
+    /**
+     * The parameter ids and powers of a monomial, the key of _interned
+     */
+    private static final class Key
+    {
+        final int[] _ids;
+        final int[] _powers;
+        final int _hash;
+
+        Key(int[] ids, int[] powers)
+        {
+            _ids = ids;
+            _powers = powers;
+            _hash = 31 * Arrays.hashCode(ids) + Arrays.hashCode(powers);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key)) return false;
+            Key key = (Key) obj;
+            return (_hash == key._hash) && Arrays.equals(_ids, key._ids)
+                && Arrays.equals(_powers, key._powers);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return _hash;
+        }
+    }
+
+    /**
+     * Weak reference to an interned monomial, along with its key
+     */
+    private static final class Ref extends WeakReference<Monomial>
+    {
+        final Key _key;
+
+        Ref(Monomial mono, Key key)
+        {
+            super(mono, _collected);
+            _key = key;
+        }
+    }
+}
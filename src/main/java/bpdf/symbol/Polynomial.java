@@ -2,10 +2,20 @@
 package bpdf.symbol;
 
 import java.util.ArrayList;
-import java.util.ListIterator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 /**
- * Polynomial expressions
+ * Polynomial expressions, kept in a canonical sparse form. A plain term is
+ * a rational coefficient times a ratio of two interned monomials (e.g.
+ * 3/2 * p/q). Terms with the same monomials are merged as they are added,
+ * so there is at most one term per pair of monomials and no zero term. The
+ * terms are found through an open addressing table: add and multiply cost
+ * in proportion to the number of terms and equality is a term by term
+ * comparison. Terms under a ceiling or floor and composites cannot be
+ * merged and are kept as they are.
  * @author Vagelis Bebelis
  */
 public class Polynomial extends Expression
@@ -14,13 +24,41 @@ public class Polynomial extends Expression
 /******************************************************************************
  ** PRIVATE PARAMETERS
  ******************************************************************************/
-    
+
+    /**
+     * The number of terms
+     */
+    private int _size = 0;
+
+    /**
+     * Numerator and denominator monomials of each plain term
+     */
+    private Monomial[] _nums = new Monomial[4];
+    private Monomial[] _denoms = new Monomial[4];
+
+    /**
+     * Coefficient of each plain term as a reduced fraction with a positive
+     * denominator. Both parts fit in an int.
+     */
+    private long[] _coeffNums = new long[4];
+    private long[] _coeffDenoms = new long[4];
+
+    /**
+     * The terms kept as they are, null for plain terms
+     */
+    private Expression[] _opaque = new Expression[4];
+
+    /**
+     * Open addressing table of the plain terms (position + 1, 0 if empty)
+     */
+    private int[] _table = new int[8];
+
     /**
-     * A list holding the polynomial's fractions
+     * True if merging left zero terms to be removed
      */
-    private ArrayList<Expression> _expList = new ArrayList<Expression>();
+    private boolean _hasZeros = false;
 
-    /** 
+    /**
      * Guards indicating whether a floor or ceiling is imposed on the expression
      */
     private boolean ceiling = false;
@@ -29,14 +67,14 @@ public class Polynomial extends Expression
 /******************************************************************************
  ** CONSTRUCTORS
  ******************************************************************************/
-       
+
     /**
      * Creates an empty Polynomial
      */
     public Polynomial()
     {
     }
-        
+
     /**
      * Creates a polynomial with a single expression
      * @param expr
@@ -48,16 +86,10 @@ public class Polynomial extends Expression
             throw new RuntimeException(
                 "Construction of Simple out of Composite");
         }
-
-        if (expr instanceof Polynomial)
-        {
-            Polynomial poly = (Polynomial) expr;
-            _expList.addAll(poly.getList());
-        }
-       _expList.add(expr);
-       normalize();
+        append(expr);
+        compact();
     }
-        
+
     /**
      * Creates a polynomial using the given list of Expressions
      * @param expr
@@ -65,18 +97,10 @@ public class Polynomial extends Expression
     public Polynomial(ArrayList<Expression> expr)
     {
         for (Expression expression : expr)
-        {
-            if (expression instanceof Polynomial)
-            {
-                Polynomial poly = (Polynomial) expression;
-                _expList.addAll(poly.getList());
-            }
-            else
-            _expList.add(expression);        
-        }
-        normalize();
+            append(expression);
+        compact();
     }
-        
+
 /******************************************************************************
  ** EXPRESSION METHODS - MATH FUNCTIONS
  ******************************************************************************/
@@ -85,16 +109,20 @@ public class Polynomial extends Expression
      * Adds this polynomial to another expression.
      * Returns the sum as a new polynomial
      * @param expr Expression to add with
-     * @return The resulting sum 
+     * @return The resulting sum
      */
     public Expression add (Expression expr)
     {
-        ArrayList<Expression> resList = new ArrayList<Expression>();
-        resList.addAll(_expList);
-        resList.addAll(expr.getPolynomial().getList());
-        return new Polynomial(resList);
+        if (expr instanceof CompositeExpression)
+            expr = expr.getPolynomial();
+
+        Polynomial res = new Polynomial();
+        res.append(this);
+        res.append(expr);
+        res.compact();
+        return res;
     }
-    
+
     /**
      * Multiplies this polynomial with a polynomial
      * Returns the product as a new polynomial
@@ -103,22 +131,34 @@ public class Polynomial extends Expression
      */
     public Expression multiply (Expression expr)
     {
+        if (this.hasCeiling() || this.hasFloor())
+            return new CompositeProduct(expr,this);
+        if ((expr instanceof Polynomial) && (expr.hasCeiling()
+            || expr.hasFloor()))
+            return new CompositeProduct(this,expr);
+
         Polynomial poly = expr.getPolynomial();
-        ArrayList<Expression> resList = new ArrayList<Expression>();
-        
-        for (int i = 0; i < _expList.size(); i++)
+        Polynomial res = new Polynomial();
+        for (int i = 0; i < _size; i++)
         {
-            for (int j = 0; j < poly.getList().size(); j++)
+            for (int j = 0; j < poly._size; j++)
             {
-                Expression currFrac = 
-                    _expList.get(i).multiply(poly.getList().get(j));
-                resList.add(currFrac);
+                if ((_opaque[i] == null) && (poly._opaque[j] == null))
+                {
+                    res.addProduct(_nums[i], _denoms[i],
+                        _coeffNums[i], _coeffDenoms[i],
+                        poly._nums[j], poly._denoms[j],
+                        poly._coeffNums[j], poly._coeffDenoms[j]);
+                }
+                else
+                    res.append(term(i).multiply(poly.term(j)));
             }
         }
-        return new Polynomial(resList);
+        res.compact();
+        return res;
     }
-    
-    /** 
+
+    /**
      * Divides this Polynomial with the given Expression
      * @param expr The denominator
      * @return An Expression with the result of the division
@@ -127,19 +167,45 @@ public class Polynomial extends Expression
     {
         if (expr instanceof Polynomial)
             throw new RuntimeException("Cannot divide by a polymomial");
-        else
+        if (expr.isZero()) throw new RuntimeException("Cannot divide by 0!");
+
+        // Plain divisors are multiplied in as their inverse
+        Product num = null;
+        Product denom = null;
+        if (expr instanceof Product)
+        {
+            num = (Product) expr;
+            denom = new Product(1);
+        }
+        else if ((expr instanceof Fraction)
+            && !expr.hasCeiling() && !expr.hasFloor())
+        {
+            num = ((Fraction) expr).getNum();
+            denom = ((Fraction) expr).getDenom();
+        }
+
+        Polynomial res = new Polynomial();
+        for (int i = 0; i < _size; i++)
         {
-            ArrayList<Expression> resList = new ArrayList<Expression>();
-            for (int i = 0; i < this.getList().size(); i++)
+            if ((num != null) && (_opaque[i] == null))
             {
-                Expression currFrac = _expList.get(i).divide(expr);
-                resList.add(currFrac);
+                long invNum = denom.getNumeric();
+                long invDenom = num.getNumeric();
+                if (num.getSign() != denom.getSign())
+                    invNum = -invNum;
+                res.addProduct(_nums[i], _denoms[i],
+                    _coeffNums[i], _coeffDenoms[i],
+                    denom.getMonomial(), num.getMonomial(),
+                    invNum, invDenom);
             }
-            return new Polynomial(resList);
+            else
+                res.append(term(i).divide(expr));
         }
+        res.compact();
+        return res;
     }
-    
-    /** 
+
+    /**
      * Returns an expression of the Greater Common Divisor
      * between this and the given expression
      * @param expr The given expression
@@ -147,31 +213,32 @@ public class Polynomial extends Expression
      */
     public Product gcd (Expression expr)
     {
-        Polynomial poly = expr.getPolynomial();
+        List<Expression> terms = getList();
+        List<Expression> polyTerms = expr.getPolynomial().getList();
         Product thisGCD;
         Product polyGCD;
-        
-        if (this.getList().size() < 2)
-            thisGCD = _expList.get(0).getFraction().getNum();
+
+        if (terms.size() < 2)
+            thisGCD = terms.get(0).getFraction().getNum();
         else
         {
-            thisGCD = _expList.get(0).gcd(_expList.get(1));
-            for (int i = 2;  i < _expList.size(); i++)
-                thisGCD = thisGCD.gcd(_expList.get(i));
+            thisGCD = terms.get(0).gcd(terms.get(1));
+            for (int i = 2;  i < terms.size(); i++)
+                thisGCD = thisGCD.gcd(terms.get(i));
         }
 
-        if (poly.getList().size() < 2)
-            polyGCD = poly.getList().get(0).getFraction().getNum();
+        if (polyTerms.size() < 2)
+            polyGCD = polyTerms.get(0).getFraction().getNum();
         else
         {
-            polyGCD = poly.getList().get(0).gcd(this.getList().get(1));
-            for (int i = 2;  i < poly.getList().size(); i++)
-                polyGCD = polyGCD.gcd(poly.getList().get(i));
+            polyGCD = polyTerms.get(0).gcd(polyTerms.get(1));
+            for (int i = 2;  i < polyTerms.size(); i++)
+                polyGCD = polyGCD.gcd(polyTerms.get(i));
         }
 
         return thisGCD.gcd(polyGCD);
     }
-    
+
     /**
      * TODO add an lcm function
      */
@@ -184,51 +251,78 @@ public class Polynomial extends Expression
      */
     public Expression evaluate (String str, Integer n)
     {
-        ArrayList<Expression> resList = new ArrayList<Expression>();
-
-        for (int i = 0; i < _expList.size();i++)
-            resList.add(_expList.get(i).evaluate(str,n));
+        return evaluate(Collections.singletonMap(str,n));
+    }
 
-        Polynomial resPoly = new Polynomial(resList);
+    /**
+     * Evaluates the polynomial for the given values of its parameters
+     * @param values The values of the parameters
+     * @return The resulting expression
+     */
+    public Expression evaluate(Map<String, Integer> values)
+    {
+        Polynomial resPoly = new Polynomial();
 
-        if (ceiling)
-            if (resPoly.isFraction())
+        for (int i = 0; i < _size; i++)
+        {
+            if (_opaque[i] != null)
             {
-                Product num = resPoly.getFraction().getNum();
-                Product denom = resPoly.getFraction().getDenom();
-                if (num.isNumber() && denom.isNumber())
-                {
-                    int ceiling = (int)
-                        Math.ceil((double) num.getNumber() / 
-                            (double) denom.getNumber());
-                    Product resProd = new Product(ceiling);
-                    return resProd;
-                }
-                else
-                    return resPoly.ceiling();
+                resPoly.append(_opaque[i].evaluate(values));
+                continue;
             }
-            else
-                return resPoly.ceiling();
-        else if (floor)
-            if (resPoly.isFraction())
+            Monomial resNum = _nums[i];
+            long num = _coeffNums[i];
+            for (int k = 0; k < _nums[i].size(); k++)
             {
-                Product num = resPoly.getFraction().getNum();
-                Product denom = resPoly.getFraction().getDenom();
-                if (num.isNumber() && denom.isNumber())
-                {   
-                int floor = (int)
-                    Math.floor((double) num.getNumber() /
-                        (double) denom.getNumber());
-                Product resProd = new Product(floor);
-                return resProd;
-                }
-                else
-                    return resPoly.floor();
+                Integer n = values.get(_nums[i].getParam(k));
+                if (n == null)
+                    continue;
+                num = ExactArithmetic.multiply(num,
+                    ExactArithmetic.pow(n,_nums[i].getPowerAt(k)));
+                resNum = resNum.remove(_nums[i].getParam(k));
             }
-            else
-                return resPoly.floor();
-        else
+            Monomial resDenom = _denoms[i];
+            long denom = _coeffDenoms[i];
+            for (int k = 0; k < _denoms[i].size(); k++)
+            {
+                Integer n = values.get(_denoms[i].getParam(k));
+                if (n == null)
+                    continue;
+                denom = ExactArithmetic.multiply(denom,
+                    ExactArithmetic.pow(n,_denoms[i].getPowerAt(k)));
+                resDenom = resDenom.remove(_denoms[i].getParam(k));
+            }
+            if (denom == 0)
+            {
+                throw new RuntimeException(
+                    "Denominator cannot be zero (division by zero)");
+            }
+            resPoly.addTerm(resNum, resDenom, num, denom);
+        }
+        resPoly.compact();
+
+        if (!ceiling && !floor)
             return resPoly;
+
+        // A single numeric fraction is rounded right away
+        long num = 0;
+        long denom = 1;
+        if (resPoly._size == 1)
+        {
+            if ((resPoly._opaque[0] != null) || !resPoly.isConstant(0))
+                return ceiling ? resPoly.ceiling() : resPoly.floor();
+            num = resPoly._coeffNums[0];
+            denom = resPoly._coeffDenoms[0];
+        }
+        else if (resPoly._size > 1)
+            return ceiling ? resPoly.ceiling() : resPoly.floor();
+
+        if (ceiling)
+            return new Product(ExactArithmetic.toInt(
+                ExactArithmetic.ceilDiv(num, denom)));
+        else
+            return new Product(ExactArithmetic.toInt(
+                ExactArithmetic.floorDiv(num, denom)));
     }
 
     /**
@@ -259,44 +353,77 @@ public class Polynomial extends Expression
         }
     }
 
+    /**
+     * Returns a copy of the polynomial, marked as this one is. The terms
+     * kept as they are get copied as well.
+     * @return The copy
+     */
+    Polynomial copy()
+    {
+        Polynomial res = new Polynomial();
+        res._size = _size;
+        res._nums = _nums.clone();
+        res._denoms = _denoms.clone();
+        res._coeffNums = _coeffNums.clone();
+        res._coeffDenoms = _coeffDenoms.clone();
+        res._opaque = _opaque.clone();
+        res._table = _table.clone();
+        res._hasZeros = _hasZeros;
+        res.ceiling = ceiling;
+        res.floor = floor;
+        for (int i = 0; i < _size; i++)
+        {
+            if (_opaque[i] instanceof Fraction)
+                res._opaque[i] = ((Fraction) _opaque[i]).copy();
+            else if (_opaque[i] instanceof Polynomial)
+                res._opaque[i] = ((Polynomial) _opaque[i]).copy();
+        }
+        return res;
+    }
+
 /******************************************************************************
  ** EXPRESSION METHODS - PROPERTY CHECK
  ******************************************************************************/
-    
-    /** 
-     * Compares this with another expression
+
+    /**
+     * Compares this with another expression. Both are equal if they have
+     * the same terms.
      * @param expr The expression to compare with
      * @return True if they are equal, false otherwise
      */
     public boolean isEqualTo(Expression expr)
     {
-        if (expr instanceof Polynomial)
+        if (expr instanceof CompositeExpression)
+            return false;
+        Polynomial poly = (expr instanceof Polynomial)
+            ? (Polynomial) expr : new Polynomial(expr);
+        if (_size != poly._size)
+            return false;
+
+        List<String> opaque = new ArrayList<String>();
+        for (int i = 0; i < _size; i++)
         {
-            Polynomial poly = expr.getPolynomial();
-            for (int i = 0; i < _expList.size();i++)
+            if (_opaque[i] != null)
             {
-                for (int j = 0; j < poly.getList().size(); j++)
-                {
-                    if (_expList.get(i).isEqualTo(poly.getList().get(j)))
-                    {
-                        poly.getList().remove(j);
-                        break;
-                    }
-                }
+                opaque.add(_opaque[i].getString());
+                continue;
             }
-            if (poly.getList().isEmpty()) 
-                return true;
-            else
+            int j = poly.find(_nums[i], _denoms[i]);
+            if ((j < 0) || (_coeffNums[i] != poly._coeffNums[j])
+                || (_coeffDenoms[i] != poly._coeffDenoms[j]))
                 return false;
         }
-        else
+
+        // Only the terms kept as they are are left, compared by string
+        List<String> polyOpaque = new ArrayList<String>();
+        for (int j = 0; j < poly._size; j++)
         {
-            Expression tmpExpr = this.divide(expr);
-            if (tmpExpr.isUnit())
-                return true;
-            else
-                return false;
+            if (poly._opaque[j] != null)
+                polyOpaque.add(poly._opaque[j].getString());
         }
+        Collections.sort(opaque);
+        Collections.sort(polyOpaque);
+        return opaque.equals(polyOpaque);
     }
 
     /**
@@ -313,29 +440,29 @@ public class Polynomial extends Expression
         }
         throw new RuntimeException("Cannot compare non- Products");
     }
-    
 
-    /** 
+
+    /**
      * Returns true if the expression is equal to 1
      * @return The expression equals 1 or not
      */
-    public boolean isUnit() 
+    public boolean isUnit()
     {
-        if (this.isFraction())
-            return this.getFraction().isUnit();
+        if (_size == 1)
+            return term(0).isUnit();
         return false;
     }
 
-    /** 
+    /**
      * Returns true if the expression is equal to 0
      * @return The expression equals 0 or not
      */
     public boolean isZero()
     {
-        if (_expList.size() == 0)
+        if (_size == 0)
             return true;
-        if (this.isFraction())
-            return this.getFraction().isZero();
+        if (_size == 1)
+            return term(0).isZero();
         return false;
     }
 
@@ -345,12 +472,14 @@ public class Polynomial extends Expression
      */
     public boolean isProduct()
     {
-        if (_expList.size() > 1)
+        if (_size > 1)
             return false;
-        else if (_expList.size() == 0)
+        else if (_size == 0)
             return true;
+        else if (_opaque[0] != null)
+            return _opaque[0].isProduct();
         else
-            return _expList.get(0).isProduct();
+            return (_coeffDenoms[0] == 1) && _denoms[0].isUnit();
     }
 
     /**
@@ -359,12 +488,7 @@ public class Polynomial extends Expression
      */
     public boolean isFraction()
     {
-        if (_expList.size() == 0)
-            return true;
-        if (_expList.size() != 1)
-            return false;
-        else
-            return true;
+        return (_size <= 1);
     }
 
     /**
@@ -373,9 +497,14 @@ public class Polynomial extends Expression
      */
     public boolean isNumber()
     {
-        for (int i = 0; i < _expList.size(); i++)
+        for (int i = 0; i < _size; i++)
         {
-            if (!_expList.get(i).isNumber())
+            if (_opaque[i] != null)
+            {
+                if (!_opaque[i].isNumber())
+                    return false;
+            }
+            else if (!isConstant(i) || (_coeffDenoms[i] != 1))
                 return false;
         }
         return true;
@@ -397,13 +526,68 @@ public class Polynomial extends Expression
         return floor;
     }
 
+    /**
+     * Polynomials are equal when they have the same terms and the same
+     * ceiling or floor. Thanks to the canonical form, plain terms are
+     * compared one by one; the terms kept as they are must be equal in
+     * some order. Unlike isEqualTo, other kinds of expressions are never
+     * equal, so that polynomials can be used as keys.
+     */
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) return true;
+        if (!(obj instanceof Polynomial)) return false;
+        Polynomial poly = (Polynomial) obj;
+        if ((ceiling != poly.ceiling) || (floor != poly.floor)
+            || (countTerms() != poly.countTerms()))
+            return false;
+
+        List<Expression> opaque = new ArrayList<Expression>();
+        for (int i = 0; i < _size; i++)
+        {
+            if (_opaque[i] != null)
+            {
+                opaque.add(_opaque[i]);
+                continue;
+            }
+            if (_coeffNums[i] == 0)
+                continue;
+            int j = poly.find(_nums[i], _denoms[i]);
+            if ((j < 0) || (_coeffNums[i] != poly._coeffNums[j])
+                || (_coeffDenoms[i] != poly._coeffDenoms[j]))
+                return false;
+        }
+        for (int j = 0; j < poly._size; j++)
+        {
+            if ((poly._opaque[j] != null) && !opaque.remove(poly._opaque[j]))
+                return false;
+        }
+        return opaque.isEmpty();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        // Independent of the order of the terms
+        int h = 0;
+        for (int i = 0; i < _size; i++)
+        {
+            if (_opaque[i] != null)
+                h += _opaque[i].hashCode();
+            else if (_coeffNums[i] != 0)
+                h += hash(_nums[i], _denoms[i]) * 31
+                    + (int) (_coeffNums[i] * 31 + _coeffDenoms[i]);
+        }
+        return h * 4 + (ceiling ? 1 : 0) + (floor ? 2 : 0);
+    }
+
 
-    
 /******************************************************************************
  ** EXPRESSION METHODS - TRANSFORMATIONS
  ******************************************************************************/
-    
-    /** 
+
+    /**
      * Returns the equivalent expression as Product if possible
      * @return The expression as Prodcut if possible, null otherwise
      */
@@ -411,13 +595,13 @@ public class Polynomial extends Expression
     {
         if (this.isProduct())
         {
-            if (_expList.size() == 0)
+            if (_size == 0)
                 return new Product(0);
             else
-                return _expList.get(0).getProduct();
+                return term(0).getProduct();
         }
         else
-            throw new RuntimeException("Polynomial " + this.getString() 
+            throw new RuntimeException("Polynomial " + this.getString()
                 +  " is not a Product");
     }
 
@@ -429,10 +613,10 @@ public class Polynomial extends Expression
     {
         if (this.isFraction())
         {
-            if (_expList.size() == 0)
+            if (_size == 0)
                 return new Fraction(new Product(0),new Product(1));
             else
-                return _expList.get(0).getFraction();
+                return term(0).getFraction();
         }
         else
             throw new RuntimeException("Polynomial is NOT a Fraction");
@@ -452,25 +636,26 @@ public class Polynomial extends Expression
      */
     public String getString()
     {
+        List<Expression> terms = getList();
         String res;
-        if (_expList.size() >= 1)
+        if (terms.size() >= 1)
         {
-            res = _expList.get(0).getString();
-            for (int i = 1; i < _expList.size();i++ )
+            res = terms.get(0).getString();
+            for (int i = 1; i < terms.size();i++ )
             {
-                if (_expList.get(i).isProduct())
+                if (terms.get(i).isProduct())
                 {
-                    if (_expList.get(i).getProduct().getSign())
-                        res = res + "+" + _expList.get(i).getString();
+                    if (terms.get(i).getProduct().getSign())
+                        res = res + "+" + terms.get(i).getString();
                     else
-                        res = res + _expList.get(i).getString();
+                        res = res + terms.get(i).getString();
                 }
                 else
-                res = res + "+" + _expList.get(i).getString();
+                res = res + "+" + terms.get(i).getString();
             }
-                
-        } 
-        else 
+
+        }
+        else
             res = "";
 
         if (ceiling)
@@ -479,7 +664,7 @@ public class Polynomial extends Expression
             return ("floor(" + res + ")");
         else
             return res;
-        
+
     }
 
     /**
@@ -490,10 +675,10 @@ public class Polynomial extends Expression
         if (this.isNumber())
         {
             if (this.isZero()) return 0;
-            if (_expList.size() > 1)
+            if (_size > 1)
                 throw new RuntimeException(
                     "If polynomial is number it should have a single fraction");
-            return _expList.get(0).getNumber();
+            return term(0).getNumber();
         }
         else throw new RuntimeException("Polynomial is NOT an integer");
     }
@@ -513,12 +698,24 @@ public class Polynomial extends Expression
  ******************************************************************************/
 
     /**
-     * Returns the list of fractions
+     * Returns the terms as Products and Fractions, the numeric term last.
+     * The list is a new one, changing it does not change the polynomial.
      * @return The fraction list of the polynomial
      */
     public ArrayList<Expression> getList()
     {
-        return _expList;
+        ArrayList<Expression> terms = new ArrayList<Expression>(_size);
+        int constant = -1;
+        for (int i = 0; i < _size; i++)
+        {
+            if ((_opaque[i] == null) && isConstant(i))
+                constant = i;
+            else
+                terms.add(term(i));
+        }
+        if (constant >= 0)
+            terms.add(term(constant));
+        return terms;
     }
 
     /**
@@ -528,9 +725,9 @@ public class Polynomial extends Expression
     public ArrayList<Expression> getParamList()
     {
         ArrayList<Expression> paramList = new ArrayList<Expression>();
-        for(int i = 0; i < _expList.size(); i++)
+        for (Expression term : getList())
         {
-            paramList.add(_expList.get(i).getParam());
+            paramList.add(term.getParam());
         }
         return paramList;
     }
@@ -538,102 +735,284 @@ public class Polynomial extends Expression
 /******************************************************************************
  ** PRIVATE METHODS
  ******************************************************************************/
-    
+
     /**
-     * Normalizes the  _expList
+     * Adds the terms of an expression. Polynomials under a ceiling or floor
+     * and expressions other than Products and Fractions are kept as they are.
      */
-    private void normalize()
+    private void append(Expression expr)
     {
-        int numeric = 0;       
-        if (_expList.size() > 1)
+        if (expr instanceof Product)
         {
-            ArrayList<Expression> paramList = getParamList();
-            ArrayList<Expression> resList = new ArrayList<Expression>();
-
-            while (paramList.size() > 0)
+            Product prod = (Product) expr;
+            long num = prod.getNumeric();
+            if (!prod.getSign()) num = -num;
+            addTerm(prod.getMonomial(), Monomial.UNIT, num, 1);
+        }
+        else if ((expr instanceof Fraction)
+            && !expr.hasCeiling() && !expr.hasFloor())
+        {
+            Product num = ((Fraction) expr).getNum();
+            Product denom = ((Fraction) expr).getDenom();
+            long coeffNum = num.getNumeric();
+            if (num.getSign() != denom.getSign()) coeffNum = -coeffNum;
+            addTerm(num.getMonomial(), denom.getMonomial(),
+                coeffNum, denom.getNumeric());
+        }
+        else if ((expr instanceof Polynomial)
+            && !expr.hasCeiling() && !expr.hasFloor())
+        {
+            Polynomial poly = (Polynomial) expr;
+            if (_size == 0)
             {
-                ArrayList<Expression> fracListP = new ArrayList<Expression>();
-                ArrayList<Expression> fracList = new ArrayList<Expression>();
-
-                Expression baseFrac = paramList.get(0);
-                fracListP.add(baseFrac);
-                fracList.add(_expList.get(0));
-                // Check if the fraction have common base
-                for(int i = 1; i < paramList.size(); i++)
-                {
-                    Expression frac2 = paramList.get(i);
+                // Already canonical, copy as is
+                _size = poly._size;
+                _nums = poly._nums.clone();
+                _denoms = poly._denoms.clone();
+                _coeffNums = poly._coeffNums.clone();
+                _coeffDenoms = poly._coeffDenoms.clone();
+                _opaque = poly._opaque.clone();
+                _table = poly._table.clone();
+                _hasZeros = poly._hasZeros;
+                return;
+            }
+            for (int i = 0; i < poly._size; i++)
+            {
+                if (poly._opaque[i] != null)
+                    appendOpaque(poly._opaque[i]);
+                else
+                    addTerm(poly._nums[i], poly._denoms[i],
+                        poly._coeffNums[i], poly._coeffDenoms[i]);
+            }
+        }
+        else
+            appendOpaque(expr);
+    }
 
-                    if (baseFrac.isEqualTo(frac2))
-                    {
-                        fracListP.add(frac2);
-                        fracList.add(_expList.get(i));
-                    }
-                }
-                
-                // Remove the common fractions
-                paramList.removeAll(fracListP);
+    /**
+     * Adds the product of two plain terms
+     */
+    private void addProduct(Monomial num1, Monomial denom1, long coeffNum1,
+        long coeffDenom1, Monomial num2, Monomial denom2, long coeffNum2,
+        long coeffDenom2)
+    {
+        Monomial num = num1.multiply(num2);
+        Monomial denom = denom1.multiply(denom2);
+        if (!denom.isUnit())
+        {
+            Monomial gcd = num.gcd(denom);
+            num = num.divide(gcd);
+            denom = denom.divide(gcd);
+        }
+        addTerm(num, denom, coeffNum1 * coeffNum2, coeffDenom1 * coeffDenom2);
+    }
 
-                // Make homonyms and merge the fractions into a single one
-                Expression newFrac1 = fracList.get(0);
-                for (int i = 1; i < fracList.size(); i++)
-                {
-                    int numNum;
-                    int numDenom;
-                    Expression newFrac2 = fracList.get(i);
-
-                    int newFrac1Num = 
-                        newFrac1.getFraction().getNum().getNumeric();
-                    if (!newFrac1.getFraction().getNum().getSign()) 
-                        newFrac1Num = newFrac1Num*(-1);
-                    
-                    int newFrac2Num 
-                        = newFrac2.getFraction().getNum().getNumeric();
-                    if (!newFrac2.getFraction().getNum().getSign()) 
-                        newFrac2Num = newFrac2Num*(-1);
-                    
-                    int newFrac1Denom
-                        = newFrac1.getFraction().getDenom().getNumeric();
-                    
-                    int newFrac2Denom
-                        = newFrac2.getFraction().getDenom().getNumeric();
-
-                    numNum = newFrac1Num * newFrac2Denom +
-                         newFrac2Num * newFrac1Denom;
-                    numDenom = newFrac1Denom * newFrac2Denom;
-
-                    Product numNumP = new Product(numNum);
-                    Product numDenomP = new Product(numDenom);
-                    newFrac1 = new Fraction
-                    (
-                        numNumP.multiply(baseFrac.getFraction().getNum()),
-                        numDenomP.multiply(baseFrac.getFraction().getDenom())
-                    );
-                }
-                // Remove all used fractions from the expression list
-                _expList.removeAll(fracList); 
-                // Add the homonym fraction to the results list
-                resList.add(newFrac1);
+    /**
+     * Adds coeffNum/coeffDenom * num/denom, merging it with the term of the
+     * same monomials if there is one. The monomials must have no common
+     * factor.
+     */
+    private void addTerm(Monomial num, Monomial denom, long coeffNum,
+        long coeffDenom)
+    {
+        if (coeffNum == 0)
+            return;
+        if (coeffDenom < 0)
+        {
+            coeffNum = -coeffNum;
+            coeffDenom = -coeffDenom;
+        }
+        long gcd = ExactArithmetic.gcd(coeffNum, coeffDenom);
+        if (gcd > 1)
+        {
+            coeffNum /= gcd;
+            coeffDenom /= gcd;
+        }
+        ExactArithmetic.toInt(coeffNum);
+        ExactArithmetic.toInt(coeffDenom);
+
+        int pos = find(num, denom);
+        if (pos >= 0)
+        {
+            // Both coefficients fit in an int, so this fits in a long
+            coeffNum = _coeffNums[pos] * coeffDenom
+                + coeffNum * _coeffDenoms[pos];
+            coeffDenom = _coeffDenoms[pos] * coeffDenom;
+            gcd = ExactArithmetic.gcd(coeffNum, coeffDenom);
+            if (gcd > 1)
+            {
+                coeffNum /= gcd;
+                coeffDenom /= gcd;
             }
-            // Update the expression list
-            _expList.addAll(resList);
+            ExactArithmetic.toInt(coeffNum);
+            ExactArithmetic.toInt(coeffDenom);
+
+            // A zero term stays until compact() so it can still be merged
+            _coeffNums[pos] = coeffNum;
+            _coeffDenoms[pos] = coeffDenom;
+            if (coeffNum == 0)
+                _hasZeros = true;
+            return;
         }
 
-        for (ListIterator<Expression> iter = 
-            _expList.listIterator(_expList.size()); iter.hasPrevious();)
+        grow();
+        _nums[_size] = num;
+        _denoms[_size] = denom;
+        _coeffNums[_size] = coeffNum;
+        _coeffDenoms[_size] = coeffDenom;
+        _opaque[_size] = null;
+        _size++;
+        if (_size * 2 > _table.length)
+            rehash(_table.length * 2);
+        else
+            insert(_size - 1);
+    }
+
+    /**
+     * Adds a term kept as it is
+     */
+    private void appendOpaque(Expression expr)
+    {
+        grow();
+        _nums[_size] = null;
+        _denoms[_size] = null;
+        _opaque[_size] = expr;
+        _size++;
+    }
+
+    /**
+     * Removes the zero terms left by merging
+     */
+    private void compact()
+    {
+        if (!_hasZeros)
+            return;
+        int k = 0;
+        for (int i = 0; i < _size; i++)
+        {
+            if ((_opaque[i] == null) && (_coeffNums[i] == 0))
+                continue;
+            _nums[k] = _nums[i];
+            _denoms[k] = _denoms[i];
+            _coeffNums[k] = _coeffNums[i];
+            _coeffDenoms[k] = _coeffDenoms[i];
+            _opaque[k] = _opaque[i];
+            k++;
+        }
+        for (int i = k; i < _size; i++)
+        {
+            _nums[i] = null;
+            _denoms[i] = null;
+            _opaque[i] = null;
+        }
+        _size = k;
+        _hasZeros = false;
+        rehash(_table.length);
+    }
+
+    /**
+     * Returns the position of the plain term with the given monomials, -1
+     * if there is none
+     */
+    private int find(Monomial num, Monomial denom)
+    {
+        int mask = _table.length - 1;
+        for (int h = hash(num, denom) & mask; ; h = (h + 1) & mask)
+        {
+            int pos = _table[h] - 1;
+            if (pos < 0)
+                return -1;
+            // Monomials are interned
+            if ((_nums[pos] == num) && (_denoms[pos] == denom))
+                return pos;
+        }
+    }
+
+    /**
+     * Adds the plain term at the given position to the table
+     */
+    private void insert(int pos)
+    {
+        int mask = _table.length - 1;
+        int h = hash(_nums[pos], _denoms[pos]) & mask;
+        while (_table[h] != 0)
+            h = (h + 1) & mask;
+        _table[h] = pos + 1;
+    }
+
+    /**
+     * Rebuilds the table with the given (power of two) size
+     */
+    private void rehash(int size)
+    {
+        _table = new int[size];
+        for (int i = 0; i < _size; i++)
         {
-            Expression prevFrac = iter.previous();
-            // Remove zeros
-            if (prevFrac.isZero())
-                iter.remove();
-            else if (prevFrac.isNumber())
-            {   // Collect numerics in a single fraction
-                numeric += prevFrac.getNumber();
-                iter.remove();
-            }            
+            if (_opaque[i] == null)
+                insert(i);
         }
+    }
 
-        // Add the collective numeric fraction 
-        if (numeric != 0)
-            _expList.add(new Product(numeric));
+    /**
+     * Makes room for one more term
+     */
+    private void grow()
+    {
+        if (_size < _nums.length)
+            return;
+        int size = _nums.length * 2;
+        _nums = Arrays.copyOf(_nums, size);
+        _denoms = Arrays.copyOf(_denoms, size);
+        _coeffNums = Arrays.copyOf(_coeffNums, size);
+        _coeffDenoms = Arrays.copyOf(_coeffDenoms, size);
+        _opaque = Arrays.copyOf(_opaque, size);
+    }
+
+    /**
+     * Returns the number of terms, leaving out the zero terms not yet
+     * removed
+     */
+    private int countTerms()
+    {
+        int count = 0;
+        for (int i = 0; i < _size; i++)
+        {
+            if ((_opaque[i] != null) || (_coeffNums[i] != 0))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns true if the plain term at the given position is numeric
+     */
+    private boolean isConstant(int i)
+    {
+        return _nums[i].isUnit() && _denoms[i].isUnit();
+    }
+
+    /**
+     * Returns the term at the given position as an Expression
+     */
+    private Expression term(int i)
+    {
+        if (_opaque[i] != null)
+            return _opaque[i];
+        Product num = new Product(_nums[i],
+            ExactArithmetic.toInt(Math.abs(_coeffNums[i])),
+            _coeffNums[i] > 0);
+        if ((_coeffDenoms[i] == 1) && _denoms[i].isUnit())
+            return num;
+        return new Fraction(num,
+            new Product(_denoms[i], (int) _coeffDenoms[i], true));
+    }
+
+    /**
+     * Hash of a pair of monomials
+     */
+    private static int hash(Monomial num, Monomial denom)
+    {
+        int h = num.hashCode() * 31 + denom.hashCode();
+        return h ^ (h >>> 16);
     }
 }
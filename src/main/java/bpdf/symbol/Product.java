@@ -4,7 +4,6 @@ package bpdf.symbol;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
@@ -20,10 +19,10 @@ public class Product extends Expression
  ******************************************************************************/
 
     /** 
-     * A power map holding all the symbols of the expression
-     * along with their powers.
+     * The interned parametric part holding all the symbols of the 
+     * expression along with their powers.
      */
-    private HashMap<String, Integer> _map = new HashMap<String, Integer>();
+    private Monomial _mono = Monomial.UNIT;
 
     /**
      * The numeric part of the product
@@ -54,13 +53,7 @@ public class Product extends Expression
      */
     public Product(int numeric)
     {
-        if (numeric > 0)
-            _numeric *= numeric;
-        else
-        {
-            _numeric *= numeric*(-1);
-            _sign = !_sign;
-        }
+        setNumeric(numeric);
     }
 
     /**
@@ -69,7 +62,9 @@ public class Product extends Expression
      */
     public Product(Product prod)
     {
-        this(prod.getMap(),prod.getNumeric(),prod.getSign());
+        _mono = prod.getMonomial();
+        _numeric = prod.getNumeric();
+        _sign = prod.getSign();
     }
 
     /**
@@ -78,7 +73,7 @@ public class Product extends Expression
      */
     public Product(HashMap<String, Integer> map) 
     {
-        parseString(mapToString(map));
+        addMap(map);
     }
 
     /**
@@ -88,17 +83,8 @@ public class Product extends Expression
      */
     public Product(HashMap<String, Integer> map, int numeric) 
     {
-        if (numeric > 0)
-        {
-            _numeric *= numeric;
-        }
-        else
-        {
-            _numeric *= numeric*(-1);
-            _sign = !_sign;
-
-        }
-        parseString(mapToString(map));
+        setNumeric(numeric);
+        addMap(map);
     }
 
     /**
@@ -110,17 +96,21 @@ public class Product extends Expression
     public Product(HashMap<String, Integer> map, int numeric, boolean sign)
     {
         _sign = sign;
-        if (numeric > 0)
-        {
-            _numeric *= numeric;
-        }
-        else
-        {
-            _numeric *= numeric*(-1);
-            _sign = !_sign;
+        setNumeric(numeric);
+        addMap(map);
+    }
 
-        }
-        parseString(mapToString(map));
+    /**
+     * Creates a new product from a given monomial, numeric and sign
+     * @param mono The given monomial
+     * @param numeric The given numeric
+     * @param sign The given sign
+     */
+    public Product(Monomial mono, int numeric, boolean sign)
+    {
+        _sign = sign;
+        setNumeric(numeric);
+        _mono = mono;
     }
 
 /******************************************************************************
@@ -136,9 +126,7 @@ public class Product extends Expression
     {
         if (expr instanceof Polynomial)
         {
-            Polynomial poly = expr.getPolynomial();
-            poly.add(this);
-            return poly;
+            return expr.add(this);
         }
         else
         {
@@ -164,12 +152,12 @@ public class Product extends Expression
         {
             Product prod = (Product) expr;
             
-            HashMap<String, Integer> resMap = 
-                MapManipulator.addMaps(_map, prod.getMap());
-            int resNumeric = _numeric * prod.getNumeric();
+            Monomial resMono = _mono.multiply(prod.getMonomial());
+            int resNumeric = 
+                ExactArithmetic.multiply(_numeric, prod.getNumeric());
             boolean resSign = !(_sign ^ prod.getSign());
             
-            Product resProd = new Product(resMap,resNumeric,resSign);
+            Product resProd = new Product(resMono,resNumeric,resSign);
             return resProd;
         } 
         else
@@ -223,12 +211,11 @@ public class Product extends Expression
         {
             Product prod = expr.getFraction().getNum();
 
-            HashMap<String, Integer> resMap = 
-                MapManipulator.gcdMaps(_map,prod.getMap());
+            Monomial resMono = _mono.gcd(prod.getMonomial());
             int resNumeric = 
                 MapManipulator.gcdNum(_numeric,prod.getNumeric());
 
-            return new Product(resMap,resNumeric);
+            return new Product(resMono,resNumeric,true);
         }
     }
 
@@ -256,7 +243,18 @@ public class Product extends Expression
      */
     public Product lcm(Product prod)
     {
-        return (Product) this.multiply(prod.divide(this.gcd(prod)));
+        return this.multiply(prod.divide(this.gcd(prod))).getProduct();
+    }
+
+    /**
+     * Returns the product with the opposite sign
+     * @return The negated product
+     */
+    public Product negate()
+    {
+        if (isZero())
+            return this;
+        return new Product(_mono,_numeric,!_sign);
     }
 
     /**
@@ -267,19 +265,42 @@ public class Product extends Expression
      */
     public Product evaluate(String p, Integer n)
     {
-        HashMap<String, Integer> resMap = new HashMap<String, Integer>();
-        resMap.putAll(_map);
-        if (!resMap.containsKey(p))
-            return new Product(resMap, _numeric, _sign);
-        
-        int power = resMap.get(p);
-        resMap.remove(p);
+        int power = _mono.getPower(p);
+        if (power == 0)
+            return this;
 
-        int resNumeric = this.getNumeric() * (int) Math.pow(n,power);
+        int resNumeric = ExactArithmetic.multiply(this.getNumeric(),
+            ExactArithmetic.pow(n,power));
         if (!_sign)
-            resNumeric = resNumeric*(-1);
-        return new Product(resMap,resNumeric);
+            resNumeric = ExactArithmetic.negate(resNumeric);
+        return new Product(_mono.remove(p),resNumeric,true);
+
+    }
 
+    /**
+     * Evaluates the product for the given values of its parameters
+     * @param values The values of the parameters
+     * @return The resulting product
+     */
+    public Product evaluate(Map<String, Integer> values)
+    {
+        int resNumeric = _numeric;
+        Monomial resMono = _mono;
+        for (int i = 0; i < _mono.size(); i++)
+        {
+            String p = _mono.getParam(i);
+            Integer n = values.get(p);
+            if (n == null)
+                continue;
+            resNumeric = ExactArithmetic.multiply(resNumeric,
+                ExactArithmetic.pow(n,_mono.getPowerAt(i)));
+            resMono = resMono.remove(p);
+        }
+        if (resMono == _mono)
+            return this;
+        if (!_sign)
+            resNumeric = ExactArithmetic.negate(resNumeric);
+        return new Product(resMono,resNumeric,true);
     }
 
     /**
@@ -387,7 +408,7 @@ public class Product extends Expression
      */
     public boolean isUnit()
     {
-        return ((_numeric == 1) && (_map.isEmpty()));
+        return ((_numeric == 1) && (_mono.isUnit()));
     }
     
     /** 
@@ -423,7 +444,7 @@ public class Product extends Expression
      */
     public boolean isNumber()
     {
-        return (_map.isEmpty()); 
+        return (_mono.isUnit()); 
     }
 
     /**
@@ -442,6 +463,32 @@ public class Product extends Expression
         return false;
     }
 
+    /**
+     * Products are equal when they have the same sign, coefficient and
+     * monomial. Unlike isEqualTo, other kinds of expressions are never
+     * equal, so that products can be used as keys.
+     */
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) return true;
+        if (!(obj instanceof Product)) return false;
+        Product prod = (Product) obj;
+        if (isZero() || prod.isZero())
+            return isZero() && prod.isZero();
+        return (_sign == prod._sign) && (_numeric == prod._numeric)
+            && _mono.equals(prod._mono);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        if (isZero())
+            return 0;
+        int h = _mono.hashCode() * 31 + _numeric;
+        return _sign ? h : -h;
+    }
+
 
 /******************************************************************************
  ** EXPRESSION METHODS - TRANSFORMATIONS
@@ -505,10 +552,10 @@ public class Product extends Expression
         }
         if (_numeric == 1) 
         {
-            resString += mapToString(_map);
+            resString += _mono.getString();
             return resString;
         }
-        resString += Integer.toString(_numeric) + '*' + mapToString(_map);
+        resString += Integer.toString(_numeric) + '*' + _mono.getString();
         return resString;
     }
 
@@ -518,7 +565,7 @@ public class Product extends Expression
      */
     public Expression getParam()
     {
-        return new Product(_map);
+        return new Product(_mono,1,true);
     }
 
 /******************************************************************************
@@ -526,12 +573,21 @@ public class Product extends Expression
  ******************************************************************************/
 
     /** 
-     * Returns the power map
+     * Returns a copy of the power map
      * @return The power map
      */
     public HashMap<String, Integer> getMap() 
     {
-        return _map;
+        return _mono.toMap();
+    }
+
+    /**
+     * Returns the interned parametric part of the product
+     * @return The monomial
+     */
+    public Monomial getMonomial()
+    {
+        return _mono;
     }
 
     /** 
@@ -558,7 +614,7 @@ public class Product extends Expression
      */
     public List<String> getParamList() 
     {
-        Set<String> paramSet = _map.keySet();
+        Set<String> paramSet = _mono.getParamSet();
         List<String> paramList = new ArrayList<String>();
         paramList.addAll(paramSet);
         return paramList;
@@ -566,7 +622,7 @@ public class Product extends Expression
 
     public Set<String> getParamSet()
     {
-        return _map.keySet();
+        return _mono.getParamSet();
     }
 
 /******************************************************************************
@@ -617,7 +673,8 @@ public class Product extends Expression
             try
             {
                 int parsedNumeric = Integer.parseInt(value);
-                _numeric *= Math.pow(parsedNumeric,power);
+                _numeric = ExactArithmetic.multiply(_numeric,
+                    ExactArithmetic.pow(parsedNumeric,power));
             }
             catch (NumberFormatException e)
             {
@@ -626,42 +683,60 @@ public class Product extends Expression
         }
     }
 
-    /** 
-     * Add a new factor in the hash map
-     * @param token The map key
-     * @param power Its power
+    /**
+     * Sets the numeric part of the product, moving its sign to _sign
+     * @param numeric The given numeric
      */
-    private void addFactor(String token, int power) 
+    private void setNumeric(int numeric)
     {
-        if (_map.containsKey(token)) 
+        if (numeric > 0)
         {
-            int current = _map.get(token);
-            _map.put(token, current + power);
-        } 
-        else 
+            _numeric = ExactArithmetic.multiply(_numeric, numeric);
+        }
+        else
         {
-            _map.put(token, power);
+            _numeric = ExactArithmetic.multiply(_numeric,
+                ExactArithmetic.negate(numeric));
+            _sign = !_sign;
         }
     }
 
-    /** 
-     * Create the expression string from a given power map
+    /**
+     * Multiplies the product with the factors of a power map.
+     * Numeric keys are folded into the numeric part.
      * @param map The given power map
-     * @return The string representation of the map
      */
-    private String mapToString(HashMap<String, Integer> map)
+    private void addMap(Map<String, Integer> map)
     {
-        Iterator<Map.Entry<String, Integer>> iMap = map.entrySet().iterator();
-        String tempStr = "";
-        while (iMap.hasNext()) 
+        for (Map.Entry<String, Integer> entry : map.entrySet())
         {
-            Map.Entry<String, Integer> tempEntry = iMap.next();
-            String key = tempEntry.getKey();
-            int value = tempEntry.getValue();
-            tempStr = tempStr + key;
-            if (value != 1) tempStr = tempStr + "^" + value;
-            if (iMap.hasNext()) tempStr = tempStr + "*";
+            String key = entry.getKey();
+            int power = entry.getValue();
+            if (key.startsWith("-"))
+            {
+                _sign = !_sign;
+                key = key.substring(1);
+            }
+            try
+            {
+                int parsedNumeric = Integer.parseInt(key);
+                _numeric = ExactArithmetic.multiply(_numeric,
+                    ExactArithmetic.pow(parsedNumeric,power));
+            }
+            catch (NumberFormatException e)
+            {
+                addFactor(key,power);
+            }
         }
-        return tempStr;
     }
-}
\ No newline at end of file
+
+    /** 
+     * Multiplies the product with a new factor
+     * @param token The parameter name
+     * @param power Its power
+     */
+    private void addFactor(String token, int power) 
+    {
+        _mono = _mono.multiply(Monomial.valueOf(token,power));
+    }
+}
\ No newline at end of file
@@ -1,32 +1,58 @@
 // SystemSolver.java
 package bpdf.symbol;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
-public class SystemSolver 
+/**
+ * Solves the balance equations of a graph. The first factor is set to 1
+ * and the solutions spread from it over the equations of each solved
+ * factor, with a worklist instead of recursion. Equations can be added and
+ * removed after the system is solved, in which case only the part of the
+ * solution they affect is updated.
+ */
+public class SystemSolver
 {
 /******************************************************************************
  ** PRIVATE PARAMETERS
  ******************************************************************************/
-    
+
     /**
      * Unknown factors
      */
     private ArrayList<String> factors;
 
-    /** 
+    /**
      * System of equations
      */
     private ArrayList<Equation> equations;
 
-    /** 
-     * Pairs of unknown factors and respective solutions
+    /**
+     * The equations of each unknown factor
+     */
+    private HashMap<String, List<Equation>> adjacency;
+
+    /**
+     * Pairs of unknown factors and respective solutions,
+     * relative to the first factor
      */
     private HashMap<String, Expression> solutions;
 
+    /**
+     * The equation each factor was solved with
+     */
+    private HashMap<String, Equation> solvedBy;
+
+    /**
+     * The solutions with all denominators equal to 1,
+     * null if not calculated since the last change
+     */
+    private HashMap<String, Expression> normalized;
+
     /**
      * Consistency flag
      */
@@ -36,7 +62,7 @@ public class SystemSolver
  ** CONSTRUCTORS
  ******************************************************************************/
 
-    /** 
+    /**
      * Creates a new solver with a given list of unknown factors
      * and a given list of equations.
      * @param facts The list of factors
@@ -44,44 +70,54 @@ public class SystemSolver
      */
     public SystemSolver(ArrayList<String> facts, ArrayList<Equation> eqs)
     {
-        factors = facts;
-        equations = eqs;
+        factors = new ArrayList<String>();
+        equations = new ArrayList<Equation>();
+        adjacency = new HashMap<String, List<Equation>>();
         solutions = new HashMap<String, Expression>();
+        solvedBy = new HashMap<String, Equation>();
+
+        for (String fact : facts)
+            register(fact);
+        for (Equation eq : eqs)
+            attach(eq);
         solve();
+        if (isConsistent)
+            printSolution();
     }
 
 /******************************************************************************
  ** PUBLIC METHODS
  ******************************************************************************/
 
-    /** 
+    /**
      *  Prints the solution of the equations
      */
     public void printSolution()
     {
-        Iterator<Map.Entry<String, Expression>>
-            iSol = solutions.entrySet().iterator();
-    
+        Iterator<Map.Entry<String, Expression>> iSol = isConsistent
+            ? normalSolution().entrySet().iterator()
+            : solutions.entrySet().iterator();
+
         while (iSol.hasNext())
         {
             Map.Entry<String, Expression>current = iSol.next();
             Fraction tempFrac = current.getValue().getFraction();
-        
+
             if (tempFrac.isProduct())
             {
-                
-                System.out.println(current.getKey() + " = " + 
+
+                System.out.println(current.getKey() + " = " +
                     tempFrac.getProduct().getString());
-            } 
-            else 
+            }
+            else
             {
-                System.out.println(current.getKey() + " = " + 
+                System.out.println(current.getKey() + " = " +
                     tempFrac.getString());
             }
         }
     }
 
-    /** 
+    /**
      * Returns a map with the unknown factors and their respective solutions
      * @return A map with the repetition vector
      */
@@ -90,7 +126,7 @@ public class SystemSolver
         if (!isConsistent) return null;
 
         Iterator<Map.Entry<String, Expression>>
-            iSol = solutions.entrySet().iterator();
+            iSol = normalSolution().entrySet().iterator();
         HashMap<String, Expression>
             solMap = new HashMap<String, Expression>();
 
@@ -104,93 +140,265 @@ public class SystemSolver
         return solMap;
     }
 
+    /**
+     * Returns whether the system has a solution
+     * @return True if consistent
+     */
+    public boolean isConsistent()
+    {
+        return isConsistent;
+    }
+
+    /**
+     * Adds an unknown factor to the system. The first factor added to an
+     * empty system is set to 1, any other is solved once an equation
+     * connects it to the solved factors.
+     * @param fact The factor
+     */
+    public void addFactor(String fact)
+    {
+        if (adjacency.containsKey(fact)) return;
+        register(fact);
+        if (factors.size() == 1)
+            solve();
+    }
+
+    /**
+     * Adds an equation to the system. If one of its factors is solved the
+     * solution spreads from it only to the factors the equation connects.
+     * @param eq The equation
+     */
+    public void addEquation(Equation eq)
+    {
+        attach(eq);
+        // More equations cannot make an inconsistent system consistent
+        if (!isConsistent) return;
+
+        String sol1 = eq.getFirstFactor();
+        String sol2 = eq.getSecondFactor();
+        ArrayDeque<String> work = new ArrayDeque<String>();
+        if (solutions.containsKey(sol1))
+            relax(sol1, eq, work);
+        else if (solutions.containsKey(sol2))
+            relax(sol2, eq, work);
+        else
+            return;
+        propagate(work);
+        normalized = null;
+    }
+
+    /**
+     * Removes an equation from the system. In a consistent system, the
+     * factors solved through the equation are solved again from their
+     * remaining equations, other solutions are kept. An inconsistent
+     * system is solved again from scratch.
+     * @param eq The equation
+     */
+    public void removeEquation(Equation eq)
+    {
+        if (!detach(eq)) return;
+
+        String sol1 = eq.getFirstFactor();
+        String sol2 = eq.getSecondFactor();
+        if (!isConsistent)
+        {
+            solve();
+            return;
+        }
+
+        String child;
+        if (solvedBy.get(sol1) == eq) child = sol1;
+        else if (solvedBy.get(sol2) == eq) child = sol2;
+        else return;
+
+        // Unsolve the factors that were reached through the equation
+        List<String> subtree = new ArrayList<String>();
+        subtree.add(child);
+        solutions.remove(child);
+        solvedBy.remove(child);
+        for (int i = 0; i < subtree.size(); i++)
+        {
+            String sol = subtree.get(i);
+            for (Equation other : adjacency.get(sol))
+            {
+                String next = other.getOther(sol);
+                if (solvedBy.get(next) == other)
+                {
+                    subtree.add(next);
+                    solutions.remove(next);
+                    solvedBy.remove(next);
+                }
+            }
+        }
+
+        // Solve them again from the factors still solved
+        ArrayDeque<String> work = new ArrayDeque<String>();
+        for (String sol : subtree)
+        {
+            for (Equation other : adjacency.get(sol))
+            {
+                String next = other.getOther(sol);
+                if (solutions.containsKey(next)
+                    && !solutions.containsKey(sol))
+                    relax(next, other, work);
+            }
+        }
+        propagate(work);
+        normalized = null;
+    }
+
 /******************************************************************************
  ** PRIVATE METHODS
  ******************************************************************************/
 
+    /**
+     * Adds a factor with no equations
+     * @param fact The factor
+     */
+    private void register(String fact)
+    {
+        if (!adjacency.containsKey(fact))
+            adjacency.put(fact, new ArrayList<Equation>());
+        factors.add(fact);
+    }
+
+    /**
+     * Adds an equation to the system and to the
+     * equations of both its factors
+     * @param eq The equation
+     */
+    private void attach(Equation eq)
+    {
+        equations.add(eq);
+        String sol1 = eq.getFirstFactor();
+        String sol2 = eq.getSecondFactor();
+        equationsOf(sol1).add(eq);
+        if (!sol2.equals(sol1))
+            equationsOf(sol2).add(eq);
+    }
+
+    /**
+     * Removes an equation from the system and
+     * from the equations of both its factors
+     * @param eq The equation
+     * @return False if the equation was not in the system
+     */
+    private boolean detach(Equation eq)
+    {
+        if (!equations.remove(eq)) return false;
+        equationsOf(eq.getFirstFactor()).remove(eq);
+        equationsOf(eq.getSecondFactor()).remove(eq);
+        return true;
+    }
+
+    /**
+     * Returns the equations of a factor, adding the factor if unknown
+     * @param fact The factor
+     * @return Its equations
+     */
+    private List<Equation> equationsOf(String fact)
+    {
+        List<Equation> eqs = adjacency.get(fact);
+        if (eqs == null)
+        {
+            eqs = new ArrayList<Equation>();
+            adjacency.put(fact, eqs);
+        }
+        return eqs;
+    }
 
     /** Arbitrarily sets the first actor on the list to 1
-     * and calls the recursive function checkSolution to solve the system
-     *
+     * and spreads the solution over the equations.
      */
     private void solve()
     {
-        // Solve first
+        solutions.clear();
+        solvedBy.clear();
+        normalized = null;
+        isConsistent = true;
+        if (factors.isEmpty()) return;
+
         String sol = factors.get(0);
         solutions.put(sol, new Fraction());
-        checkSolution(sol);
-        if (isConsistent)
+        ArrayDeque<String> work = new ArrayDeque<String>();
+        work.add(sol);
+        propagate(work);
+    }
+
+    /**
+     * Solves the equations of the factors in the worklist, adding
+     * the factors they solve to the worklist until it is empty or
+     * the system is found inconsistent
+     * @param work The newly solved factors
+     */
+    private void propagate(ArrayDeque<String> work)
+    {
+        while (isConsistent && !work.isEmpty())
         {
-            normalSolution();
-            printSolution();
+            String sol = work.poll();
+            for (Equation eq : adjacency.get(sol))
+            {
+                if (solvedBy.get(sol) == eq) continue;
+                if (!relax(sol, eq, work)) return;
+            }
         }
     }
 
-    /** Normalizes the solution Fractions so that all
-     * denominators are equal to 1.
-     *
+    /**
+     * Solves an equation for the other factor given a solved one. If the
+     * other factor is already solved the two solutions must agree,
+     * otherwise it is added to the worklist.
+     * @param sol The solved factor
+     * @param eq The equation
+     * @param work The worklist
+     * @return False if the system was found inconsistent
      */
-    private void normalSolution()
+    private boolean relax(String sol, Equation eq, ArrayDeque<String> work)
     {
-        Iterator<Map.Entry<String, Expression>>
-            iSol = solutions.entrySet().iterator();
+        Expression tempExpr = eq.solve(sol,solutions.get(sol));
+        String otherSol = eq.getOther(sol);
 
-        Fraction tempFrac = iSol.next().getValue().getFraction();
-        Product lcm = tempFrac.getDenom();
-        
-        while (iSol.hasNext())
+        if (solutions.containsKey(otherSol))
         {
-            tempFrac = iSol.next().getValue().getFraction();
-            lcm = lcm.lcm(tempFrac.getDenom());
+            Expression pastExpr = solutions.get(otherSol);
+            if (!pastExpr.isEqualTo(tempExpr))
+            {
+                isConsistent = false;
+                normalized = null;
+                return false;
+            }
         }
-
-
-        iSol = solutions.entrySet().iterator();
-        while (iSol.hasNext())
+        else
         {
-            Map.Entry<String, Expression> tempEntry = iSol.next();
-            String key = tempEntry.getKey();
-            Expression expr = tempEntry.getValue();
-            solutions.put(key, expr.multiply(lcm));
+            solutions.put(otherSol,tempExpr);
+            solvedBy.put(otherSol,eq);
+            work.add(otherSol);
         }
+        return true;
     }
 
-    /** 
-     * Checks which equations can be solved with the newly found solution
-     * If a new solution is found the function iterates recursively with 
-     * the new solution.
-     * @param sol The newly found solution
+    /** Normalizes the solution Fractions so that all denominators are
+     * equal to 1, with a single pass for the least common multiple of
+     * the denominators. The result is kept until the solutions change.
+     * @return The normalized solutions
      */
-    private void checkSolution(String sol)
+    private HashMap<String, Expression> normalSolution()
     {
-        Iterator<Equation> iEq = equations.iterator();
+        if (normalized != null) return normalized;
 
-        while (iEq.hasNext())
-        {
-            Equation tempEq = iEq.next();
-
-            if (tempEq.isSolved()) continue;
-            if (tempEq.hasSolution(sol))
-            {
-                Expression tempExpr = tempEq.solve(sol,solutions.get(sol));
-                String otherSol = tempEq.getOther(sol);
+        normalized = new HashMap<String, Expression>();
+        if (solutions.isEmpty()) return normalized;
 
-                if (solutions.containsKey(otherSol))
-                {
-                    Expression pastExpr = solutions.get(otherSol);
-                    if (!pastExpr.isEqualTo(tempExpr))
-                    {
-                        isConsistent = false;
-                        return;
-                        // throw new RuntimeException("No solution exists.");
-                    }
-                } 
-                else 
-                {
-                    solutions.put(otherSol,tempExpr);
-                    checkSolution(otherSol);
-                }
-            }
+        Product lcm = null;
+        for (Expression expr : solutions.values())
+        {
+            Product denom = expr.getFraction().getDenom();
+            lcm = (lcm == null) ? denom : lcm.lcm(denom);
         }
+
+        for (Map.Entry<String, Expression> tempEntry : solutions.entrySet())
+            normalized.put(tempEntry.getKey(),
+                tempEntry.getValue().multiply(lcm));
+        return normalized;
     }
-}
\ No newline at end of file
+}
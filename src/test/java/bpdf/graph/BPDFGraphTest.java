@@ -0,0 +1,107 @@
+// BPDFGraphTest.java
+package bpdf.graph;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import org.junit.Test;
+import bpdf.symbol.Product;
+
+public class BPDFGraphTest
+{
+    @Test
+    public void LiveNumericCycle()
+    {
+        // A (2) -> (3) B (3) -> (2) A, repetition vector A = 3, B = 2
+        BPDFGraph graph = cycle("2", "3", "3", "2", "4");
+        assertTrue(graph.isLive());
+        assertEquals("A*2 B A B", scheduleString(graph));
+
+        // A needs 2 tokens to fire once
+        graph = cycle("2", "3", "3", "2", "1");
+        assertFalse(graph.isLive());
+        assertTrue(graph.getSequentialSchedule() == null);
+    }
+
+    @Test
+    public void LiveParametricCycle()
+    {
+        // A (p) -> (1) B (1) -> (p) A, repetition vector A = 1, B = p
+        BPDFGraph graph = cycle("p", "1", "1", "p", "p");
+        assertTrue(graph.isLive());
+        assertEquals("A B*p", scheduleString(graph));
+
+        // A single token only lets A fire when p = 1
+        graph = cycle("p", "1", "1", "p", "1");
+        assertFalse(graph.isLive());
+        assertTrue(graph.getSequentialSchedule() == null);
+    }
+
+    @Test
+    public void RemoveEdge()
+    {
+        BPDFGraph graph = cycle("p", "q", "q", "p", "p");
+        BPDFEdge edge = graph.getEdges().get(0);
+        BPDFActor a = edge.getProducer();
+        BPDFActor b = edge.getConsumer();
+        int version = graph.getVersion();
+        assertTrue(graph.removeEdge(edge));
+        assertFalse(graph.removeEdge(edge));
+        assertEquals(1, graph.getEdges().size());
+        assertTrue(graph.getVersion() != version);
+
+        // Only B -> A is left in the edge lists of the actors
+        graph.removeEdge(graph.getEdges().get(0));
+        assertTrue(a.getIntParamSet().isEmpty());
+        assertTrue(b.getIntParamSet().isEmpty());
+    }
+
+    @Test
+    public void KeepVersion()
+    {
+        BPDFGraph graph = cycle("2", "3", "3", "2", "4");
+        assertTrue(graph.isLive());
+        int version = graph.getVersion();
+
+        // Changes outside the graph keep its version
+        new BPDFActor("Unrelated").setTime(5);
+        cycle("p", "1", "1", "p", "p").getEdges().get(0).setTokens("1");
+        assertEquals(version, graph.getVersion());
+
+        // Changes of its own actors and edges do not
+        graph.getActors().get(0).setTime(5);
+        assertTrue(graph.getVersion() != version);
+        version = graph.getVersion();
+        graph.getEdges().get(1).setTokens("6");
+        assertTrue(graph.getVersion() != version);
+    }
+
+    /**
+     * A cycle of two actors A and B, with the given tokens on B -> A
+     */
+    private static BPDFGraph cycle(String rateA, String rateB,
+        String rateBack, String rateBackA, String tokens)
+    {
+        BPDFGraph graph = new BPDFGraph();
+        BPDFActor a = new BPDFActor("A");
+        BPDFActor b = new BPDFActor("B");
+        graph.addActor(a);
+        graph.addActor(b);
+        graph.connect(a, rateA, b, rateB);
+        graph.connect(b, rateBack, a, rateBackA).setTokens(tokens);
+        return graph;
+    }
+
+    private static String scheduleString(BPDFGraph graph)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (BPDFFiring firing : graph.getSequentialSchedule()
+            .getScheduleList())
+        {
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(firing.getName());
+            if (!firing.getTimes().isUnit())
+                sb.append('*').append(firing.getTimes().getString());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,164 @@
+// BinaryParserTest.java
+package bpdf.graph;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import bpdf.symbol.Product;
+
+public class BinaryParserTest
+{
+    @Test
+    public void WriteAndParse() throws IOException
+    {
+        String[] files = {"ex1", "ex2", "ex3", "ex4", "vc1coarse"};
+        for (String name : files)
+        {
+            BPDFGraph graph = new BPDFGraph("src/" + name + ".bpdf");
+            assertEquals(name, describe(graph), describe(roundTrip(graph)));
+        }
+
+        BPDFGraph graph = graph();
+        BPDFGraph parsed = roundTrip(graph);
+        assertEquals(describe(graph), describe(parsed));
+
+        // Zero comes with either sign, which the constructor of the parsed
+        // product must not flip
+        Product zero = parsed.getEdges().get(0).getTokens();
+        assertTrue(zero.isZero() && zero.getSign());
+        zero = parsed.getEdges().get(3).getTokens();
+        assertTrue(zero.isZero() && !zero.getSign());
+        Product tokens = parsed.getEdges().get(1).getTokens();
+        assertEquals("3*p^2", tokens.getString());
+        assertTrue(tokens.getSign());
+        assertEquals("-2", parsed.getEdges().get(2).getRateIn().getString());
+    }
+
+    @Test
+    public void RejectHeader() throws IOException
+    {
+        File file = write(graph());
+        assertTrue(BinaryParser.isBinary(file));
+
+        // Version right after the magic number
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(4);
+        raf.writeInt(BinaryParser.VERSION + 1);
+        raf.close();
+        assertTrue(BinaryParser.isBinary(file));
+        assertError(file, "Unsupported binary graph version "
+            + (BinaryParser.VERSION + 1));
+
+        raf = new RandomAccessFile(file, "rw");
+        raf.writeInt(0x47524146);
+        raf.close();
+        assertFalse(BinaryParser.isBinary(file));
+        assertError(file, "Not a binary graph");
+    }
+
+    private static void assertError(File file, String message)
+    {
+        try
+        {
+            new BinaryParser(file);
+            fail("Parsed " + file);
+        }
+        catch (RuntimeException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().endsWith(message));
+        }
+    }
+
+    /**
+     * A graph with zero, parametric and negative amounts, guards,
+     * modifiers and timing
+     */
+    private static BPDFGraph graph()
+    {
+        BPDFGraph graph = new BPDFGraph();
+        BPDFActor a = new BPDFActor("A");
+        BPDFActor b = new BPDFActor("B");
+        BPDFActor c = new BPDFActor("C");
+        a.setTime(3);
+        a.setModifier("b", new Product("2*p"));
+        c.setModifier("a", new Product(1));
+        graph.addActor(a);
+        graph.addActor(b);
+        graph.addActor(c);
+        connect(graph, a, "2*p", b, "q", "0", null);
+        connect(graph, b, "1", c, "2", "3*p^2", "b");
+        connect(graph, c, "-2", a, "1", "2", "a&!b");
+        connect(graph, a, "1", c, "1", "0", null);
+        graph.getEdges().get(3).setTokens(new Product(0));
+        return graph;
+    }
+
+    private static void connect(BPDFGraph graph, BPDFActor prod,
+        String rateProd, BPDFActor cons, String rateCons, String tokens,
+        String guard)
+    {
+        BPDFEdge edge = graph.connect(prod, rateProd, cons, rateCons);
+        edge.setTokens(tokens);
+        if (guard != null)
+            edge.setGuard(guard);
+    }
+
+    private static File write(BPDFGraph graph) throws IOException
+    {
+        File file = File.createTempFile("graph", ".bpdfb");
+        file.deleteOnExit();
+        BinaryWriter.write(graph, file);
+        return file;
+    }
+
+    private static BPDFGraph roundTrip(BPDFGraph graph) throws IOException
+    {
+        File file = write(graph);
+        BinaryParser parser = new BinaryParser(file);
+        BPDFGraph res = new BPDFGraph();
+        res.addActors(parser.getActors());
+        res.addEdges(parser.getEdges());
+        return res;
+    }
+
+    /**
+     * Returns the actors and edges of a graph as a string
+     */
+    private static String describe(BPDFGraph graph)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (BPDFActor actor : graph.getActors())
+        {
+            sb.append(actor.getName()).append(" time ")
+                .append(actor.getTime());
+            for (String param : actor.getBoolParam())
+                sb.append(' ').append(param).append('/')
+                    .append(product(actor.getPeriod(param)));
+            sb.append('\n');
+        }
+        for (BPDFEdge edge : graph.getEdges())
+        {
+            sb.append(edge.getName()).append(": ")
+                .append(edge.getProducer().getName()).append(' ')
+                .append(product(edge.getRateIn())).append(" -> ")
+                .append(product(edge.getRateOut())).append(' ')
+                .append(edge.getConsumer().getName()).append(" tokens ")
+                .append(product(edge.getTokens())).append(" guard ")
+                .append(edge.getGuard()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the string of a product along with its sign
+     */
+    private static String product(Product prod)
+    {
+        return prod.getString() + (prod.getSign() ? "(+)" : "(-)");
+    }
+}
@@ -0,0 +1,183 @@
+// CycleDetectorTest.java
+package bpdf.graph;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class CycleDetectorTest
+{
+    @Test
+    public void FindComponents()
+    {
+        // A -> B -> C <-> D
+        BPDFGraph graph = graph("A", "B", "C", "D");
+        connect(graph, "A", "B");
+        connect(graph, "B", "C");
+        connect(graph, "C", "D");
+        connect(graph, "D", "C");
+        CycleDetector cd = new CycleDetector(graph);
+
+        // Reverse topological order
+        assertEquals("[[C, D], [B], [A]]", names(cd.getComponents()));
+        assertEquals("[[C, D]]", names(cd.getCyclicComponents()));
+        assertTrue(cd.hasCycles());
+        assertEquals(1, cd.getCycles().size());
+
+        graph = graph("A", "B", "C");
+        connect(graph, "A", "B");
+        connect(graph, "B", "C");
+        connect(graph, "A", "C");
+        cd = new CycleDetector(graph);
+        assertEquals(3, cd.getComponents().size());
+        assertTrue(cd.getCyclicComponents().isEmpty());
+        assertFalse(cd.hasCycles());
+        assertTrue(cd.getCycles().isEmpty());
+    }
+
+    @Test
+    public void FindSelfLoops()
+    {
+        BPDFGraph graph = graph("A", "B");
+        connect(graph, "A", "A");
+        connect(graph, "A", "B");
+        CycleDetector cd = new CycleDetector(graph);
+        assertTrue(cd.hasCycles());
+        assertEquals("[[A]]", names(cd.getCyclicComponents()));
+        List<BPDFGraph> cycles = cd.getCycles();
+        assertEquals(1, cycles.size());
+        assertEquals(1, cycles.get(0).getActors().size());
+        assertEquals(1, cycles.get(0).getEdges().size());
+
+        // Self loops come on top of the cycles of a component
+        graph = graph("A", "B");
+        connect(graph, "A", "A");
+        connect(graph, "B", "B");
+        connect(graph, "A", "B");
+        connect(graph, "B", "A");
+        assertEquals(3, new CycleDetector(graph).getCycles().size());
+    }
+
+    @Test
+    public void FindParallelEdges()
+    {
+        // Parallel edges make a single cycle holding all of them
+        BPDFGraph graph = graph("A", "B");
+        connect(graph, "A", "B");
+        connect(graph, "A", "B");
+        connect(graph, "B", "A");
+        List<BPDFGraph> cycles = new CycleDetector(graph).getCycles();
+        assertEquals(1, cycles.size());
+        assertEquals(2, cycles.get(0).getActors().size());
+        assertEquals(3, cycles.get(0).getEdges().size());
+    }
+
+    @Test
+    public void CountCycles()
+    {
+        // Ring of n actors: one cycle of n actors
+        List<BPDFGraph> cycles = new CycleDetector(ring(6)).getCycles();
+        assertEquals(1, cycles.size());
+        assertEquals(6, cycles.get(0).getActors().size());
+        assertEquals(6, cycles.get(0).getEdges().size());
+
+        // Complete graphs: sum over k of C(n,k) * (k-1)! cycles
+        assertEquals(5, new CycleDetector(complete(3)).getCycles().size());
+        assertEquals(20, new CycleDetector(complete(4)).getCycles().size());
+        assertEquals(84, new CycleDetector(complete(5)).getCycles().size());
+
+        // Two rings sharing an actor: A B C A and A D A
+        BPDFGraph graph = graph("A", "B", "C", "D");
+        connect(graph, "A", "B");
+        connect(graph, "B", "C");
+        connect(graph, "C", "A");
+        connect(graph, "A", "D");
+        connect(graph, "D", "A");
+        assertEquals(2, new CycleDetector(graph).getCycles().size());
+    }
+
+    @Test
+    public void TruncateCycles()
+    {
+        CycleDetector cd = new CycleDetector(complete(4));
+        CycleDetector.Cycles cycles = cd.cycles(5);
+        int count = 0;
+        while (cycles.hasNext())
+        {
+            cycles.next();
+            count++;
+        }
+        assertEquals(5, count);
+        assertTrue(cycles.isTruncated());
+
+        cycles = cd.cycles(20);
+        count = 0;
+        while (cycles.hasNext())
+        {
+            cycles.next();
+            count++;
+        }
+        assertEquals(20, count);
+        assertFalse(cycles.isTruncated());
+
+        cycles = new CycleDetector(ring(3)).cycles(0);
+        assertFalse(cycles.hasNext());
+        assertTrue(cycles.isTruncated());
+    }
+
+    private static BPDFGraph graph(String... names)
+    {
+        BPDFGraph graph = new BPDFGraph();
+        for (String name : names)
+            graph.addActor(new BPDFActor(name));
+        return graph;
+    }
+
+    private static BPDFGraph ring(int n)
+    {
+        BPDFGraph graph = new BPDFGraph();
+        for (int i = 0; i < n; i++)
+            graph.addActor(new BPDFActor("A" + i));
+        for (int i = 0; i < n; i++)
+            connect(graph, "A" + i, "A" + ((i + 1) % n));
+        return graph;
+    }
+
+    private static BPDFGraph complete(int n)
+    {
+        BPDFGraph graph = new BPDFGraph();
+        for (int i = 0; i < n; i++)
+            graph.addActor(new BPDFActor("A" + i));
+        for (int i = 0; i < n; i++)
+        {
+            for (int j = 0; j < n; j++)
+            {
+                if (i != j)
+                    connect(graph, "A" + i, "A" + j);
+            }
+        }
+        return graph;
+    }
+
+    private static void connect(BPDFGraph graph, String prod, String cons)
+    {
+        graph.connect(graph.getActor(prod), "1", graph.getActor(cons), "1");
+    }
+
+    private static String names(List<List<BPDFActor>> components)
+    {
+        List<List<String>> res = new ArrayList<List<String>>();
+        for (List<BPDFActor> comp : components)
+        {
+            List<String> names = new ArrayList<String>();
+            for (BPDFActor actor : comp)
+                names.add(actor.getName());
+            Collections.sort(names);
+            res.add(names);
+        }
+        return res.toString();
+    }
+}
@@ -0,0 +1,124 @@
+// TokenCounterTest.java
+package bpdf.graph;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import bpdf.symbol.Product;
+
+public class TokenCounterTest
+{
+    @Test
+    public void CountTokens()
+    {
+        TokenCounter tokens = new TokenCounter(new Product(3));
+        tokens.add(new Product(4));
+        tokens.subtract(5);
+        assertEquals(2, tokens.getCount());
+        assertFalse(tokens.covers(3));
+        try
+        {
+            tokens.subtract(new Product(3));
+            fail("Removed 3 tokens out of 2");
+        }
+        catch (TokenCounter.Underflow e)
+        {
+            assertEquals(2, tokens.getCount());
+        }
+
+        tokens.set(new Product("2*p"));
+        tokens.subtract(new Product("p"));
+        assertEquals("p", tokens.getString());
+        assertFalse(tokens.covers(new Product("2*p")));
+        assertTrue(tokens.covers(1));
+        assertFalse(tokens.covers(2));
+        tokens.subtract(new Product("p"));
+        assertTrue(tokens.isNumber());
+        assertTrue(tokens.isZero());
+    }
+
+    @Test
+    public void CountParametricTokens()
+    {
+        // p + 2 covers any amount up to 3, and p + 1
+        TokenCounter tokens = new TokenCounter(new Product("p"));
+        tokens.add(2);
+        assertFalse(tokens.isNumber());
+        assertTrue(tokens.covers(3));
+        assertFalse(tokens.covers(4));
+        assertTrue(tokens.covers(new Product("p")));
+        assertFalse(tokens.covers(new Product("q")));
+        try
+        {
+            tokens.subtract(new Product("2*p"));
+            fail("Removed 2*p tokens out of p + 2");
+        }
+        catch (TokenCounter.Underflow e)
+        {
+            assertTrue(tokens.covers(3) && !tokens.covers(4));
+        }
+        tokens.subtract(new Product("p"));
+        assertEquals(2, tokens.getCount());
+    }
+
+    @Test
+    public void FireExecutionState()
+    {
+        // A and B feed C, which feeds A back
+        BPDFGraph graph = new BPDFGraph();
+        BPDFActor a = new BPDFActor("A");
+        BPDFActor b = new BPDFActor("B");
+        BPDFActor c = new BPDFActor("C");
+        graph.addActor(a);
+        graph.addActor(b);
+        graph.addActor(c);
+        BPDFEdge ac = graph.connect(a, "1", c, "1");
+        BPDFEdge bc = graph.connect(b, "1", c, "p");
+        BPDFEdge ca = graph.connect(c, "2", a, "1");
+        ac.setTokens("2");
+        ExecutionState state = new ExecutionState(graph);
+
+        // C has tokens from A but none from B
+        assertFalse(state.prefire(c));
+        assertUnchanged(state, c, null, ac, bc, ca);
+        assertUnchanged(state, c, new Product(2), ac, bc, ca);
+        assertUnchanged(state, c, new Product("q"), ac, bc, ca);
+
+        state.fire(b, new Product("p"));
+        assertTrue(state.prefire(c));
+        state.fire(c);
+        assertEquals("1", state.getTokens(ac).getString());
+        assertTrue(state.getTokens(bc).isZero());
+        assertEquals("2", state.getTokens(ca).getString());
+        assertEquals("1", state.getFirings(c).getString());
+        assertUnchanged(state, c, null, ac, bc, ca);
+    }
+
+    /**
+     * Checks that firing the actor (once if times is null) throws an
+     * Underflow and leaves the tokens and firings as they were
+     */
+    private static void assertUnchanged(ExecutionState state, BPDFActor actor,
+        Product times, BPDFEdge... edges)
+    {
+        String[] tokens = new String[edges.length];
+        for (int i = 0; i < edges.length; i++)
+            tokens[i] = state.getTokens(edges[i]).getString();
+        String firings = state.getFirings(actor).getString();
+        try
+        {
+            if (times == null)
+                state.fire(actor);
+            else
+                state.fire(actor, times);
+            fail("Fired " + actor.getName());
+        }
+        catch (TokenCounter.Underflow e)
+        {
+            for (int i = 0; i < edges.length; i++)
+                assertEquals(tokens[i], state.getTokens(edges[i]).getString());
+            assertEquals(firings, state.getFirings(actor).getString());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+// SlottedSchedulerTest.java
+package bpdf.scheduling;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import bpdf.graph.BPDFActor;
+import bpdf.graph.BPDFGraph;
+
+public class SlottedSchedulerTest
+{
+    @Test
+    public void ScheduleIteration()
+    {
+        // Times of a single iteration before streaming was added
+        assertEquals(36, schedule("src/ex2.bpdf", 2, 8).getSchedule(1));
+        assertEquals(44, schedule("src/ex2.bpdf", 3, 4).getSchedule(1));
+        assertEquals(60, schedule("src/ex2.bpdf", 5, 2).getSchedule(1));
+        assertEquals(22980, schedule("src/vc1coarse.bpdf", 2, 8).getSchedule(1));
+        assertEquals(25726, schedule("src/vc1coarse.bpdf", 3, 4).getSchedule(1));
+        assertEquals(33489, schedule("src/vc1coarse.bpdf", 5, 2).getSchedule(1));
+        assertEquals(25726, schedule("src/vc1coarse.bpdf", 3, 4).getSchedule());
+    }
+
+    @Test
+    public void ScheduleIterations()
+    {
+        int previous = 0;
+        for (int n = 1; n <= 4; n++)
+        {
+            SlottedScheduler sched = schedule("src/vc1coarse.bpdf", 3, 4);
+            int time = sched.getSchedule(n);
+            assertEquals(n, sched.getCompletedIterations());
+            assertTrue(time > previous);
+            previous = time;
+        }
+    }
+
+    @Test
+    public void CapIterations()
+    {
+        // The largest repetition count of vc1coarse is p*q = 12
+        SlottedScheduler sched = schedule("src/vc1coarse.bpdf", 3, 4);
+        sched.initVectors();
+        int[] solution = sched._solution.clone();
+        sched.scaleSolution(Integer.MAX_VALUE);
+        int iterations = Integer.MAX_VALUE / 12;
+        for (int id = 0; id < solution.length; id++)
+            assertEquals((long) solution[id] * iterations, sched._solution[id]);
+    }
+
+    @Test
+    public void FindActorsByName()
+    {
+        // Actors of another copy of the graph have the same ids
+        SlottedScheduler sched = schedule("src/vc1coarse.bpdf", 3, 4);
+        BPDFGraph copy = new BPDFGraph("src/vc1coarse.bpdf");
+        for (BPDFActor actor : copy.getActors())
+        {
+            int id = sched.idOf(actor);
+            assertEquals(actor.getName(), sched._actors[id].getName());
+        }
+        BPDFActor unknown = new BPDFActor("Unknown");
+        assertEquals(-1, sched.idOf(unknown));
+        sched.invalidate(Arrays.asList(unknown), new ArrayList<String>());
+    }
+
+    private static SlottedScheduler schedule(String path, int p, int q)
+    {
+        BPDFGraph graph = new BPDFGraph(path);
+        graph.isConsistent();
+        graph.isLive();
+        graph.isSafe();
+        Map<String, Integer> intMap = new HashMap<String, Integer>();
+        intMap.put("p", p);
+        intMap.put("q", q);
+        Map<String, String> boolMap = new HashMap<String, String>();
+        boolMap.put("a", "1101");
+        boolMap.put("b", "011");
+        boolMap.put("c", "10");
+        SlottedScheduler sched = new SlottedScheduler(graph, intMap, boolMap);
+        sched._verbose = false;
+        return sched;
+    }
+}
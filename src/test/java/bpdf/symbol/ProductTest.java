@@ -4,6 +4,8 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import org.junit.Test;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import bpdf.symbol.*;
 
 public class ProductTest
@@ -134,6 +136,228 @@ public class ProductTest
         // prod4comp.isGreaterThan(prod1comp);
     }
 
+    @Test
+    public void InternMonomial()
+    {
+        Product prod1 = new Product("2*p*q^2");
+        Product prod2 = new Product("q^2*p*3");
+        Product prod3 = new Product("p").multiply(new Product("q^2"))
+            .getProduct();
+
+        assertTrue(prod1.getMonomial() == prod2.getMonomial());
+        assertTrue(prod1.getMonomial() == prod3.getMonomial());
+        assertTrue(new Product(5).getMonomial() == Monomial.UNIT);
+        assertEquals("p*q^2", prod3.getString());
+
+        Product gcd = prod1.gcd(new Product("4*q^3"));
+        assertEquals("2*q^2", gcd.getString());
+
+        Product eval = prod1.evaluate("q",3);
+        assertEquals("18*p", eval.getString());
+        assertTrue(eval.getMonomial() == new Product("p").getMonomial());
+    }
+
+    @Test
+    public void ExactNumerics()
+    {
+        Expression sevenHalves = new Fraction(new Product(7),new Product(2));
+        Expression negHalves = new Fraction(new Product(-7),new Product(2));
+        assertEquals(4, sevenHalves.ceiling().getNumber());
+        assertEquals(3, sevenHalves.floor().getNumber());
+        assertEquals(-3, negHalves.ceiling().getNumber());
+        assertEquals(-4, negHalves.floor().getNumber());
+
+        Expression frac = new Fraction(new Product("i"),new Product(3));
+        assertEquals(-1, frac.floor().evaluate("i",-1).getNumber());
+        assertEquals(6, frac.ceiling().evaluate("i",16).getNumber());
+
+        Expression sum = new Product(3).add(new Product(-5))
+            .add(new Product("p")).add(new Product(2));
+        assertEquals("p", sum.getString());
+        assertEquals(0, new Product(4).add(new Product(-4)).getNumber());
+
+        Product pow = new Product("p^31");
+        assertEquals(-1, pow.evaluate("p",-1).getNumber());
+        assertEquals(Integer.MIN_VALUE, ExactArithmetic.pow(-2,31));
+        assertEquals(1 << 30, ExactArithmetic.pow(2,30));
+        try
+        {
+            pow.evaluate("p",2);
+            assertTrue(false);
+        }
+        catch (ArithmeticException e)
+        {
+        }
+    }
+
+    @Test
+    public void EvaluateValues()
+    {
+        Map<String, Integer> values = new HashMap<String, Integer>();
+        values.put("p",3);
+        values.put("q",4);
+
+        Expression f = new Product("2*p*i").add(new Product("-q"))
+            .divide(new Product("q")).ceiling();
+        Expression g = new Fraction(new Product("p*i"),new Product("q^2"));
+        Expression[] exprs = {f, g, new Product("5*p^2*q"),
+            g.floor().multiply(new Product("q"))};
+        for (Expression expr : exprs)
+        {
+            Expression all = expr.evaluate(values);
+            Expression one = expr.evaluate("p",3).evaluate("q",4);
+            for (int i = 0; i < 20; i++)
+                assertEquals(one.evaluate("i",i).getNumber(),
+                    all.evaluate("i",i).getNumber());
+        }
+        assertEquals(60, new Product("5*p*q").evaluate(values).getNumber());
+
+        EvaluationCache cache = new EvaluationCache();
+        Expression cached = cache.evaluate(f,values);
+        assertTrue(cached.equals(cache.evaluate(f,
+            new HashMap<String, Integer>(values))));
+        assertEquals(1, cache.getHits());
+        assertEquals(5, cached.evaluate("i",4).getNumber());
+
+        // A function built again is the same key
+        Expression rebuilt = new Product("2*p*i").add(new Product("-q"))
+            .divide(new Product("q")).ceiling();
+        assertTrue(rebuilt.equals(f) && (rebuilt.hashCode() == f.hashCode()));
+        assertFalse(rebuilt.equals(new Product("2*p*i").add(new Product("-q"))
+            .divide(new Product("q")).floor()));
+        assertTrue(new Product("p").add(new Product("q"))
+            .equals(new Product("q").add(new Product("p"))));
+        assertTrue(cached.equals(cache.evaluate(rebuilt,values)));
+        assertEquals(2, cache.getHits());
+
+        // Marking a key or a result leaves the cache as it was
+        Expression key = new Fraction(new Product("p*i"),new Product("q^2"));
+        cache.evaluate(key,values).floor();
+        key.ceiling();
+        Expression res = cache.evaluate(
+            new Fraction(new Product("p*i"),new Product("q^2")),values);
+        assertEquals(3, cache.getHits());
+        assertFalse(res.hasFloor() || res.hasCeiling());
+
+        // The values of an expression start over past MAX_VALUES
+        Product rate = new Product("p*q");
+        for (int p = 0; p <= EvaluationCache.MAX_VALUES; p++)
+        {
+            values.put("p",p);
+            assertEquals(4 * p, cache.evaluate(rate,values).getNumber());
+        }
+        values.put("p",0);
+        cache.evaluate(rate,values);
+        assertEquals(3, cache.getHits());
+    }
+
+    @Test
+    public void SolveIncrementally()
+    {
+        ArrayList<String> facts = new ArrayList<String>();
+        facts.add("A");
+        facts.add("B");
+        facts.add("C");
+        Equation ab = new Equation(new Product("2*p"),"A",new Product("3"),"B");
+        Equation bc = new Equation(new Product("2"),"B",new Product("p"),"C");
+        Equation ca = new Equation(new Product("1"),"C",new Product("2"),"A");
+
+        SystemSolver solver = new SystemSolver(facts,new ArrayList<Equation>());
+        solver.addEquation(ab);
+        solver.addEquation(bc);
+        Map<String, Expression> sol = solver.getSolution();
+        assertEquals("3", sol.get("A").getString());
+        assertEquals("2*p", sol.get("B").getString());
+        assertEquals("4", sol.get("C").getString());
+
+        solver.addEquation(ca);
+        assertTrue(solver.getSolution() == null);
+        solver.removeEquation(ab);
+        sol = solver.getSolution();
+        assertEquals("1", sol.get("A").getString());
+        assertEquals("p", sol.get("B").getString());
+        assertEquals("2", sol.get("C").getString());
+    }
+
+    @Test
+    public void NegateProduct()
+    {
+        assertEquals("-2*p", new Product("2*p").negate().getString());
+        assertEquals("q", new Product("-q").negate().getString());
+        assertTrue(new Product(0).negate().isZero());
+    }
+
+    @Test
+    public void CompileExpression()
+    {
+        Product rateIn = new Product("q");
+        Product rateOut = new Product("2");
+        Product negTokens = new Product("-3");
+        Expression data = rateOut.multiply(new Product("i"))
+            .add(negTokens).divide(rateIn).ceiling();
+
+        Product wPeriod = new Product("q");
+        Expression aux = new Fraction(new Product("i"),new Product("p"));
+        Expression mu = wPeriod.multiply(aux.ceiling()).add(new Product(1))
+            .add(new Product("-q"));
+
+        Expression[] funcs = {data, mu};
+        for (Expression f : funcs)
+        {
+            Expression bound = f.evaluate("p",3).evaluate("q",4);
+            CompiledExpression compiled = CompiledExpression.compile(bound,"i");
+            for (int i = 0; i < 30; i++)
+                assertEquals(bound.evaluate("i",i).getNumber(),
+                    compiled.evaluate(i));
+        }
+
+        // Overflow throws instead of wrapping around
+        CompiledExpression big = CompiledExpression.compile(
+            new Product("1000*i^5"),"i");
+        assertEquals(32000, big.evaluate(2));
+        for (int i : new int[] {100, 100000})
+        {
+            try
+            {
+                big.evaluate(i);
+                assertTrue(false);
+            }
+            catch (ArithmeticException e) {}
+        }
+    }
+
+    @Test
+    public void CompileGuard()
+    {
+        String[] exprs = {"(a&b)|c&!a", "(!a&b)", "!a&b",
+            "(a&b|!c)|(a&b)|c", "(a&b)|c", "(a&b|!c)"};
+        String[] params = {"a", "b", "c"};
+
+        for (String expr : exprs)
+        {
+            CompiledGuard compiled
+                = CompiledGuard.compile(new BooleanComposite(expr));
+            BooleanComposite tree = new BooleanComposite(expr);
+            for (int mask = 0; mask < 8; mask++)
+            {
+                long bits = 0;
+                for (int i = 0; i < params.length; i++)
+                {
+                    boolean value = ((mask >> i) & 1) != 0;
+                    tree.setValue(params[i],value);
+                    for (int k = 0; k < compiled.size(); k++)
+                    {
+                        if (value && compiled.getParam(k).equals(params[i]))
+                            bits |= (1L << k);
+                    }
+                }
+                assertEquals(tree.isSet(), compiled.isSet());
+                if (tree.isSet())
+                    assertEquals(tree.getValue(), compiled.evaluate(bits));
+            }
+        }
+    }
+
     @Test
     public void EvaluatePolynomial()
     {
@@ -191,6 +415,17 @@ public class ProductTest
         poly10 = poly10.add(prod5).getPolynomial();
         
         Polynomial poly11 = poly9.add(prod4).getPolynomial();
+
+        assertEquals("6*p+3", poly6.getString());
+        assertEquals("7*p", poly7.getString());
+        assertTrue(poly8.isZero());
+        assertEquals(1, poly10.getNumber());
+        assertEquals("4*p", poly11.getString());
+        assertTrue(poly6.isEqualTo(prod2.add(prod1)));
+        assertFalse(poly6.isEqualTo(poly7));
+        assertTrue(prod3.add(poly6).isEqualTo(new Product("7*p").add(prod2)));
+        assertTrue(poly7.multiply(new Product("q")).divide(prod3)
+            .isEqualTo(new Product("7*q")));
     }
 
     @Test